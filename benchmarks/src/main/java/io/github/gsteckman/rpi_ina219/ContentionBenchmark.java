@@ -0,0 +1,79 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ContentionBenchmark.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of several threads sharing one INA219 instance, whose register access is synchronized by the register cache.
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContentionBenchmark {
+
+    /**
+     * The device shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedDevice {
+        INA219 device;
+
+        /**
+         * Creates the simulated device.
+         *
+         * @throws IOException
+         *             Not thrown due to use of the simulator.
+         */
+        @Setup
+        public void setup() throws IOException {
+            device = new INA219(new INA219Simulator(20e-3, 12.0), 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8,
+                    INA219.Adc.BITS_12, INA219.Adc.BITS_12);
+        }
+    }
+
+    /**
+     * The snapshot array of each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadSample {
+        final long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+    }
+
+    @Benchmark
+    public double current(final SharedDevice shared) throws IOException {
+        return shared.device.getCurrent();
+    }
+
+    @Benchmark
+    public long[] rawSnapshot(final SharedDevice shared, final ThreadSample local) throws IOException {
+        shared.device.readSnapshot(local.sample, 0);
+        return local.sample;
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ConversionBenchmark.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of converting a block of 4096 raw snapshots to engineering units, one snapshot at a time with the INA219Base conversion methods and in bulk
+ * with the BatchConverter. Run with -prof perfasm to see whether the column loops are vectorized.
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConversionBenchmark {
+    private static final int N = 4096;
+    private INA219Base device;
+    private BatchConverter converter;
+    private final long[] samples = new long[N * INA219Base.SNAPSHOT_LENGTH];
+    private final long[] column = new long[N];
+    private final double[] shunt = new double[N];
+    private final double[] bus = new double[N];
+    private final double[] current = new double[N];
+    private final double[] power = new double[N];
+
+    /**
+     * Creates the simulated device and fills the block with random register values.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Setup
+    public void setup() throws IOException {
+        device = new INA219Base(new INA219Simulator(20e-3, 12.0), 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8,
+                INA219.Adc.BITS_12, INA219.Adc.BITS_12);
+        converter = new BatchConverter(device);
+        Random random = new Random(1);
+        for (int k = 0; k < N; k++) {
+            int o = k * INA219Base.SNAPSHOT_LENGTH;
+            samples[o + INA219Base.SNAPSHOT_SHUNT_VOLTAGE] = (short) random.nextInt();
+            samples[o + INA219Base.SNAPSHOT_BUS_VOLTAGE] = random.nextInt(0x10000);
+            samples[o + INA219Base.SNAPSHOT_POWER] = random.nextInt(0x10000);
+            samples[o + INA219Base.SNAPSHOT_CURRENT] = (short) random.nextInt();
+            samples[o + INA219Base.SNAPSHOT_RANGE] = INA219.Pga.GAIN_8.getValue();
+            column[k] = samples[o + INA219Base.SNAPSHOT_CURRENT];
+        }
+    }
+
+    /**
+     * Converts the block one snapshot at a time, as a SampleListener sees it.
+     */
+    @Benchmark
+    public void perSample(final Blackhole bh) {
+        for (int k = 0; k < N; k++) {
+            int o = k * INA219Base.SNAPSHOT_LENGTH;
+            long range = samples[o + INA219Base.SNAPSHOT_RANGE];
+            bh.consume(INA219Base.toShuntVoltage(samples[o + INA219Base.SNAPSHOT_SHUNT_VOLTAGE]));
+            bh.consume(INA219Base.toBusVoltage(samples[o + INA219Base.SNAPSHOT_BUS_VOLTAGE]));
+            bh.consume(device.toCurrent(samples[o + INA219Base.SNAPSHOT_CURRENT], range));
+            bh.consume(device.toPower(samples[o + INA219Base.SNAPSHOT_POWER], range));
+        }
+    }
+
+    @Benchmark
+    public double[] batch() {
+        converter.convert(samples, 0, N, shunt, bus, current, power, 0);
+        return power;
+    }
+
+    @Benchmark
+    public double[] column() {
+        converter.toCurrent(column, 0, INA219.Pga.GAIN_8.getValue(), current, 0, N);
+        return current;
+    }
+}
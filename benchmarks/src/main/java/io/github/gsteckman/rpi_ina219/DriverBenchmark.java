@@ -0,0 +1,113 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * DriverBenchmark.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Single threaded benchmarks of the INA219Base getters, snapshots and construction against the INA219Simulator. Run with -prof gc to report the
+ * allocation rate of each path.
+ */
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DriverBenchmark {
+    private INA219Simulator simulator;
+    private INA219Base device;
+    private final long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+
+    /**
+     * Creates the simulated device.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Setup
+    public void setup() throws IOException {
+        simulator = new INA219Simulator(20e-3, 12.0);
+        device = new INA219Base(simulator, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+    }
+
+    @Benchmark
+    public double shuntVoltage() throws IOException {
+        return device.getShuntVoltage();
+    }
+
+    @Benchmark
+    public double busVoltage() throws IOException {
+        return device.getBusVoltage();
+    }
+
+    @Benchmark
+    public double power() throws IOException {
+        return device.getPower();
+    }
+
+    @Benchmark
+    public double current() throws IOException {
+        return device.getCurrent();
+    }
+
+    @Benchmark
+    public short currentRaw() throws IOException {
+        return device.getCurrentRaw();
+    }
+
+    /**
+     * Reads all four channels with the individual getters, for comparison with the snapshot benchmarks.
+     */
+    @Benchmark
+    public void individualReads(final Blackhole bh) throws IOException {
+        bh.consume(device.getShuntVoltage());
+        bh.consume(device.getBusVoltage());
+        bh.consume(device.getPower());
+        bh.consume(device.getCurrent());
+    }
+
+    @Benchmark
+    public Measurement snapshot() throws IOException {
+        return device.readSnapshot();
+    }
+
+    @Benchmark
+    public long[] rawSnapshot() throws IOException {
+        device.readSnapshot(sample, 0);
+        return sample;
+    }
+
+    /**
+     * Measures construction, which computes and writes the configuration and calibration.
+     */
+    @Benchmark
+    public INA219Base construct() throws IOException {
+        return new INA219Base(simulator, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+    }
+}
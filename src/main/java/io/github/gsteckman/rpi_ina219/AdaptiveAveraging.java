@@ -0,0 +1,129 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * AdaptiveAveraging.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * A policy, set with INA219Base.setAdaptiveAveraging, that trades sample rate for noise as the signal changes. While the shunt voltage is steady, the
+ * ADC setting is stepped up, one step of the INA219.Adc settings at a time, towards the steady setting, which lowers the noise and the bus traffic.
+ * When the shunt voltage of a conversion differs from the previous one by more than the transient threshold, the ADC setting drops at once to the fast
+ * setting, so that the transient is followed with the best time resolution. Both ADCs are given the same setting.
+ * <p>
+ * The threshold must exceed the noise of the fast setting, or the policy never leaves it.
+ */
+public final class AdaptiveAveraging {
+    private static final INA219.Adc[] SETTINGS = INA219.Adc.values();
+    private final INA219.Adc fast;
+    private final INA219.Adc steady;
+    private final double transientThreshold;
+    private final double thresholdCounts;
+    private final int steadySamples;
+    private int level;
+    private int steadyCount;
+    private boolean hasLast;
+    private long last;
+
+    /**
+     * Constructs a new AdaptiveAveraging policy.
+     *
+     * @param fast
+     *            The setting used while the signal is changing, typically BITS_9 to BITS_12.
+     * @param steady
+     *            The setting reached while the signal is steady. It must average at least as many samples as the fast setting.
+     * @param transientThreshold
+     *            The change in shunt voltage between consecutive conversions, in Volts, above which the signal is considered to be changing.
+     * @param steadySamples
+     *            The number of consecutive steady conversions after which the setting is stepped up.
+     */
+    public AdaptiveAveraging(final INA219.Adc fast, final INA219.Adc steady, final double transientThreshold,
+            final int steadySamples) {
+        if (fast.ordinal() > steady.ordinal()) {
+            throw new IllegalArgumentException("Fast setting " + fast + " averages more than steady setting " + steady);
+        }
+        if (!(transientThreshold > 0)) {
+            throw new IllegalArgumentException("Transient threshold must be positive: " + transientThreshold);
+        }
+        if (steadySamples < 1) {
+            throw new IllegalArgumentException("Steady samples must be positive: " + steadySamples);
+        }
+        this.fast = fast;
+        this.steady = steady;
+        this.transientThreshold = transientThreshold;
+        this.thresholdCounts = transientThreshold / INA219Base.toShuntVoltage(1);
+        this.steadySamples = steadySamples;
+        level = fast.ordinal();
+    }
+
+    /**
+     * @return The setting used while the signal is changing.
+     */
+    public INA219.Adc getFast() {
+        return fast;
+    }
+
+    /**
+     * @return The setting reached while the signal is steady.
+     */
+    public INA219.Adc getSteady() {
+        return steady;
+    }
+
+    /**
+     * @return The transient threshold in Volts.
+     */
+    public double getTransientThreshold() {
+        return transientThreshold;
+    }
+
+    /**
+     * @return The number of consecutive steady conversions after which the setting is stepped up.
+     */
+    public int getSteadySamples() {
+        return steadySamples;
+    }
+
+    /**
+     * Returns to the fast setting and forgets the previous conversion.
+     *
+     * @return The fast setting.
+     */
+    INA219.Adc reset() {
+        level = fast.ordinal();
+        steadyCount = 0;
+        hasLast = false;
+        return fast;
+    }
+
+    /**
+     * Updates the policy with the shunt voltage of a conversion.
+     *
+     * @param shunt
+     *            The shunt voltage register value of the conversion.
+     * @return The setting for the following conversions.
+     */
+    INA219.Adc update(final long shunt) {
+        if (hasLast) {
+            if (Math.abs(shunt - last) > thresholdCounts) {
+                level = fast.ordinal();
+                steadyCount = 0;
+            } else if (level < steady.ordinal() && ++steadyCount >= steadySamples) {
+                level++;
+                steadyCount = 0;
+            }
+        }
+        hasLast = true;
+        last = shunt;
+        return SETTINGS[level];
+    }
+}
@@ -0,0 +1,308 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * AlertEngine.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Evaluates AlertRules against each sample on the sampling thread, immediately after the sample is read, and calls the AlertListeners when a rule is
+ * raised or cleared. Added as a SampleListener to a ContinuousSampler, alerts are therefore delivered within one conversion period of the sample that
+ * caused them. Evaluating the rules does not allocate.
+ * <p>
+ * Current and power rules ignore samples with the overflow flag set, since those values are not valid; an overflow rule watches the flag itself. Energy
+ * is integrated from the power with the trapezoidal rule and compensated summation, skipping overflowed samples and intervals longer than the maximum
+ * gap, as the EnergyAccumulator does.
+ */
+public class AlertEngine implements SampleListener {
+    private static final Log LOG = LogFactory.getLog(AlertEngine.class);
+    private final TrapezoidIntegral integral;
+    private volatile RuleState[] rules = new RuleState[0];
+    private volatile AlertListener[] listeners = new AlertListener[0];
+    private volatile boolean resetRequested;
+    private volatile double energy;
+
+    /**
+     * The evaluation state of one rule.
+     */
+    private static final class RuleState {
+        final AlertRule rule;
+        final Channel channel;
+        volatile boolean active;
+        long since = Long.MIN_VALUE;
+        boolean hasLast;
+        long lastTimestamp;
+        double lastValue;
+
+        RuleState(final AlertRule rule) {
+            this.rule = rule;
+            channel = rule.getChannel();
+        }
+    }
+
+    /**
+     * Constructs a new AlertEngine.
+     *
+     * @param maxGap
+     *            The longest interval between two samples, in nanoseconds, over which energy is integrated.
+     */
+    public AlertEngine(final long maxGap) {
+        integral = new TrapezoidIntegral(maxGap);
+    }
+
+    /**
+     * Adds a rule. It is evaluated from the next sample on.
+     *
+     * @param rule
+     *            The rule to add.
+     */
+    public synchronized void addRule(final AlertRule rule) {
+        RuleState[] r = Arrays.copyOf(rules, rules.length + 1);
+        r[r.length - 1] = new RuleState(rule);
+        rules = r;
+    }
+
+    /**
+     * Removes a previously added rule. If it was raised, it is not cleared.
+     *
+     * @param rule
+     *            The rule to remove.
+     */
+    public synchronized void removeRule(final AlertRule rule) {
+        RuleState[] r = rules;
+        for (int i = 0; i < r.length; i++) {
+            if (r[i].rule == rule) {
+                RuleState[] n = new RuleState[r.length - 1];
+                System.arraycopy(r, 0, n, 0, i);
+                System.arraycopy(r, i + 1, n, i, n.length - i);
+                rules = n;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds a listener to be called when a rule is raised or cleared.
+     *
+     * @param listener
+     *            The listener to add.
+     */
+    public synchronized void addListener(final AlertListener listener) {
+        AlertListener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+        l[l.length - 1] = listener;
+        listeners = l;
+    }
+
+    /**
+     * Removes a previously added listener.
+     *
+     * @param listener
+     *            The listener to remove.
+     */
+    public synchronized void removeListener(final AlertListener listener) {
+        AlertListener[] l = listeners;
+        for (int i = 0; i < l.length; i++) {
+            if (l[i] == listener) {
+                AlertListener[] n = new AlertListener[l.length - 1];
+                System.arraycopy(l, 0, n, 0, i);
+                System.arraycopy(l, i + 1, n, i, n.length - i);
+                listeners = n;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns whether a rule is raised.
+     *
+     * @param rule
+     *            The rule.
+     * @return True if the rule was added and is raised.
+     */
+    public boolean isActive(final AlertRule rule) {
+        RuleState[] r = rules;
+        for (int i = 0; i < r.length; i++) {
+            if (r[i].rule == rule) {
+                return r[i].active;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The energy integrated since construction or the last reset, in Watt-hours.
+     */
+    public double getEnergy() {
+        return energy;
+    }
+
+    /**
+     * Restarts the energy integration with the next sample.
+     */
+    public void reset() {
+        resetRequested = true;
+    }
+
+    /**
+     * Selects the narrowest gain range of a device in which a current limit does not overflow, so that the math overflow flag (OVF) signals currents
+     * beyond the full scale of that range. The limit is rounded up to the next full scale of 40, 80, 160 or 320 mV across the shunt resistor. The
+     * device's calibration must allow the resulting current, or the flag is also set by overflow of the current register.
+     *
+     * @param device
+     *            The device to program.
+     * @param currentLimit
+     *            The current, in Amps, beyond which the overflow flag should be set.
+     * @return The selected gain range.
+     * @throws IOException
+     *             If the device registers could not be written.
+     * @throws IllegalArgumentException
+     *             If the limit exceeds the widest range.
+     * @throws IllegalStateException
+     *             If automatic ranging is enabled on the device.
+     */
+    public static INA219.Pga programOverflow(final INA219Base device, final double currentLimit) throws IOException {
+        if (device.isAutoRanging()) {
+            throw new IllegalStateException("Gain range is controlled by automatic ranging");
+        }
+        double voltage = Math.abs(currentLimit) * device.getShuntResistance();
+        for (INA219.Pga pga : INA219.Pga.values()) {
+            if (pga.getFullScale() >= voltage) {
+                device.setPga(pga);
+                return pga;
+            }
+        }
+        throw new IllegalArgumentException("Current limit beyond full scale: " + currentLimit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sample(final long timestamp, final double shuntVoltage, final double busVoltage, final double current,
+            final double power, final boolean overflow) {
+        integrate(timestamp, power, overflow);
+        RuleState[] r = rules;
+        for (int i = 0; i < r.length; i++) {
+            RuleState s = r[i];
+            if (overflow && (s.channel == Channel.CURRENT || s.channel == Channel.POWER)) {
+                continue;
+            }
+            double value;
+            if (s.channel == null) {
+                value = energy;
+            } else {
+                switch (s.channel) {
+                case SHUNT_VOLTAGE:
+                    value = shuntVoltage;
+                    break;
+                case BUS_VOLTAGE:
+                    value = busVoltage;
+                    break;
+                case CURRENT:
+                    value = current;
+                    break;
+                default:
+                    value = power;
+                    break;
+                }
+            }
+            evaluate(s, timestamp, value, overflow);
+        }
+    }
+
+    private void integrate(final long timestamp, final double power, final boolean overflow) {
+        if (resetRequested) {
+            resetRequested = false;
+            integral.reset();
+        }
+        integral.add(timestamp, power, overflow);
+        energy = integral.getTotal();
+    }
+
+    private void evaluate(final RuleState s, final long timestamp, final double value, final boolean overflow) {
+        AlertRule rule = s.rule;
+        AlertRule.Condition condition = rule.getCondition();
+        double tested = value;
+        if (condition == AlertRule.Condition.RISING_FASTER || condition == AlertRule.Condition.FALLING_FASTER) {
+            long dt = timestamp - s.lastTimestamp;
+            boolean first = !s.hasLast || dt <= 0;
+            tested = first ? 0 : (value - s.lastValue) * 1e9 / dt;
+            s.hasLast = true;
+            s.lastTimestamp = timestamp;
+            s.lastValue = value;
+            if (first) {
+                return;
+            }
+        }
+        double threshold = rule.getThreshold();
+        double hysteresis = rule.getHysteresis();
+        boolean meets;
+        boolean clears;
+        switch (condition) {
+        case ABOVE:
+        case RISING_FASTER:
+            meets = tested > threshold;
+            clears = tested < threshold - hysteresis;
+            break;
+        case BELOW:
+            meets = tested < threshold;
+            clears = tested > threshold + hysteresis;
+            break;
+        case FALLING_FASTER:
+            meets = -tested > threshold;
+            clears = -tested < threshold - hysteresis;
+            break;
+        default:
+            meets = overflow;
+            clears = !overflow;
+            tested = overflow ? 1 : 0;
+            break;
+        }
+        if (!s.active) {
+            if (!meets) {
+                s.since = Long.MIN_VALUE;
+                return;
+            }
+            if (s.since == Long.MIN_VALUE) {
+                s.since = timestamp;
+            }
+            if (timestamp - s.since >= rule.getMinimumDuration()) {
+                s.active = true;
+                s.since = Long.MIN_VALUE;
+                notifyListeners(rule, timestamp, tested, true);
+            }
+        } else if (clears) {
+            s.active = false;
+            notifyListeners(rule, timestamp, tested, false);
+        }
+    }
+
+    private void notifyListeners(final AlertRule rule, final long timestamp, final double value, final boolean raised) {
+        AlertListener[] l = listeners;
+        for (int i = 0; i < l.length; i++) {
+            try {
+                if (raised) {
+                    l[i].alertRaised(rule, timestamp, value);
+                } else {
+                    l[i].alertCleared(rule, timestamp, value);
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Alert listener failed", e);
+            }
+        }
+    }
+}
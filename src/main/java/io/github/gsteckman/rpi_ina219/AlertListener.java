@@ -0,0 +1,45 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * AlertListener.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Receives the alerts of an AlertEngine. The methods are called on the sampling thread, immediately after the sample that changed the state of the rule
+ * was read, and must be quick since they delay the next read.
+ */
+public interface AlertListener {
+    /**
+     * Called when a rule is raised.
+     *
+     * @param rule
+     *            The rule.
+     * @param timestamp
+     *            Timestamp of the sample that raised the rule.
+     * @param value
+     *            The value tested: the channel value, energy or rate of change.
+     */
+    void alertRaised(AlertRule rule, long timestamp, double value);
+
+    /**
+     * Called when a raised rule is cleared.
+     *
+     * @param rule
+     *            The rule.
+     * @param timestamp
+     *            Timestamp of the sample that cleared the rule.
+     * @param value
+     *            The value tested: the channel value, energy or rate of change.
+     */
+    void alertCleared(AlertRule rule, long timestamp, double value);
+}
@@ -0,0 +1,168 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * AlertRule.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * A condition on a measured quantity that an AlertEngine watches. A rule is raised when its condition has held for at least the minimum duration, and
+ * cleared when the value has moved back past the threshold by more than the hysteresis. Rate conditions compare the rate of change between consecutive
+ * samples, in units per second, with the threshold. Rules are configured before being added to an engine and must not be changed afterwards.
+ */
+public final class AlertRule {
+    private final String name;
+    private final Channel channel;
+    private final Condition condition;
+    private final double threshold;
+    private double hysteresis;
+    private long minimumDuration;
+
+    /**
+     * Conditions a rule may test.
+     */
+    public enum Condition {
+        /** The value is above the threshold. */
+        ABOVE,
+        /** The value is below the threshold. */
+        BELOW,
+        /** The value is rising faster than the threshold, in units per second. */
+        RISING_FASTER,
+        /** The value is falling faster than the threshold, in units per second. */
+        FALLING_FASTER,
+        /** The math overflow flag (OVF) is set. The channel and threshold are not used. */
+        OVERFLOW
+    }
+
+    /**
+     * Constructs a new rule on a measured channel.
+     *
+     * @param name
+     *            Name of the rule, for identification in alerts.
+     * @param channel
+     *            The channel tested.
+     * @param condition
+     *            The condition tested.
+     * @param threshold
+     *            The threshold, in Volts, Amps or Watts, or in those units per second for rate conditions.
+     */
+    public AlertRule(final String name, final Channel channel, final Condition condition, final double threshold) {
+        this.name = name;
+        this.channel = channel;
+        this.condition = condition;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns a rule on the energy integrated by the engine since it was constructed or reset.
+     *
+     * @param name
+     *            Name of the rule, for identification in alerts.
+     * @param condition
+     *            The condition tested.
+     * @param threshold
+     *            The threshold, in Watt-hours, or in Watt-hours per second for rate conditions.
+     * @return The rule.
+     */
+    public static AlertRule forEnergy(final String name, final Condition condition, final double threshold) {
+        return new AlertRule(name, null, condition, threshold);
+    }
+
+    /**
+     * Returns a rule that is raised while the math overflow flag is set. Combined with AlertEngine.programOverflow, the INA219 itself detects the
+     * overcurrent condition.
+     *
+     * @param name
+     *            Name of the rule, for identification in alerts.
+     * @return The rule.
+     */
+    public static AlertRule forOverflow(final String name) {
+        return new AlertRule(name, null, Condition.OVERFLOW, 0);
+    }
+
+    /**
+     * Sets the distance the value must move back past the threshold before a raised rule is cleared.
+     *
+     * @param hysteresis
+     *            The hysteresis, in the units of the threshold.
+     */
+    public void setHysteresis(final double hysteresis) {
+        if (hysteresis < 0) {
+            throw new IllegalArgumentException("Negative hysteresis: " + hysteresis);
+        }
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Sets the time for which the condition must hold continuously before the rule is raised.
+     *
+     * @param nanos
+     *            The minimum duration in nanoseconds, or 0 to raise on the first sample meeting the condition.
+     */
+    public void setMinimumDuration(final long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Negative minimum duration: " + nanos);
+        }
+        minimumDuration = nanos;
+    }
+
+    /**
+     * @return The name of the rule.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The channel tested, or null for energy and overflow rules.
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return The condition tested.
+     */
+    public Condition getCondition() {
+        return condition;
+    }
+
+    /**
+     * @return The threshold.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return The hysteresis.
+     */
+    public double getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * @return The minimum duration in nanoseconds.
+     */
+    public long getMinimumDuration() {
+        return minimumDuration;
+    }
+
+    /**
+     * @return A description of the rule.
+     */
+    @Override
+    public String toString() {
+        return name + ": " + (condition == Condition.OVERFLOW ? "" : (channel == null ? "ENERGY" : channel) + " ")
+                + condition + (condition == Condition.OVERFLOW ? "" : " " + threshold);
+    }
+}
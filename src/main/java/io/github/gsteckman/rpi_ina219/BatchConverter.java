@@ -0,0 +1,176 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * BatchConverter.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Converts raw register values to Volts, Amps and Watts in bulk, away from the sampling thread: a block drained from a SampleRingBuffer, decoded by a
+ * SampleDecoder or replayed from a recording. Snapshots are converted in a single pass, so that each is loaded from memory once; the column methods,
+ * whose values are contiguous, convert a channel at a time in loops doing a single multiplication per value, which the JIT compiler can unroll and
+ * vectorize. The results are identical to those of the INA219Base conversion methods.
+ * <p>
+ * Current and power depend on the calibration of the gain range each conversion was taken at. Snapshots carry their range (SNAPSHOT_RANGE), and the
+ * LSB is looked up per snapshot. The calibrations are those of the device at the time of the call. A BatchConverter holds no state of its own and may
+ * be shared between threads.
+ */
+public final class BatchConverter {
+    private static final double SHUNT_VOLTAGE_LSB = INA219Base.SHUNT_VOLTAGE_LSB;
+    private static final double BUS_VOLTAGE_LSB = INA219Base.BUS_VOLTAGE_LSB;
+    private static final int POWER_LSB_SCALE = INA219Base.POWER_LSB_SCALE;
+    private final INA219Base device;
+
+    /**
+     * Constructs a new BatchConverter.
+     *
+     * @param device
+     *            The device the values were read from, whose calibrations are used to convert current and power.
+     */
+    public BatchConverter(final INA219Base device) {
+        this.device = device;
+    }
+
+    /**
+     * Converts consecutive raw snapshots, as stored by INA219Base.readSnapshot(long[], int), into a column per channel.
+     *
+     * @param samples
+     *            Array holding the snapshots.
+     * @param offset
+     *            Index in samples of the first snapshot.
+     * @param count
+     *            Number of snapshots.
+     * @param shuntVoltage
+     *            Array receiving the shunt voltages, or null to skip the channel.
+     * @param busVoltage
+     *            Array receiving the bus voltages, or null to skip the channel.
+     * @param current
+     *            Array receiving the currents, or null to skip the channel.
+     * @param power
+     *            Array receiving the powers, or null to skip the channel.
+     * @param destOffset
+     *            Index in each of the receiving arrays of the value of the first snapshot.
+     */
+    public void convert(final long[] samples, final int offset, final int count, final double[] shuntVoltage,
+            final double[] busVoltage, final double[] current, final double[] power, final int destOffset) {
+        final int n = INA219Base.SNAPSHOT_LENGTH;
+        for (int k = 0; k < count; k++) {
+            int s = offset + k * n;
+            int d = destOffset + k;
+            if (shuntVoltage != null) {
+                shuntVoltage[d] = samples[s + INA219Base.SNAPSHOT_SHUNT_VOLTAGE] * SHUNT_VOLTAGE_LSB;
+            }
+            if (busVoltage != null) {
+                busVoltage[d] = (samples[s + INA219Base.SNAPSHOT_BUS_VOLTAGE] >> 3) * BUS_VOLTAGE_LSB;
+            }
+            if (current != null || power != null) {
+                double lsb = device.getCurrentLSB((int) samples[s + INA219Base.SNAPSHOT_RANGE]);
+                if (current != null) {
+                    current[d] = samples[s + INA219Base.SNAPSHOT_CURRENT] * lsb;
+                }
+                if (power != null) {
+                    power[d] = samples[s + INA219Base.SNAPSHOT_POWER] * POWER_LSB_SCALE * lsb;
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a column of raw shunt voltage register values to Volts.
+     *
+     * @param raw
+     *            Array holding the signed register values.
+     * @param offset
+     *            Index in raw of the first value.
+     * @param dest
+     *            Array receiving the shunt voltages.
+     * @param destOffset
+     *            Index in dest of the first shunt voltage.
+     * @param count
+     *            Number of values.
+     */
+    public static void toShuntVoltage(final long[] raw, final int offset, final double[] dest, final int destOffset,
+            final int count) {
+        for (int k = 0; k < count; k++) {
+            dest[destOffset + k] = raw[offset + k] * SHUNT_VOLTAGE_LSB;
+        }
+    }
+
+    /**
+     * Converts a column of raw bus voltage register values to Volts.
+     *
+     * @param raw
+     *            Array holding the register values, including the flag bits.
+     * @param offset
+     *            Index in raw of the first value.
+     * @param dest
+     *            Array receiving the bus voltages.
+     * @param destOffset
+     *            Index in dest of the first bus voltage.
+     * @param count
+     *            Number of values.
+     */
+    public static void toBusVoltage(final long[] raw, final int offset, final double[] dest, final int destOffset,
+            final int count) {
+        for (int k = 0; k < count; k++) {
+            dest[destOffset + k] = (raw[offset + k] >> 3) * BUS_VOLTAGE_LSB;
+        }
+    }
+
+    /**
+     * Converts a column of raw current register values, all taken at one gain range, to Amps.
+     *
+     * @param raw
+     *            Array holding the signed register values.
+     * @param offset
+     *            Index in raw of the first value.
+     * @param range
+     *            The gain range the conversions were taken at, as stored at SNAPSHOT_RANGE.
+     * @param dest
+     *            Array receiving the currents.
+     * @param destOffset
+     *            Index in dest of the first current.
+     * @param count
+     *            Number of values.
+     */
+    public void toCurrent(final long[] raw, final int offset, final long range, final double[] dest,
+            final int destOffset, final int count) {
+        double lsb = device.getCurrentLSB((int) range);
+        for (int k = 0; k < count; k++) {
+            dest[destOffset + k] = raw[offset + k] * lsb;
+        }
+    }
+
+    /**
+     * Converts a column of raw power register values, all taken at one gain range, to Watts.
+     *
+     * @param raw
+     *            Array holding the register values.
+     * @param offset
+     *            Index in raw of the first value.
+     * @param range
+     *            The gain range the conversions were taken at, as stored at SNAPSHOT_RANGE.
+     * @param dest
+     *            Array receiving the powers.
+     * @param destOffset
+     *            Index in dest of the first power.
+     * @param count
+     *            Number of values.
+     */
+    public void toPower(final long[] raw, final int offset, final long range, final double[] dest,
+            final int destOffset, final int count) {
+        double lsb = device.getCurrentLSB((int) range);
+        for (int k = 0; k < count; k++) {
+            dest[destOffset + k] = raw[offset + k] * POWER_LSB_SCALE * lsb;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * CachingRegister.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An INA219RegisterIF decorator that keeps shadow copies of the configuration and calibration registers. Writes that would not change a register are
+ * skipped, except for writes that trigger a conversion or reset the device, and reads of the two registers are served from the shadow copies. Optionally
+ * the device registers are periodically read back and compared with the shadow copies; a mismatch, such as the calibration returning to zero after a
+ * brown-out, is counted as a device reset and the registers are rewritten.
+ */
+class CachingRegister implements INA219RegisterIF {
+    private static final Log LOG = LogFactory.getLog(CachingRegister.class);
+    private static final int CONFIGURATION_RST = 0x8000;
+    private static final int CONFIGURATION_MASK = 0x3FFF;
+    private static final int CONFIGURATION_DEFAULT = 0x399F;
+    private static final int CALIBRATION_MASK = 0xFFFE;
+    private final INA219RegisterIF register;
+    private int configuration;
+    private int calibration;
+    private boolean configurationValid;
+    private boolean calibrationValid;
+    private long verifyInterval;
+    private long nextVerify;
+    private long elidedWrites;
+    private long resets;
+
+    /**
+     * Constructs a new CachingRegister.
+     *
+     * @param register
+     *            The register interface to decorate.
+     */
+    CachingRegister(final INA219RegisterIF register) {
+        this.register = register;
+    }
+
+    /**
+     * @return The decorated register interface.
+     */
+    INA219RegisterIF getRegister() {
+        return register;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+        switch (ra) {
+        case CONFIGURATION:
+            if ((value & CONFIGURATION_RST) != 0) {
+                configurationValid = false;
+                calibrationValid = false;
+                register.writeRegister(ra, value);
+                configuration = CONFIGURATION_DEFAULT;
+                calibration = 0;
+                configurationValid = true;
+                calibrationValid = true;
+            } else if (!configurationValid || configuration != (value & CONFIGURATION_MASK)
+                    || isTriggered(value)) {
+                configurationValid = false;
+                register.writeRegister(ra, value);
+                configuration = value & CONFIGURATION_MASK;
+                configurationValid = true;
+            } else {
+                elidedWrites++;
+            }
+            break;
+        case CALIBRATION:
+            if (!calibrationValid || calibration != (value & CALIBRATION_MASK)) {
+                calibrationValid = false;
+                register.writeRegister(ra, value);
+                calibration = value & CALIBRATION_MASK;
+                calibrationValid = true;
+            } else {
+                elidedWrites++;
+            }
+            break;
+        default:
+            register.writeRegister(ra, value);
+            break;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int readRegister(final RegisterAddress ra) throws IOException {
+        verifyIfDue();
+        switch (ra) {
+        case CONFIGURATION:
+            if (!configurationValid) {
+                configuration = register.readRegister(ra) & CONFIGURATION_MASK;
+                configurationValid = true;
+            }
+            return configuration;
+        case CALIBRATION:
+            if (!calibrationValid) {
+                calibration = register.readRegister(ra) & CALIBRATION_MASK;
+                calibrationValid = true;
+            }
+            return calibration;
+        default:
+            return register.readRegister(ra);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized short readSignedRegister(final RegisterAddress ra) throws IOException {
+        switch (ra) {
+        case CONFIGURATION:
+        case CALIBRATION:
+            return (short) readRegister(ra);
+        default:
+            verifyIfDue();
+            return register.readSignedRegister(ra);
+        }
+    }
+
+    /**
+     * Sets how often the device registers are read back and compared with the shadow copies.
+     *
+     * @param interval
+     *            Minimum time between verifications in nanoseconds, or 0 to disable verification.
+     */
+    synchronized void setVerifyInterval(final long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Negative verify interval: " + interval);
+        }
+        verifyInterval = interval;
+        nextVerify = System.nanoTime() + interval;
+    }
+
+    /**
+     * @return The number of writes skipped because they would not have changed the register.
+     */
+    synchronized long getElidedWriteCount() {
+        return elidedWrites;
+    }
+
+    /**
+     * @return The number of times verification found the device registers different from the shadow copies.
+     */
+    synchronized long getResetCount() {
+        return resets;
+    }
+
+    /**
+     * Reads back the configuration and calibration registers and rewrites them if they differ from the shadow copies.
+     *
+     * @throws IOException
+     *             If the registers could not be read or rewritten.
+     */
+    synchronized void verify() throws IOException {
+        boolean reset = false;
+        if (configurationValid
+                && (register.readRegister(RegisterAddress.CONFIGURATION) & CONFIGURATION_MASK) != configuration) {
+            register.writeRegister(RegisterAddress.CONFIGURATION, configuration);
+            reset = true;
+        }
+        if (calibrationValid
+                && (register.readRegister(RegisterAddress.CALIBRATION) & CALIBRATION_MASK) != calibration) {
+            register.writeRegister(RegisterAddress.CALIBRATION, calibration);
+            reset = true;
+        }
+        if (reset) {
+            resets++;
+            LOG.warn("INA219 registers lost, configuration and calibration rewritten");
+        }
+    }
+
+    private void verifyIfDue() throws IOException {
+        if (verifyInterval != 0 && System.nanoTime() - nextVerify >= 0) {
+            nextVerify = System.nanoTime() + verifyInterval;
+            verify();
+        }
+    }
+
+    private static boolean isTriggered(final int configuration) {
+        int mode = configuration & 0x7;
+        return mode >= 1 && mode <= 3;
+    }
+}
@@ -0,0 +1,293 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ChannelStatistics.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Streaming statistics of one channel over a sliding window of the most recent samples and over consecutive tumbling windows. Each sample is processed
+ * in amortized constant time using preallocated primitive arrays; the samples themselves are only retained for the length of the sliding window.
+ * <p>
+ * The sliding window keeps its minimum and maximum in monotonic queues and its sums relative to a reference value, which are recomputed once per window
+ * length to discard accumulated rounding error. The tumbling window additionally estimates the 50th, 99th and 99.9th percentiles with P-square sketches.
+ */
+public class ChannelStatistics {
+    private final int slidingLength;
+    private final int tumblingLength;
+
+    private final double[] window;
+    private final long[] maxQueue;
+    private final long[] minQueue;
+    private long maxHead;
+    private long maxTail;
+    private long minHead;
+    private long minTail;
+    private long sequence;
+    private double reference;
+    private double sum;
+    private double sumSquares;
+    private double sumRawSquares;
+
+    private long tumblingCount;
+    private double tumblingMin;
+    private double tumblingMax;
+    private double tumblingMean;
+    private double tumblingM2;
+    private double tumblingSumSquares;
+    private final P2Quantile p50 = new P2Quantile(0.5);
+    private final P2Quantile p99 = new P2Quantile(0.99);
+    private final P2Quantile p999 = new P2Quantile(0.999);
+    private Summary lastTumbling;
+
+    /**
+     * Constructs a new ChannelStatistics.
+     *
+     * @param slidingLength
+     *            Number of samples in the sliding window.
+     * @param tumblingLength
+     *            Number of samples in each tumbling window.
+     */
+    public ChannelStatistics(final int slidingLength, final int tumblingLength) {
+        if (slidingLength < 1 || tumblingLength < 1) {
+            throw new IllegalArgumentException("Window lengths must be positive");
+        }
+        this.slidingLength = slidingLength;
+        this.tumblingLength = tumblingLength;
+        window = new double[slidingLength];
+        maxQueue = new long[slidingLength];
+        minQueue = new long[slidingLength];
+    }
+
+    /**
+     * Adds a sample. This method does not allocate, except once per completed tumbling window.
+     *
+     * @param x
+     *            The sample value.
+     */
+    public synchronized void add(final double x) {
+        addSliding(x);
+        addTumbling(x);
+    }
+
+    /**
+     * @return Statistics of the samples in the sliding window. Percentiles are not available and are NaN.
+     */
+    public synchronized Summary getSliding() {
+        long n = Math.min(sequence, slidingLength);
+        if (n == 0) {
+            return new Summary(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                    Double.NaN);
+        }
+        double mean = sum / n;
+        double variance = Math.max(0, sumSquares / n - mean * mean);
+        return new Summary(n, window[index(minQueue[index(minHead)])], window[index(maxQueue[index(maxHead)])],
+                reference + mean, variance, Math.sqrt(sumRawSquares / n), Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * @return Statistics of the most recently completed tumbling window, or null if no window has completed.
+     */
+    public synchronized Summary getTumbling() {
+        return lastTumbling;
+    }
+
+    /**
+     * @return Statistics of the tumbling window in progress.
+     */
+    public synchronized Summary getTumblingPartial() {
+        return tumblingSummary();
+    }
+
+    private void addSliding(final double x) {
+        long s = sequence++;
+        if (s == 0) {
+            reference = x;
+        }
+        int i = index(s);
+        if (s >= slidingLength) {
+            double old = window[i] - reference;
+            sum -= old;
+            sumSquares -= old * old;
+            sumRawSquares -= window[i] * window[i];
+        }
+        window[i] = x;
+        double d = x - reference;
+        sum += d;
+        sumSquares += d * d;
+        sumRawSquares += x * x;
+        if (s % slidingLength == slidingLength - 1) {
+            recomputeSums();
+        }
+
+        long expired = s - slidingLength;
+        if (maxTail > maxHead && maxQueue[index(maxHead)] <= expired) {
+            maxHead++;
+        }
+        while (maxTail > maxHead && window[index(maxQueue[index(maxTail - 1)])] <= x) {
+            maxTail--;
+        }
+        maxQueue[index(maxTail++)] = s;
+        if (minTail > minHead && minQueue[index(minHead)] <= expired) {
+            minHead++;
+        }
+        while (minTail > minHead && window[index(minQueue[index(minTail - 1)])] >= x) {
+            minTail--;
+        }
+        minQueue[index(minTail++)] = s;
+    }
+
+    private void recomputeSums() {
+        reference = window[index(sequence - 1)];
+        sum = 0;
+        sumSquares = 0;
+        sumRawSquares = 0;
+        for (int i = 0; i < slidingLength; i++) {
+            double d = window[i] - reference;
+            sum += d;
+            sumSquares += d * d;
+            sumRawSquares += window[i] * window[i];
+        }
+    }
+
+    private void addTumbling(final double x) {
+        if (tumblingCount == 0) {
+            tumblingMin = x;
+            tumblingMax = x;
+        } else {
+            tumblingMin = Math.min(tumblingMin, x);
+            tumblingMax = Math.max(tumblingMax, x);
+        }
+        tumblingCount++;
+        double delta = x - tumblingMean;
+        tumblingMean += delta / tumblingCount;
+        tumblingM2 += delta * (x - tumblingMean);
+        tumblingSumSquares += x * x;
+        p50.add(x);
+        p99.add(x);
+        p999.add(x);
+        if (tumblingCount == tumblingLength) {
+            lastTumbling = tumblingSummary();
+            tumblingCount = 0;
+            tumblingMean = 0;
+            tumblingM2 = 0;
+            tumblingSumSquares = 0;
+            p50.reset();
+            p99.reset();
+            p999.reset();
+        }
+    }
+
+    private Summary tumblingSummary() {
+        if (tumblingCount == 0) {
+            return new Summary(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                    Double.NaN);
+        }
+        return new Summary(tumblingCount, tumblingMin, tumblingMax, tumblingMean, tumblingM2 / tumblingCount,
+                Math.sqrt(tumblingSumSquares / tumblingCount), p50.get(), p99.get(), p999.get());
+    }
+
+    private int index(final long s) {
+        return (int) (s % slidingLength);
+    }
+
+    /**
+     * Immutable statistics of a window.
+     */
+    public static final class Summary {
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double variance;
+        private final double rms;
+        private final double p50;
+        private final double p99;
+        private final double p999;
+
+        Summary(final long count, final double min, final double max, final double mean, final double variance,
+                final double rms, final double p50, final double p99, final double p999) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.variance = variance;
+            this.rms = rms;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        /**
+         * @return The number of samples in the window.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The minimum value.
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * @return The maximum value.
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * @return The mean value.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return The population variance.
+         */
+        public double getVariance() {
+            return variance;
+        }
+
+        /**
+         * @return The root mean square value.
+         */
+        public double getRms() {
+            return rms;
+        }
+
+        /**
+         * @return The estimated median.
+         */
+        public double getP50() {
+            return p50;
+        }
+
+        /**
+         * @return The estimated 99th percentile.
+         */
+        public double getP99() {
+            return p99;
+        }
+
+        /**
+         * @return The estimated 99.9th percentile.
+         */
+        public double getP999() {
+            return p999;
+        }
+    }
+}
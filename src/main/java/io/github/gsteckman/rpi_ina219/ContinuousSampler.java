@@ -0,0 +1,274 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ContinuousSampler.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Samples an INA219 on a background thread and appends each conversion to a SampleRingBuffer. Reads are paced by the conversion time of the configured
+ * ADC settings, so the device is never read faster than it produces new conversions. Registered SampleListeners are called on the sampling thread with
+ * each converted sample.
+ * <p>
+ * A failed read is counted and sampling continues after the sample period, or RETRY_INTERVAL if that is longer. The first failure is logged as a
+ * warning, and further failures at most once every WARN_INTERVAL with the number not logged in between, so that a device that has gone away does not
+ * flood the log.
+ */
+public class ContinuousSampler {
+    private static final Log LOG = LogFactory.getLog(ContinuousSampler.class);
+    /** Minimum time between warnings of failed reads, in nanoseconds. */
+    static final long WARN_INTERVAL = 10000000000L;
+    /** Minimum time between a failed read and the next attempt, in nanoseconds. */
+    static final long RETRY_INTERVAL = 10000000L;
+    private final INA219Base device;
+    private final SampleRingBuffer buffer;
+    private final long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+    private volatile SampleListener[] listeners = new SampleListener[0];
+    private volatile long samplePeriod;
+    private volatile ReadPlan readPlan;
+    private volatile boolean running;
+    private volatile long sampleCount;
+    private volatile long errorCount;
+    private long warnedAt;
+    private long unlogged = -1;
+    private volatile Thread thread;
+
+    /**
+     * Constructs a new ContinuousSampler that samples at the conversion rate of the device.
+     *
+     * @param device
+     *            The device to sample.
+     * @param buffer
+     *            The buffer to which samples are appended. The sampler is its only writer.
+     */
+    public ContinuousSampler(final INA219Base device, final SampleRingBuffer buffer) {
+        this.device = device;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Adds a listener to be called on the sampling thread with each sample.
+     *
+     * @param listener
+     *            The listener to add.
+     */
+    public synchronized void addListener(final SampleListener listener) {
+        SampleListener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+        l[l.length - 1] = listener;
+        listeners = l;
+    }
+
+    /**
+     * Removes a previously added listener.
+     *
+     * @param listener
+     *            The listener to remove.
+     */
+    public synchronized void removeListener(final SampleListener listener) {
+        SampleListener[] l = listeners;
+        for (int i = 0; i < l.length; i++) {
+            if (l[i] == listener) {
+                SampleListener[] n = new SampleListener[l.length - 1];
+                System.arraycopy(l, 0, n, 0, i);
+                System.arraycopy(l, i + 1, n, i, n.length - i);
+                listeners = n;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts sampling on a new daemon thread.
+     *
+     * @throws IllegalStateException
+     *             If the sampler is already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Sampler already running");
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, "INA219 sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops sampling and waits for the sampling thread to exit.
+     *
+     * @throws InterruptedException
+     *             If interrupted while waiting for the sampling thread.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * @return True if the sampler is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets the target time between samples. Periods shorter than the conversion time of the device are raised to the conversion time. The change takes
+     * effect with the next sample, and a sampler waiting for it is woken to wait for the new period instead.
+     *
+     * @param period
+     *            The sample period in nanoseconds, or 0 to sample at the conversion rate.
+     */
+    public void setSamplePeriod(final long period) {
+        if (period < 0) {
+            throw new IllegalArgumentException("Negative sample period: " + period);
+        }
+        samplePeriod = period;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Sets the registers read for each sample. A plan that does not wait for conversion ready relies on the sample period, which is never shorter than
+     * the conversion time, to read each conversion about once. The change takes effect with the next sample.
+     *
+     * @param plan
+     *            The plan, or null to read all measurement registers after waiting for conversion ready.
+     */
+    public void setReadPlan(final ReadPlan plan) {
+        readPlan = plan;
+    }
+
+    /**
+     * @return The read plan in effect, or null if all measurement registers are read.
+     */
+    public ReadPlan getReadPlan() {
+        return readPlan;
+    }
+
+    /**
+     * Returns the time between samples in effect, which is the larger of the requested period and the conversion time of the device.
+     *
+     * @return The sample period in nanoseconds.
+     */
+    public long getSamplePeriod() {
+        return Math.max(samplePeriod, device.getConversionTime());
+    }
+
+    /**
+     * @return The number of samples appended to the buffer since construction.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return The number of failed reads since construction.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return The buffer to which samples are appended.
+     */
+    public SampleRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    private void notifyListeners() {
+        SampleListener[] l = listeners;
+        if (l.length == 0) {
+            return;
+        }
+        long bus = sample[INA219Base.SNAPSHOT_BUS_VOLTAGE];
+        double shuntVoltage = INA219Base.toShuntVoltage(sample[INA219Base.SNAPSHOT_SHUNT_VOLTAGE]);
+        double busVoltage = INA219Base.toBusVoltage(bus);
+        long range = sample[INA219Base.SNAPSHOT_RANGE];
+        double current = device.toCurrent(sample[INA219Base.SNAPSHOT_CURRENT], range);
+        double power = device.toPower(sample[INA219Base.SNAPSHOT_POWER], range);
+        boolean overflow = INA219Base.isOverflow(bus);
+        for (int i = 0; i < l.length; i++) {
+            try {
+                l[i].sample(sample[INA219Base.SNAPSHOT_TIMESTAMP], shuntVoltage, busVoltage, current, power, overflow);
+            } catch (RuntimeException e) {
+                LOG.error("Sample listener failed", e);
+            }
+        }
+    }
+
+    private void failed(final String message, final Exception e) {
+        errorCount++;
+        long now = System.nanoTime();
+        if (unlogged < 0 || now - warnedAt >= WARN_INTERVAL) {
+            if (unlogged > 0) {
+                LOG.warn(message + ", " + unlogged + " failures not logged since the last warning", e);
+            } else {
+                LOG.warn(message, e);
+            }
+            warnedAt = now;
+            unlogged = 0;
+        } else {
+            unlogged++;
+            LOG.debug(message, e);
+        }
+    }
+
+    private void sample() {
+        long last = System.nanoTime();
+        long minPeriod = 0;
+        while (running) {
+            try {
+                ReadPlan plan = readPlan;
+                if (plan == null) {
+                    device.readSnapshot(sample, 0);
+                } else {
+                    device.readSnapshot(plan, sample, 0);
+                }
+                buffer.add(sample, 0);
+                sampleCount++;
+                notifyListeners();
+                last = sample[INA219Base.SNAPSHOT_TIMESTAMP];
+                minPeriod = 0;
+            } catch (IOException e) {
+                failed("INA219 read failed", e);
+                last = System.nanoTime();
+                minPeriod = RETRY_INTERVAL;
+            } catch (RuntimeException e) {
+                failed("INA219 sample failed", e);
+                last = System.nanoTime();
+                minPeriod = RETRY_INTERVAL;
+            }
+            long delay;
+            while (running && (delay = last + Math.max(minPeriod, getSamplePeriod()) - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * EnergyAccumulator.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Integrates power and current into energy and charge using the trapezoidal rule over the sample timestamps, with the TrapezoidIntegral that the
+ * RollupStore and AlertEngine also use. The sums are compensated (Kahan summation) so that rounding errors do not accumulate over long uptimes.
+ * <p>
+ * An interval is not integrated if it is longer than the maximum gap, if the timestamps go backwards (a restart of the time base), or if either end is a
+ * sample with the overflow flag set; such intervals are counted instead. Samples must be delivered by a single thread, normally the sampling thread.
+ * Snapshots and resets may be taken from any thread without locking.
+ */
+public class EnergyAccumulator implements SampleListener {
+    private static final int SEQUENCE = 0;
+    private static final int ENERGY = 1;
+    private static final int CHARGE = 2;
+    private static final int DURATION = 3;
+    private static final int SAMPLES = 4;
+    private static final int GAPS = 5;
+    private static final int RESTARTS = 6;
+    private final TrapezoidIntegral energy;
+    private final TrapezoidIntegral charge;
+    private final AtomicLongArray published = new AtomicLongArray(7);
+    private final AtomicReference<Snapshot> baseline = new AtomicReference<Snapshot>(
+            new Snapshot(0, 0, 0, 0, 0, 0));
+    private long samples;
+
+    /**
+     * Constructs a new EnergyAccumulator.
+     *
+     * @param maxGap
+     *            The longest interval between two samples, in nanoseconds, that is integrated.
+     */
+    public EnergyAccumulator(final long maxGap) {
+        energy = new TrapezoidIntegral(maxGap);
+        charge = new TrapezoidIntegral(maxGap);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sample(final long timestamp, final double shuntVoltage, final double busVoltage, final double current,
+            final double power, final boolean overflow) {
+        energy.add(timestamp, power, overflow);
+        charge.add(timestamp, current, overflow);
+        samples++;
+        publish();
+    }
+
+    /**
+     * Returns the totals accumulated since construction or the last reset.
+     *
+     * @return The accumulated totals.
+     */
+    public Snapshot getSnapshot() {
+        return read().minus(baseline.get());
+    }
+
+    /**
+     * Returns the totals accumulated since construction or the last reset, and starts a new accumulation period. No sample is lost or counted twice
+     * between consecutive periods.
+     *
+     * @return The totals of the period that ended.
+     */
+    public Snapshot getSnapshotAndReset() {
+        while (true) {
+            Snapshot base = baseline.get();
+            Snapshot current = read();
+            if (baseline.compareAndSet(base, current)) {
+                return current.minus(base);
+            }
+        }
+    }
+
+    /**
+     * Starts a new accumulation period.
+     */
+    public void reset() {
+        getSnapshotAndReset();
+    }
+
+    private void publish() {
+        long sequence = published.get(SEQUENCE);
+        published.set(SEQUENCE, sequence + 1);
+        published.set(ENERGY, Double.doubleToRawLongBits(energy.getTotal()));
+        published.set(CHARGE, Double.doubleToRawLongBits(charge.getTotal()));
+        published.set(DURATION, energy.getDuration());
+        published.set(SAMPLES, samples);
+        published.set(GAPS, energy.getGapCount());
+        published.set(RESTARTS, energy.getRestartCount());
+        published.set(SEQUENCE, sequence + 2);
+    }
+
+    private Snapshot read() {
+        while (true) {
+            long sequence = published.get(SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            Snapshot s = new Snapshot(Double.longBitsToDouble(published.get(ENERGY)),
+                    Double.longBitsToDouble(published.get(CHARGE)), published.get(DURATION), published.get(SAMPLES),
+                    published.get(GAPS), published.get(RESTARTS));
+            if (published.get(SEQUENCE) == sequence) {
+                return s;
+            }
+        }
+    }
+
+    /**
+     * Immutable totals of an accumulation period.
+     */
+    public static final class Snapshot {
+        private final double wattHours;
+        private final double ampHours;
+        private final long duration;
+        private final long sampleCount;
+        private final long gapCount;
+        private final long restartCount;
+
+        Snapshot(final double wattHours, final double ampHours, final long duration, final long sampleCount,
+                final long gapCount, final long restartCount) {
+            this.wattHours = wattHours;
+            this.ampHours = ampHours;
+            this.duration = duration;
+            this.sampleCount = sampleCount;
+            this.gapCount = gapCount;
+            this.restartCount = restartCount;
+        }
+
+        Snapshot minus(final Snapshot base) {
+            return new Snapshot(wattHours - base.wattHours, ampHours - base.ampHours, duration - base.duration,
+                    sampleCount - base.sampleCount, gapCount - base.gapCount, restartCount - base.restartCount);
+        }
+
+        /**
+         * @return The energy, in Watt-hours.
+         */
+        public double getWattHours() {
+            return wattHours;
+        }
+
+        /**
+         * @return The charge, in Amp-hours.
+         */
+        public double getAmpHours() {
+            return ampHours;
+        }
+
+        /**
+         * @return The total length of the integrated intervals, in nanoseconds.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return The number of samples received.
+         */
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * @return The number of intervals not integrated because they exceeded the maximum gap or involved an overflowed sample.
+         */
+        public long getGapCount() {
+            return gapCount;
+        }
+
+        /**
+         * @return The number of times the timestamps went backwards, restarting the integration.
+         */
+        public long getRestartCount() {
+            return restartCount;
+        }
+    }
+}
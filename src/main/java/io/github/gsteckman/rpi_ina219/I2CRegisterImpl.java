@@ -16,20 +16,19 @@ package io.github.gsteckman.rpi_ina219;
 
 import java.io.IOException;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 import com.pi4j.io.i2c.I2CBus;
 import com.pi4j.io.i2c.I2CDevice;
 import com.pi4j.io.i2c.I2CFactory;
 import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
 
 /**
- * An implementation of the INA219RegisterIf that uses the Raspberry Pi I2C bus.
+ * An implementation of the INA219RegisterIf that uses the Raspberry Pi I2C bus. The transfer buffers are reused between calls, so access to an instance is
+ * synchronized.
  */
 class I2CRegisterImpl implements INA219RegisterIF {
-    private static final Log LOG = LogFactory.getLog(INA219RegisterIF.class);
-    private I2CDevice device;
+    private final I2CDevice device;
+    private final byte[] readBuffer = new byte[2];
+    private final byte[] writeBuffer = new byte[2];
 
     /**
      * Create a new I2CRegisterImple using the specified device address.
@@ -43,34 +42,43 @@ class I2CRegisterImpl implements INA219RegisterIF {
         try {
             device = I2CFactory.getInstance(I2CBus.BUS_1).getDevice(address.getValue());
         } catch (UnsupportedBusNumberException e) {
-            LOG.error("BUS_1 no supported", e);
-            return;
+            throw new IOException("I2C bus " + I2CBus.BUS_1 + " not supported", e);
         }
     }
 
+    /**
+     * Create a new I2CRegisterImpl using a device obtained from an already open bus.
+     * 
+     * @param device
+     *            The device with which this instance communicates.
+     */
+    I2CRegisterImpl(final I2CDevice device) {
+        this.device = device;
+    }
+
     /**
      * {@inheritDoc}
      */
-    public void writeRegister(final RegisterAddress ra, final int value) throws IOException {
-        device.write(ra.getValue(), new byte[] { (byte) ((value >> 8) & 0xFF), (byte) (value & 0xFF) });
+    public synchronized void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+        writeBuffer[0] = (byte) ((value >> 8) & 0xFF);
+        writeBuffer[1] = (byte) (value & 0xFF);
+        device.write(ra.getValue(), writeBuffer);
     }
 
     /**
      * {@inheritDoc}
      */
-    public int readRegister(final RegisterAddress ra) throws IOException {
-        byte[] buf = new byte[2];
-        device.read(ra.getValue(), buf, 0, buf.length);
-        return ((buf[0] & 0xFF) << 8) | (buf[1] & 0xFF);
+    public synchronized int readRegister(final RegisterAddress ra) throws IOException {
+        device.read(ra.getValue(), readBuffer, 0, readBuffer.length);
+        return ((readBuffer[0] & 0xFF) << 8) | (readBuffer[1] & 0xFF);
     }
 
     /**
      * {@inheritDoc}
      */
-    public short readSignedRegister(final RegisterAddress ra) throws IOException {
-        byte[] buf = new byte[2];
-        device.read(ra.getValue(), buf, 0, buf.length);
-        return (short) ((buf[0] << 8) | (buf[1] & 0xFF));
+    public synchronized short readSignedRegister(final RegisterAddress ra) throws IOException {
+        device.read(ra.getValue(), readBuffer, 0, readBuffer.length);
+        return (short) ((readBuffer[0] << 8) | (readBuffer[1] & 0xFF));
     }
 
 }
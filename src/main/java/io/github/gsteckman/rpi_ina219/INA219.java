@@ -15,6 +15,7 @@ package io.github.gsteckman.rpi_ina219;
  */
 
 import java.io.IOException;
+import java.nio.IntBuffer;
 
 /**
  * This class provides a high level interface to the Texas Instruments INA219 current monitor over the Raspberry Pi I2C bus.
@@ -42,7 +43,303 @@ public class INA219 extends INA219Base {
      */
     public INA219(final INA219.Address address, double shuntResistance, double maxExpectedCurrent,
             INA219.Brng busVoltageRange, INA219.Pga pga, INA219.Adc badc, INA219.Adc sadc) throws IOException {
-        super(new I2CRegisterImpl(address), shuntResistance, maxExpectedCurrent, busVoltageRange, pga, badc, sadc);
+        super(new CachingRegister(new ResilientRegister(new InstrumentedRegister(new I2CRegisterImpl(address)))),
+                shuntResistance, maxExpectedCurrent, busVoltageRange, pga, badc, sadc);
+    }
+
+    /**
+     * Constructs a new INA219 instance with the specified operating mode.
+     * 
+     * @param address
+     *            I2C Address of the INA219.
+     * @param shuntResistance
+     *            Value in ohms of the current sense shunt resistor.
+     * @param maxExpectedCurrent
+     *            Maximum expected current, in Amps.
+     * @param busVoltageRange
+     *            Either 16V or 32V.
+     * @param pga
+     *            Gain range.
+     * @param badc
+     *            Bus voltage ADC sample size and averaging setting.
+     * @param sadc
+     *            Shunt resistor voltage ADC sample size and averaging setting.
+     * @param mode
+     *            Operating mode.
+     * @throws IOException
+     *             If the configuration or calibration registers cannot be written.
+     */
+    public INA219(final INA219.Address address, double shuntResistance, double maxExpectedCurrent,
+            INA219.Brng busVoltageRange, INA219.Pga pga, INA219.Adc badc, INA219.Adc sadc, INA219.Mode mode)
+            throws IOException {
+        super(new CachingRegister(new ResilientRegister(new InstrumentedRegister(new I2CRegisterImpl(address)))),
+                shuntResistance, maxExpectedCurrent, busVoltageRange, pga, badc, sadc, mode);
+    }
+
+    /**
+     * Constructs a new INA219 instance that uses the provided register interface.
+     * 
+     * @param reg
+     *            Register interface to use for read/write access.
+     * @param shuntResistance
+     *            Value in ohms of the current sense shunt resistor.
+     * @param maxExpectedCurrent
+     *            Maximum expected current, in Amps.
+     * @param busVoltageRange
+     *            Either 16V or 32V.
+     * @param pga
+     *            Gain range.
+     * @param badc
+     *            Bus voltage ADC sample size and averaging setting.
+     * @param sadc
+     *            Shunt resistor voltage ADC sample size and averaging setting.
+     * @throws IOException
+     *             If the configuration or calibration registers cannot be written.
+     */
+    INA219(final INA219RegisterIF reg, double shuntResistance, double maxExpectedCurrent,
+            INA219.Brng busVoltageRange, INA219.Pga pga, INA219.Adc badc, INA219.Adc sadc) throws IOException {
+        super(new CachingRegister(new ResilientRegister(new InstrumentedRegister(reg))), shuntResistance,
+                maxExpectedCurrent, busVoltageRange, pga, badc, sadc);
+    }
+
+    /**
+     * Constructs a new INA219 instance backed by a simulated device, for testing without I2C hardware.
+     * 
+     * @param simulator
+     *            The simulated device.
+     * @param shuntResistance
+     *            Value in ohms of the current sense shunt resistor.
+     * @param maxExpectedCurrent
+     *            Maximum expected current, in Amps.
+     * @param busVoltageRange
+     *            Either 16V or 32V.
+     * @param pga
+     *            Gain range.
+     * @param badc
+     *            Bus voltage ADC sample size and averaging setting.
+     * @param sadc
+     *            Shunt resistor voltage ADC sample size and averaging setting.
+     * @throws IOException
+     *             If the simulator injected an error while the configuration or calibration registers were written.
+     */
+    public INA219(final INA219Simulator simulator, double shuntResistance, double maxExpectedCurrent,
+            INA219.Brng busVoltageRange, INA219.Pga pga, INA219.Adc badc, INA219.Adc sadc) throws IOException {
+        this((INA219RegisterIF) simulator, shuntResistance, maxExpectedCurrent, busVoltageRange, pga, badc, sadc);
+    }
+
+    /**
+     * Sets how often the configuration and calibration registers are read back to detect a device reset, such as the calibration returning to zero after
+     * a brown-out. When a reset is detected the registers are rewritten. Writes that would not change these registers are always skipped.
+     * 
+     * @param interval
+     *            Minimum time between verifications in nanoseconds, or 0 to disable verification.
+     */
+    public void setVerifyInterval(final long interval) {
+        ((CachingRegister) getRegister()).setVerifyInterval(interval);
+    }
+
+    /**
+     * @return The number of times a device reset was detected and the configuration and calibration registers rewritten.
+     */
+    public long getResetCount() {
+        return ((CachingRegister) getRegister()).getResetCount();
+    }
+
+    /**
+     * Returns the instrumentation of this device's register accesses. It is disabled until enabled with INA219Instrumentation.setEnabled.
+     * 
+     * @return The instrumentation.
+     */
+    public INA219Instrumentation getInstrumentation() {
+        return ((InstrumentedRegister) getResilientRegister().getRegister()).getInstrumentation();
+    }
+
+    /**
+     * Sets how failed register accesses are retried. Each retry waits for a random time between half and all of a backoff that starts at the given
+     * value and doubles with each further retry. Retries are disabled initially.
+     * 
+     * @param retries
+     *            Maximum number of retries of an access, or 0 to disable retries.
+     * @param backoff
+     *            Upper bound in nanoseconds of the wait before the first retry.
+     */
+    public void setRetries(final int retries, final long backoff) {
+        getResilientRegister().setRetries(retries, backoff);
+    }
+
+    /**
+     * Sets the time from the start of a call, such as a readSnapshot, after which failed register accesses of the call are no longer retried. This
+     * bounds the time a failing device can hold up its caller. A transaction already on the bus is not aborted, so the deadline can be exceeded by the
+     * length of one transaction. The bus is not held while waiting to retry, and a device sampled by an INA219BusManager is retried on a later pass of
+     * the manager rather than in line, so a failing device does not hold up the others on its bus.
+     * 
+     * @param nanos
+     *            The deadline in nanoseconds, or 0 for no deadline.
+     */
+    public void setDeadline(final long nanos) {
+        getResilientRegister().setDeadline(nanos);
+    }
+
+    /**
+     * Configures the circuit breaker, which stops a failing device from using the bus. After the given number of consecutive failed accesses, accesses
+     * fail immediately for the open time. The next access after that first rewrites the configuration and calibration registers, which a device that
+     * went away has usually lost, and closes the breaker if that succeeds. The breaker is disabled initially.
+     * 
+     * @param failures
+     *            Number of consecutive failed accesses that opens the breaker, or 0 to disable the breaker.
+     * @param openTime
+     *            Time in nanoseconds the breaker stays open before the device is tried again.
+     */
+    public void setCircuitBreaker(final int failures, final long openTime) {
+        getResilientRegister().setCircuitBreaker(failures, openTime);
+    }
+
+    /**
+     * @return True if the circuit breaker is open, so that register accesses fail without using the bus.
+     */
+    public boolean isCircuitOpen() {
+        return getResilientRegister().isOpen();
+    }
+
+    /**
+     * @return The number of retries of failed register accesses, including reads retried on a later pass of an INA219BusManager.
+     */
+    public long getRetryCount() {
+        return getResilientRegister().getRetryCount();
+    }
+
+    /**
+     * @return The number of register accesses failed without using the bus because the circuit breaker was open.
+     */
+    public long getRejectedCount() {
+        return getResilientRegister().getRejectedCount();
+    }
+
+    /**
+     * @return The number of times the device was reinitialized and the circuit breaker closed.
+     */
+    public long getRecoveryCount() {
+        return getResilientRegister().getRecoveryCount();
+    }
+
+    // the calls making more than one register access are scoped so that their accesses share one deadline,
+    // a call making a single access is scoped by the ResilientRegister itself
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setPga(final INA219.Pga pga) throws IOException {
+        ResilientRegister r = getResilientRegister();
+        r.begin(true);
+        try {
+            super.setPga(pga);
+        } finally {
+            r.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void triggerAndRead(final long[] dest, final int offset) throws IOException {
+        ResilientRegister r = getResilientRegister();
+        r.begin(true);
+        try {
+            super.triggerAndRead(dest, offset);
+        } finally {
+            r.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readSnapshot(final long[] dest, final int offset) throws IOException {
+        ResilientRegister r = getResilientRegister();
+        r.begin(true);
+        try {
+            super.readSnapshot(dest, offset);
+        } finally {
+            r.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readSnapshot(final ReadPlan plan, final long[] dest, final int offset) throws IOException {
+        ResilientRegister r = getResilientRegister();
+        r.begin(true);
+        try {
+            super.readSnapshot(plan, dest, offset);
+        } finally {
+            r.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean readSnapshotIfReady(final long[] dest, final int offset) throws IOException {
+        ResilientRegister r = getResilientRegister();
+        r.begin(true);
+        try {
+            return super.readSnapshotIfReady(dest, offset);
+        } finally {
+            r.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long readSnapshot(final IntBuffer dest) throws IOException {
+        ResilientRegister r = getResilientRegister();
+        r.begin(true);
+        try {
+            return super.readSnapshot(dest);
+        } finally {
+            r.end();
+        }
+    }
+
+    /**
+     * Reads a conversion if one is ready, like readSnapshotIfReady, but without retrying failed register accesses in line. It is used by a sampler that
+     * retries a failed device on a later pass, after the delay given by getRetryDelay, so that it can sample other devices meanwhile.
+     * 
+     * @param dest
+     *            Array into which the timestamp and register values are stored.
+     * @param offset
+     *            Index in dest of the first of SNAPSHOT_LENGTH values.
+     * @return True if a conversion was read, false if the conversion ready flag was not set.
+     * @throws IOException
+     *             If a register could not be read.
+     */
+    boolean sampleIfReady(final long[] dest, final int offset) throws IOException {
+        ResilientRegister r = getResilientRegister();
+        r.begin(false);
+        try {
+            return super.readSnapshotIfReady(dest, offset);
+        } finally {
+            r.end();
+        }
+    }
+
+    /**
+     * Returns the delay before retrying a failed sampleIfReady, and counts the retry.
+     * 
+     * @param attempt
+     *            Number of retries already made.
+     * @param start
+     *            The System.nanoTime() value at which the read first failed.
+     * @return The delay in nanoseconds, or -1 if the retries are used up or the retry would end past the deadline.
+     */
+    long getRetryDelay(final int attempt, final long start) {
+        return getResilientRegister().retryDelay(attempt, start);
+    }
+
+    private ResilientRegister getResilientRegister() {
+        return (ResilientRegister) ((CachingRegister) getRegister()).getRegister();
     }
 
     /**
@@ -117,32 +414,97 @@ public class INA219 extends INA219Base {
         int getValue() {
             return value;
         }
+
+        /**
+         * Returns the largest shunt voltage that can be measured in this range. Beyond it, the math overflow flag is set.
+         * 
+         * @return The full scale shunt voltage, in Volts.
+         */
+        public double getFullScale() {
+            return 0.04 * (1 << value);
+        }
     }
 
     /**
      * Enum for the Bus and Shunt ADC Resolution/Averaging settings.
      */
     public enum Adc {
-        BITS_9(0), //9 bit samples
-        BITS_10(1), //10 bit samples
-        BITS_11(2), //11 bit samples
-        BITS_12(3), //12 bit samples
-        SAMPLES_2(9), //2 sample average
-        SAMPLES_4(10), //4 sample average
-        SAMPLES_8(11), //8 sample average
-        SAMPLES_16(12), //16 sample average
-        SAMPLES_32(13), //32 sample average
-        SAMPLES_64(14), //64 sample average
-        SAMPLES_128(15); //128 sample average
+        BITS_9(0, 84_000), //9 bit samples
+        BITS_10(1, 148_000), //10 bit samples
+        BITS_11(2, 276_000), //11 bit samples
+        BITS_12(3, 532_000), //12 bit samples
+        SAMPLES_2(9, 1_060_000), //2 sample average
+        SAMPLES_4(10, 2_130_000), //4 sample average
+        SAMPLES_8(11, 4_260_000), //8 sample average
+        SAMPLES_16(12, 8_510_000), //16 sample average
+        SAMPLES_32(13, 17_020_000), //32 sample average
+        SAMPLES_64(14, 34_050_000), //64 sample average
+        SAMPLES_128(15, 68_100_000); //128 sample average
 
         private int value;
+        private long conversionTime;
 
-        Adc(int val) {
+        Adc(int val, long conversionTimeNanos) {
             value = val;
+            conversionTime = conversionTimeNanos;
         }
 
         int getValue() {
             return value;
         }
+
+        /**
+         * Returns the maximum conversion time of this setting, as given in the INA219 data sheet.
+         * 
+         * @return The conversion time in nanoseconds.
+         */
+        public long getConversionTime() {
+            return conversionTime;
+        }
+    }
+
+    /**
+     * Enum for the operating mode setting (MODE).
+     */
+    public enum Mode {
+        POWER_DOWN(0), // power-down
+        SHUNT_TRIGGERED(1), // shunt voltage, triggered
+        BUS_TRIGGERED(2), // bus voltage, triggered
+        SHUNT_BUS_TRIGGERED(3), // shunt and bus, triggered
+        ADC_OFF(4), // ADC off (disabled)
+        SHUNT_CONTINUOUS(5), // shunt voltage, continuous
+        BUS_CONTINUOUS(6), // bus voltage, continuous
+        SHUNT_BUS_CONTINUOUS(7); // shunt and bus, continuous
+
+        private int value;
+
+        Mode(int val) {
+            value = val;
+        }
+
+        int getValue() {
+            return value;
+        }
+
+        /**
+         * @return True if the shunt voltage is converted in this mode.
+         */
+        public boolean convertsShunt() {
+            return (value & 0x1) != 0;
+        }
+
+        /**
+         * @return True if the bus voltage is converted in this mode.
+         */
+        public boolean convertsBus() {
+            return (value & 0x2) != 0;
+        }
+
+        /**
+         * @return True if conversions only occur when triggered by a write to the configuration register.
+         */
+        public boolean isTriggered() {
+            return value >= 1 && value <= 3;
+        }
     }
 }
@@ -15,18 +15,57 @@ package io.github.gsteckman.rpi_ina219;
  */
 
 import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Base class for the INA219 driver implementation. Register read/writes are abstracted using the INA219RegisterIF to allow testing without an I2C device present.
  *
  */
 class INA219Base {
-    private static final double SHUNT_VOLTAGE_LSB = 10e-6;
-    private static final double BUS_VOLTAGE_LSB = 4e-3;
-    private static final int POWER_LSB_SCALE = 20;
+    /** Offset of the System.nanoTime() stamp in a raw snapshot. */
+    public static final int SNAPSHOT_TIMESTAMP = 0;
+    /** Offset of the signed shunt voltage register in a raw snapshot. */
+    public static final int SNAPSHOT_SHUNT_VOLTAGE = 1;
+    /** Offset of the bus voltage register, including the CNVR and OVF flags, in a raw snapshot. */
+    public static final int SNAPSHOT_BUS_VOLTAGE = 2;
+    /** Offset of the power register in a raw snapshot. */
+    public static final int SNAPSHOT_POWER = 3;
+    /** Offset of the signed current register in a raw snapshot. */
+    public static final int SNAPSHOT_CURRENT = 4;
+    /** Offset of the gain range (the value of the INA219.Pga setting) the conversion was taken at in a raw snapshot. */
+    public static final int SNAPSHOT_RANGE = 5;
+    /** Offset of the conversion time, in nanoseconds, of the ADC settings the conversion was taken with in a raw snapshot. */
+    public static final int SNAPSHOT_CONVERSION_TIME = 6;
+    /** Number of values in a raw snapshot. */
+    public static final int SNAPSHOT_LENGTH = 7;
+    static final double SHUNT_VOLTAGE_LSB = 10e-6;
+    static final double BUS_VOLTAGE_LSB = 4e-3;
+    static final int POWER_LSB_SCALE = 20;
+    private static final int BUS_VOLTAGE_CNVR = 0x2;
+    private static final int BUS_VOLTAGE_OVF = 0x1;
+    private static final int CONVERSION_POLLS = 8;
+    private static final int CONVERSION_TIMEOUT_FACTOR = 4;
+    private static final int SHUNT_FULL_SCALE = 4000;
+    private static final double RANGE_UP_THRESHOLD = 0.875;
+    private static final double RANGE_DOWN_THRESHOLD = 0.5;
+    private static final int RANGE_DOWN_SAMPLES = 8;
+    private static final INA219.Pga[] RANGES = INA219.Pga.values();
     private double rShunt;
-    private double currentLSB;
-    private int cal;
+    private final double fixedCurrentLSB;
+    private final int fixedCal;
+    private final double[] currentLSB = new double[RANGES.length];
+    private final int[] cal = new int[RANGES.length];
+    private boolean autoRanging;
+    private int rangeDownCount;
+    private AdaptiveAveraging averaging;
+    private INA219.Brng brng;
+    private INA219.Pga pga;
+    private INA219.Adc badc;
+    private INA219.Adc sadc;
+    private INA219.Mode mode;
+    private volatile long conversionTime;
     private INA219RegisterIF register;
 
     /**
@@ -52,14 +91,365 @@ class INA219Base {
     public INA219Base(final INA219RegisterIF reg, final double shuntResistance, final double maxExpectedCurrent,
             final INA219.Brng busVoltageRange, final INA219.Pga pga, final INA219.Adc badc, final INA219.Adc sadc)
             throws IOException {
+        this(reg, shuntResistance, maxExpectedCurrent, busVoltageRange, pga, badc, sadc,
+                INA219.Mode.SHUNT_BUS_CONTINUOUS);
+    }
+
+    /**
+     * Constructs an INA219Base with the specified values and operating mode.
+     * 
+     * @param reg
+     *            Register interface to use for read/write access.
+     * @param shuntResistance
+     *            Value in ohms of the current sense shunt resistor.
+     * @param maxExpectedCurrent
+     *            Maximum expected current, in Amps.
+     * @param busVoltageRange
+     *            Either 16V or 32V.
+     * @param pga
+     *            Gain range.
+     * @param badc
+     *            Bus voltage ADC sample size and averaging setting.
+     * @param sadc
+     *            Shunt resistor voltage ADC sample size and averaging setting.
+     * @param mode
+     *            Operating mode.
+     * @throws IOException
+     *             If the configuration or calibration registers cannot be written.
+     */
+    public INA219Base(final INA219RegisterIF reg, final double shuntResistance, final double maxExpectedCurrent,
+            final INA219.Brng busVoltageRange, final INA219.Pga pga, final INA219.Adc badc, final INA219.Adc sadc,
+            final INA219.Mode mode) throws IOException {
         register = reg;
 
         rShunt = shuntResistance;
-        currentLSB = (maxExpectedCurrent / 32768);
-        cal = (int) (((0.04096 * 32768) / (maxExpectedCurrent * rShunt)));
+        fixedCurrentLSB = (maxExpectedCurrent / 32768);
+        fixedCal = (int) (((0.04096 * 32768) / (maxExpectedCurrent * rShunt)));
+        Arrays.fill(currentLSB, fixedCurrentLSB);
+        Arrays.fill(cal, fixedCal);
+
+        configure(busVoltageRange, pga, badc, sadc, mode);
+        register.writeRegister(RegisterAddress.CALIBRATION, getCalibration());
+    }
+
+    /**
+     * Enables or disables automatic ranging. While enabled, each conversion read is checked against the full scale of the gain range it was taken at:
+     * the gain range is widened by one step immediately if the math overflow flag is set or the shunt voltage exceeds 87.5% of full scale, and narrowed
+     * by one step after 8 consecutive conversions below half the full scale of the next narrower range. Each gain range has its own calibration, chosen
+     * for the best current resolution that does not overflow within the range, so the calibration register is rewritten with every range change.
+     * <p>
+     * Conversions are tagged with the range they were taken at (SNAPSHOT_RANGE), and the conversion methods taking a range use the calibration of that
+     * range. While disabled, every range uses the calibration derived from the maximum expected current given at construction.
+     * 
+     * @param enable
+     *            True to enable automatic ranging.
+     * @throws IOException
+     *             If the calibration register could not be written.
+     */
+    public void setAutoRanging(final boolean enable) throws IOException {
+        autoRanging = enable;
+        rangeDownCount = 0;
+        for (int i = 0; i < RANGES.length; i++) {
+            if (enable) {
+                cal[i] = (int) ((0.04096 * 32768) / ((SHUNT_FULL_SCALE << i) * SHUNT_VOLTAGE_LSB)) & 0xFFFE;
+                currentLSB[i] = 0.04096 / (cal[i] * rShunt);
+            } else {
+                cal[i] = fixedCal;
+                currentLSB[i] = fixedCurrentLSB;
+            }
+        }
+        register.writeRegister(RegisterAddress.CALIBRATION, getCalibration());
+    }
+
+    /**
+     * @return True if automatic ranging is enabled.
+     */
+    public boolean isAutoRanging() {
+        return autoRanging;
+    }
 
-        configure(busVoltageRange, pga, badc, sadc);
-        register.writeRegister(RegisterAddress.CALIBRATION, cal);
+    /**
+     * Changes the gain range, rewriting the calibration register for the range and then the configuration register. In a triggered mode, the
+     * configuration register is written by the next trigger.
+     * 
+     * @param pga
+     *            The new gain range.
+     * @throws IOException
+     *             If the calibration or configuration register could not be written.
+     */
+    public void setPga(final INA219.Pga pga) throws IOException {
+        this.pga = pga;
+        register.writeRegister(RegisterAddress.CALIBRATION, getCalibration());
+        if (!mode.isTriggered()) {
+            writeConfiguration();
+        }
+    }
+
+    /**
+     * @return The gain range in effect.
+     */
+    public INA219.Pga getPga() {
+        return pga;
+    }
+
+    /**
+     * Changes the ADC settings, which select the resolution or number of samples averaged per conversion, by rewriting the configuration register. The
+     * conversion in progress is restarted, so the next conversion read is taken with the new settings. In a triggered mode, the configuration register
+     * is written by the next trigger.
+     * 
+     * @param badc
+     *            The new bus voltage ADC setting.
+     * @param sadc
+     *            The new shunt voltage ADC setting.
+     * @throws IOException
+     *             If the configuration register could not be written.
+     */
+    public void setAdc(final INA219.Adc badc, final INA219.Adc sadc) throws IOException {
+        this.badc = badc;
+        this.sadc = sadc;
+        updateConversionTime();
+        if (!mode.isTriggered()) {
+            writeConfiguration();
+        }
+    }
+
+    /**
+     * @return The bus voltage ADC setting in effect.
+     */
+    public INA219.Adc getBusAdc() {
+        return badc;
+    }
+
+    /**
+     * @return The shunt voltage ADC setting in effect.
+     */
+    public INA219.Adc getShuntAdc() {
+        return sadc;
+    }
+
+    /**
+     * Sets a policy that adapts the ADC settings to the signal after each conversion read, or removes it. Setting a policy switches both ADCs to its
+     * fast setting, from which it steps up while the signal is steady; removing it keeps the settings in effect. Conversions are tagged with the
+     * conversion time of the settings they were taken with (SNAPSHOT_CONVERSION_TIME).
+     * 
+     * @param policy
+     *            The policy, or null to stop adapting.
+     * @throws IOException
+     *             If the configuration register could not be written.
+     */
+    public void setAdaptiveAveraging(final AdaptiveAveraging policy) throws IOException {
+        averaging = policy;
+        if (policy != null) {
+            INA219.Adc adc = policy.reset();
+            setAdc(adc, adc);
+        }
+    }
+
+    /**
+     * @return The adaptive averaging policy, or null if none is set.
+     */
+    public AdaptiveAveraging getAdaptiveAveraging() {
+        return averaging;
+    }
+
+    /**
+     * Changes the operating mode by rewriting the configuration register. Writing a triggered mode starts a single conversion.
+     * 
+     * @param mode
+     *            The new operating mode.
+     * @throws IOException
+     *             If the configuration register could not be written.
+     */
+    public void setMode(final INA219.Mode mode) throws IOException {
+        configure(brng, pga, badc, sadc, mode);
+    }
+
+    /**
+     * @return The current operating mode.
+     */
+    public INA219.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Starts a single conversion of the channels selected by the triggered mode in effect, without waiting for it to complete.
+     * 
+     * @throws IOException
+     *             If the configuration register could not be written.
+     * @throws IllegalStateException
+     *             If the device is not in a triggered mode.
+     */
+    public void trigger() throws IOException {
+        if (!mode.isTriggered()) {
+            throw new IllegalStateException("Not in a triggered mode: " + mode);
+        }
+        writeConfiguration();
+    }
+
+    /**
+     * Starts a single conversion, waits for the conversion time of the configured ADC settings and returns the result. Between calls the INA219 does not
+     * convert, which minimizes its supply current.
+     * 
+     * @return The values of the triggered conversion.
+     * @throws IOException
+     *             If a register could not be accessed, or the conversion did not complete.
+     * @throws IllegalStateException
+     *             If the device is not in a triggered mode.
+     */
+    public Measurement triggerAndRead() throws IOException {
+        long[] sample = new long[SNAPSHOT_LENGTH];
+        triggerAndRead(sample, 0);
+        return toMeasurement(sample, 0);
+    }
+
+    /**
+     * Starts a single conversion, waits for the conversion time of the configured ADC settings and reads the raw result into the provided array. This method
+     * does not allocate.
+     * 
+     * @param dest
+     *            Array into which the timestamp and register values are stored.
+     * @param offset
+     *            Index in dest of the first of SNAPSHOT_LENGTH values.
+     * @throws IOException
+     *             If a register could not be accessed, or the conversion did not complete.
+     * @throws IllegalStateException
+     *             If the device is not in a triggered mode.
+     */
+    public void triggerAndRead(final long[] dest, final int offset) throws IOException {
+        trigger();
+        long deadline = System.nanoTime() + conversionTime;
+        long delay;
+        while ((delay = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+        }
+        readSnapshot(dest, offset);
+    }
+
+    /**
+     * Waits for the conversion ready flag and then reads all of the measurement registers for that one conversion. Reading the power register clears the
+     * conversion ready flag, so a subsequent call will not return the same conversion twice.
+     * 
+     * @return The values of the completed conversion.
+     * @throws IOException
+     *             If a register could not be read, or no conversion completed within several conversion periods.
+     */
+    public Measurement readSnapshot() throws IOException {
+        long[] sample = new long[SNAPSHOT_LENGTH];
+        readSnapshot(sample, 0);
+        return toMeasurement(sample, 0);
+    }
+
+    /**
+     * Waits for the conversion ready flag and then reads the raw contents of all of the measurement registers for that one conversion into the provided
+     * array. The values are stored at the SNAPSHOT_* offsets relative to offset. This method does not allocate.
+     * 
+     * @param dest
+     *            Array into which the timestamp and register values are stored.
+     * @param offset
+     *            Index in dest of the first of SNAPSHOT_LENGTH values.
+     * @throws IOException
+     *             If a register could not be read, or no conversion completed within several conversion periods.
+     */
+    public void readSnapshot(final long[] dest, final int offset) throws IOException {
+        readConversion(awaitConversion(), dest, offset);
+    }
+
+    /**
+     * Reads the registers of a read plan into the provided array, deriving the remaining values of the plan's channels as the INA219 computes them. The
+     * values are stored at the SNAPSHOT_* offsets relative to offset. If the plan does not wait for conversion ready, the registers are read at once.
+     * This method does not allocate.
+     * 
+     * @param plan
+     *            The registers to read.
+     * @param dest
+     *            Array into which the timestamp and register values are stored.
+     * @param offset
+     *            Index in dest of the first of SNAPSHOT_LENGTH values.
+     * @throws IOException
+     *             If a register could not be read, or no conversion completed within several conversion periods.
+     */
+    public void readSnapshot(final ReadPlan plan, final long[] dest, final int offset) throws IOException {
+        int bus = 0;
+        if (plan.isAwaitConversion()) {
+            bus = awaitConversion();
+        } else if (plan.reads(ReadPlan.BUS)) {
+            bus = register.readRegister(RegisterAddress.BUS_VOLTAGE);
+        }
+        dest[offset + SNAPSHOT_TIMESTAMP] = System.nanoTime();
+        long shunt = plan.reads(ReadPlan.SHUNT) ? register.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE) : 0;
+        long power = plan.reads(ReadPlan.POWER) ? register.readRegister(RegisterAddress.POWER) : 0;
+        long current = plan.reads(ReadPlan.CURRENT) ? register.readSignedRegister(RegisterAddress.CURRENT) : 0;
+        if (plan.reads(ReadPlan.SHUNT)) {
+            int c = getCalibration();
+            if (!plan.reads(ReadPlan.CURRENT)) {
+                current = ReadPlan.deriveCurrent(shunt, c);
+            }
+            if (!plan.reads(ReadPlan.BUS)) {
+                bus = ReadPlan.deriveOverflow(shunt, c, pga.getValue());
+            } else if (!plan.reads(ReadPlan.POWER)) {
+                power = ReadPlan.derivePower(shunt, c, bus);
+            }
+        }
+        dest[offset + SNAPSHOT_BUS_VOLTAGE] = bus;
+        dest[offset + SNAPSHOT_SHUNT_VOLTAGE] = shunt;
+        dest[offset + SNAPSHOT_POWER] = power;
+        dest[offset + SNAPSHOT_CURRENT] = current;
+        completeSnapshot(bus, dest, offset);
+    }
+
+    /**
+     * Reads the raw contents of all of the measurement registers into the provided array if a new conversion is ready, without waiting. The values are
+     * stored at the SNAPSHOT_* offsets relative to offset. This method does not allocate.
+     * 
+     * @param dest
+     *            Array into which the timestamp and register values are stored.
+     * @param offset
+     *            Index in dest of the first of SNAPSHOT_LENGTH values.
+     * @return True if a conversion was read, false if the conversion ready flag was not set.
+     * @throws IOException
+     *             If a register could not be read.
+     */
+    public boolean readSnapshotIfReady(final long[] dest, final int offset) throws IOException {
+        int bus = register.readRegister(RegisterAddress.BUS_VOLTAGE);
+        if ((bus & BUS_VOLTAGE_CNVR) == 0) {
+            return false;
+        }
+        readConversion(bus, dest, offset);
+        return true;
+    }
+
+    /**
+     * Waits for the conversion ready flag and then puts the raw contents of the shunt voltage, bus voltage, power and current registers, in that order, into
+     * the provided buffer, followed by the gain range the conversion was taken at. Like the other snapshot methods, the conversion drives automatic
+     * ranging and adaptive averaging if enabled. This method does not allocate.
+     * 
+     * @param dest
+     *            Buffer into which four register values and the gain range are put.
+     * @return The System.nanoTime() value at which the conversion was found to be ready.
+     * @throws IOException
+     *             If a register could not be read, or no conversion completed within several conversion periods.
+     */
+    public long readSnapshot(final IntBuffer dest) throws IOException {
+        int bus = awaitConversion();
+        long timestamp = System.nanoTime();
+        int shunt = register.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE);
+        dest.put(shunt);
+        dest.put(bus);
+        dest.put(register.readRegister(RegisterAddress.POWER));
+        dest.put(register.readSignedRegister(RegisterAddress.CURRENT));
+        dest.put(pga.getValue());
+        adapt(shunt, bus);
+        return timestamp;
+    }
+
+    /**
+     * Returns the time taken by the INA219 to complete one conversion of the channels selected by the operating mode, with the configured ADC settings.
+     * This is zero in the power-down and ADC off modes.
+     * 
+     * @return The conversion time in nanoseconds.
+     */
+    public long getConversionTime() {
+        return conversionTime;
     }
 
     /**
@@ -70,8 +460,7 @@ class INA219Base {
      *             If the shunt voltage register could not be read.
      */
     public double getShuntVoltage() throws IOException {
-        int rval = register.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE);
-        return rval * SHUNT_VOLTAGE_LSB;
+        return toShuntVoltage(getShuntVoltageRaw());
     }
 
     /**
@@ -82,8 +471,7 @@ class INA219Base {
      *             If the bus voltage register could not be read.
      */
     public double getBusVoltage() throws IOException {
-        int rval = register.readRegister(RegisterAddress.BUS_VOLTAGE);
-        return (rval >> 3) * BUS_VOLTAGE_LSB;
+        return toBusVoltage(getBusVoltageRaw());
     }
 
     /**
@@ -94,8 +482,7 @@ class INA219Base {
      *             If the power register could not be read.
      */
     public double getPower() throws IOException {
-        int rval = register.readRegister(RegisterAddress.POWER);
-        return rval * POWER_LSB_SCALE * currentLSB;
+        return toPower(getPowerRaw());
     }
 
     /**
@@ -106,8 +493,198 @@ class INA219Base {
      *             If the current register could not be read.
      */
     public double getCurrent() throws IOException {
-        int rval = register.readSignedRegister(RegisterAddress.CURRENT);
-        return rval * currentLSB;
+        return toCurrent(getCurrentRaw());
+    }
+
+    /**
+     * Reads and returns the shunt voltage register, in units of 10 uV.
+     * 
+     * @return The shunt voltage count.
+     * @throws IOException
+     *             If the shunt voltage register could not be read.
+     */
+    public short getShuntVoltageRaw() throws IOException {
+        return register.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE);
+    }
+
+    /**
+     * Reads and returns the raw bus voltage register. The voltage count, in units of 4 mV, is in bits 3-15, the conversion ready flag in bit 1 and the
+     * math overflow flag in bit 0.
+     * 
+     * @return The bus voltage register contents.
+     * @throws IOException
+     *             If the bus voltage register could not be read.
+     */
+    public int getBusVoltageRaw() throws IOException {
+        return register.readRegister(RegisterAddress.BUS_VOLTAGE);
+    }
+
+    /**
+     * Reads and returns the power register, in units of 20 times the current LSB.
+     * 
+     * @return The power count.
+     * @throws IOException
+     *             If the power register could not be read.
+     */
+    public int getPowerRaw() throws IOException {
+        return register.readRegister(RegisterAddress.POWER);
+    }
+
+    /**
+     * Reads and returns the current register, in units of the current LSB.
+     * 
+     * @return The current count.
+     * @throws IOException
+     *             If the current register could not be read.
+     */
+    public short getCurrentRaw() throws IOException {
+        return register.readSignedRegister(RegisterAddress.CURRENT);
+    }
+
+    /**
+     * @return The configuration register value for the current settings.
+     */
+    int getConfiguration() {
+        return (brng.getValue() << 13) | (pga.getValue() << 11) | (badc.getValue() << 7) | (sadc.getValue() << 3)
+                | mode.getValue();
+    }
+
+    /**
+     * @return The calibration register value.
+     */
+    int getCalibration() {
+        return cal[pga.getValue()];
+    }
+
+    /**
+     * @param range
+     *            The gain range, as stored at SNAPSHOT_RANGE.
+     * @return The calibration register value used at the gain range.
+     */
+    int getCalibration(final int range) {
+        return cal[range];
+    }
+
+    /**
+     * @return The value in ohms of the current sense shunt resistor.
+     */
+    double getShuntResistance() {
+        return rShunt;
+    }
+
+    /**
+     * @param range
+     *            The gain range, as stored at SNAPSHOT_RANGE.
+     * @return The current register LSB, in Amps, of the calibration used at the gain range.
+     */
+    double getCurrentLSB(final int range) {
+        return currentLSB[range];
+    }
+
+    /**
+     * @return The register interface used for read/write access.
+     */
+    INA219RegisterIF getRegister() {
+        return register;
+    }
+
+    /**
+     * Converts a raw snapshot, as stored by readSnapshot(long[], int), into a Measurement.
+     * 
+     * @param sample
+     *            Array holding the snapshot.
+     * @param offset
+     *            Index of the snapshot in sample.
+     * @return The converted values.
+     */
+    Measurement toMeasurement(final long[] sample, final int offset) {
+        long bus = sample[offset + SNAPSHOT_BUS_VOLTAGE];
+        int range = (int) sample[offset + SNAPSHOT_RANGE];
+        return new Measurement(sample[offset + SNAPSHOT_TIMESTAMP],
+                toShuntVoltage(sample[offset + SNAPSHOT_SHUNT_VOLTAGE]), toBusVoltage(bus),
+                toPower(sample[offset + SNAPSHOT_POWER], range), toCurrent(sample[offset + SNAPSHOT_CURRENT], range),
+                isOverflow(bus), RANGES[range], sample[offset + SNAPSHOT_CONVERSION_TIME]);
+    }
+
+    /**
+     * Converts a raw shunt voltage register value to Volts.
+     * 
+     * @param raw
+     *            The signed shunt voltage register value.
+     * @return The shunt voltage.
+     */
+    public static double toShuntVoltage(final long raw) {
+        return raw * SHUNT_VOLTAGE_LSB;
+    }
+
+    /**
+     * Converts a raw bus voltage register value to Volts.
+     * 
+     * @param raw
+     *            The bus voltage register value, including the flag bits.
+     * @return The bus voltage.
+     */
+    public static double toBusVoltage(final long raw) {
+        return (raw >> 3) * BUS_VOLTAGE_LSB;
+    }
+
+    /**
+     * Extracts the math overflow flag from a raw bus voltage register value.
+     * 
+     * @param raw
+     *            The bus voltage register value.
+     * @return True if the overflow flag is set.
+     */
+    public static boolean isOverflow(final long raw) {
+        return (raw & BUS_VOLTAGE_OVF) != 0;
+    }
+
+    /**
+     * Converts a raw power register value to Watts using the calibration of the gain range in effect.
+     * 
+     * @param raw
+     *            The power register value.
+     * @return The power.
+     */
+    public double toPower(final long raw) {
+        return toPower(raw, pga.getValue());
+    }
+
+    /**
+     * Converts a raw power register value to Watts using the calibration of the given gain range.
+     * 
+     * @param raw
+     *            The power register value.
+     * @param range
+     *            The gain range the conversion was taken at, as stored at SNAPSHOT_RANGE.
+     * @return The power.
+     */
+    public double toPower(final long raw, final long range) {
+        return raw * POWER_LSB_SCALE * currentLSB[(int) range];
+    }
+
+    /**
+     * Converts a raw current register value to Amps using the calibration of the gain range in effect.
+     * 
+     * @param raw
+     *            The signed current register value.
+     * @return The current.
+     */
+    public double toCurrent(final long raw) {
+        return toCurrent(raw, pga.getValue());
+    }
+
+    /**
+     * Converts a raw current register value to Amps using the calibration of the given gain range.
+     * 
+     * @param raw
+     *            The signed current register value.
+     * @param range
+     *            The gain range the conversion was taken at, as stored at SNAPSHOT_RANGE.
+     * @return The current.
+     */
+    public double toCurrent(final long raw, final long range) {
+        return raw * currentLSB[(int) range];
     }
 
     /**
@@ -121,14 +698,147 @@ class INA219Base {
      *            Bus voltage ADC setting to write to the configuration register.
      * @param sadc
      *            Shunt voltage ADC setting to write to the configuration register.
+     * @param mode
+     *            Operating mode to write to the configuration register.
      * @throws IOException
      *             If the configuration register could not be written.
      */
     private void configure(final INA219.Brng busVoltageRange, final INA219.Pga pga, final INA219.Adc badc,
-            final INA219.Adc sadc) throws IOException {
-        int regValue = (busVoltageRange.getValue() << 13) | (pga.getValue() << 11) | (badc.getValue() << 7)
-                | (sadc.getValue() << 3) | 0x7;
+            final INA219.Adc sadc, final INA219.Mode mode) throws IOException {
+        this.brng = busVoltageRange;
+        this.pga = pga;
+        this.badc = badc;
+        this.sadc = sadc;
+        this.mode = mode;
+        updateConversionTime();
+        writeConfiguration();
+    }
+
+    /**
+     * Computes the conversion time from the ADC settings and the channels converted by the operating mode.
+     */
+    private void updateConversionTime() {
+        conversionTime = (mode.convertsBus() ? badc.getConversionTime() : 0)
+                + (mode.convertsShunt() ? sadc.getConversionTime() : 0);
+    }
 
-        register.writeRegister(RegisterAddress.CONFIGURATION, regValue);
+    /**
+     * Writes the configuration register from the current settings.
+     * 
+     * @throws IOException
+     *             If the configuration register could not be written.
+     */
+    private void writeConfiguration() throws IOException {
+        register.writeRegister(RegisterAddress.CONFIGURATION, getConfiguration());
+    }
+
+    /**
+     * Reads the remaining measurement registers of a ready conversion into a raw snapshot.
+     * 
+     * @param bus
+     *            The bus voltage register value with the conversion ready flag set.
+     * @param dest
+     *            Array into which the timestamp and register values are stored.
+     * @param offset
+     *            Index in dest of the first of SNAPSHOT_LENGTH values.
+     * @throws IOException
+     *             If a register could not be read.
+     */
+    private void readConversion(final int bus, final long[] dest, final int offset) throws IOException {
+        dest[offset + SNAPSHOT_TIMESTAMP] = System.nanoTime();
+        dest[offset + SNAPSHOT_BUS_VOLTAGE] = bus;
+        dest[offset + SNAPSHOT_SHUNT_VOLTAGE] = register.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE);
+        dest[offset + SNAPSHOT_POWER] = register.readRegister(RegisterAddress.POWER);
+        dest[offset + SNAPSHOT_CURRENT] = register.readSignedRegister(RegisterAddress.CURRENT);
+        completeSnapshot(bus, dest, offset);
+    }
+
+    /**
+     * Tags a snapshot with the range and conversion time it was taken with, and adapts the range and ADC settings to it.
+     * 
+     * @param bus
+     *            The bus voltage register value of the conversion.
+     * @param dest
+     *            Array holding the snapshot.
+     * @param offset
+     *            Index in dest of the first of SNAPSHOT_LENGTH values.
+     * @throws IOException
+     *             If the calibration or configuration register could not be written.
+     */
+    private void completeSnapshot(final int bus, final long[] dest, final int offset) throws IOException {
+        dest[offset + SNAPSHOT_RANGE] = pga.getValue();
+        dest[offset + SNAPSHOT_CONVERSION_TIME] = conversionTime;
+        adapt(dest[offset + SNAPSHOT_SHUNT_VOLTAGE], bus);
+    }
+
+    /**
+     * Adapts the range and ADC settings to a conversion, if automatic ranging or adaptive averaging is enabled.
+     * 
+     * @param shunt
+     *            The shunt voltage register value of the conversion.
+     * @param bus
+     *            The bus voltage register value of the conversion.
+     * @throws IOException
+     *             If the calibration or configuration register could not be written.
+     */
+    private void adapt(final long shunt, final int bus) throws IOException {
+        if (autoRanging) {
+            adjustRange(shunt, bus);
+        }
+        if (averaging != null) {
+            INA219.Adc adc = averaging.update(shunt);
+            if (adc != badc || adc != sadc) {
+                setAdc(adc, adc);
+            }
+        }
+    }
+
+    /**
+     * Steps the gain range if a conversion taken at the range in effect was out of range or well within a narrower range.
+     * 
+     * @param shunt
+     *            The shunt voltage register value of the conversion.
+     * @param bus
+     *            The bus voltage register value of the conversion.
+     * @throws IOException
+     *             If the calibration or configuration register could not be written.
+     */
+    private void adjustRange(final long shunt, final int bus) throws IOException {
+        int range = pga.getValue();
+        long magnitude = Math.abs(shunt);
+        if ((bus & BUS_VOLTAGE_OVF) != 0 || magnitude > (SHUNT_FULL_SCALE << range) * RANGE_UP_THRESHOLD) {
+            rangeDownCount = 0;
+            if (range < RANGES.length - 1) {
+                setPga(RANGES[range + 1]);
+            }
+        } else if (range > 0 && magnitude < (SHUNT_FULL_SCALE << (range - 1)) * RANGE_DOWN_THRESHOLD) {
+            if (++rangeDownCount >= RANGE_DOWN_SAMPLES) {
+                rangeDownCount = 0;
+                setPga(RANGES[range - 1]);
+            }
+        } else {
+            rangeDownCount = 0;
+        }
+    }
+
+    /**
+     * Polls the bus voltage register until the conversion ready flag is set.
+     * 
+     * @return The value of the bus voltage register with the conversion ready flag set.
+     * @throws IOException
+     *             If the bus voltage register could not be read, or the flag was not set before the timeout.
+     */
+    private int awaitConversion() throws IOException {
+        long pollInterval = conversionTime / CONVERSION_POLLS;
+        long deadline = System.nanoTime() + conversionTime * CONVERSION_TIMEOUT_FACTOR;
+        int bus = register.readRegister(RegisterAddress.BUS_VOLTAGE);
+        while ((bus & BUS_VOLTAGE_CNVR) == 0) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("Timed out waiting for conversion ready");
+            }
+            LockSupport.parkNanos(pollInterval);
+            bus = register.readRegister(RegisterAddress.BUS_VOLTAGE);
+        }
+        return bus;
     }
 }
@@ -0,0 +1,431 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * INA219BusManager.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CFactory;
+import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
+
+/**
+ * Manages several INA219 devices sharing one I2C bus. The manager owns the bus handle, serializes all register transactions with a fair lock and samples
+ * the registered devices round-robin, visiting each in proportion to its weight. Each device's samples are appended to its own SampleRingBuffer.
+ */
+public class INA219BusManager implements Closeable {
+    private static final Log LOG = LogFactory.getLog(INA219BusManager.class);
+    private static final long RATE_INTERVAL = 1000000000L;
+    private static final int IDLE_POLLS = 8;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final RegisterFactory factory;
+    private final I2CBus bus;
+    private final int bufferCapacity;
+    private final long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+    private volatile Slot[] slots = new Slot[0];
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Creates the register interface for a device address.
+     */
+    interface RegisterFactory {
+        /**
+         * @param address
+         *            Address of the device.
+         * @return A register interface for the device.
+         * @throws IOException
+         *             If the device could not be opened.
+         */
+        INA219RegisterIF create(INA219.Address address) throws IOException;
+    }
+
+    /**
+     * Constructs a new INA219BusManager for the specified I2C bus.
+     *
+     * @param busNumber
+     *            The I2C bus number, for example I2CBus.BUS_1.
+     * @param bufferCapacity
+     *            Number of samples to hold per device.
+     * @throws IOException
+     *             If the bus could not be opened.
+     */
+    public INA219BusManager(final int busNumber, final int bufferCapacity) throws IOException {
+        try {
+            bus = I2CFactory.getInstance(busNumber);
+        } catch (UnsupportedBusNumberException e) {
+            throw new IOException("I2C bus " + busNumber + " not supported", e);
+        }
+        factory = new RegisterFactory() {
+            public INA219RegisterIF create(final INA219.Address address) throws IOException {
+                return new I2CRegisterImpl(bus.getDevice(address.getValue()));
+            }
+        };
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    /**
+     * Constructs a new INA219BusManager that obtains device registers from the provided factory.
+     *
+     * @param factory
+     *            Factory for the register interface of each device.
+     * @param bufferCapacity
+     *            Number of samples to hold per device.
+     */
+    INA219BusManager(final RegisterFactory factory, final int bufferCapacity) {
+        this.factory = factory;
+        this.bufferCapacity = bufferCapacity;
+        bus = null;
+    }
+
+    /**
+     * Adds a device to the bus. Devices may be added while sampling is running.
+     *
+     * @param address
+     *            I2C Address of the INA219.
+     * @param weight
+     *            Relative share of the sampling slots given to this device.
+     * @param shuntResistance
+     *            Value in ohms of the current sense shunt resistor.
+     * @param maxExpectedCurrent
+     *            Maximum expected current, in Amps.
+     * @param busVoltageRange
+     *            Either 16V or 32V.
+     * @param pga
+     *            Gain range.
+     * @param badc
+     *            Bus voltage ADC sample size and averaging setting.
+     * @param sadc
+     *            Shunt resistor voltage ADC sample size and averaging setting.
+     * @return The new device. All of its register transactions are serialized with the other devices on the bus.
+     * @throws IOException
+     *             If the device could not be opened, configured or calibrated.
+     */
+    public synchronized INA219 addDevice(final INA219.Address address, final int weight, final double shuntResistance,
+            final double maxExpectedCurrent, final INA219.Brng busVoltageRange, final INA219.Pga pga,
+            final INA219.Adc badc, final INA219.Adc sadc) throws IOException {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        if (findSlot(address) != null) {
+            throw new IllegalArgumentException("Device already added: " + address);
+        }
+        LockedRegister locked = new LockedRegister(factory.create(address));
+        INA219 device = new INA219(locked, shuntResistance, maxExpectedCurrent, busVoltageRange, pga, badc, sadc);
+        locked.instrumentation = device.getInstrumentation();
+        Slot[] s = Arrays.copyOf(slots, slots.length + 1);
+        s[s.length - 1] = new Slot(address, device, weight, new SampleRingBuffer(bufferCapacity));
+        slots = s;
+        return device;
+    }
+
+    /**
+     * @param address
+     *            Address of a device added to this manager.
+     * @return The buffer holding the samples of the device.
+     */
+    public SampleRingBuffer getBuffer(final INA219.Address address) {
+        return getSlot(address).buffer;
+    }
+
+    /**
+     * @param address
+     *            Address of a device added to this manager.
+     * @return The number of samples taken from the device.
+     */
+    public long getSampleCount(final INA219.Address address) {
+        return getSlot(address).sampleCount;
+    }
+
+    /**
+     * @param address
+     *            Address of a device added to this manager.
+     * @return The number of failed reads of the device.
+     */
+    public long getErrorCount(final INA219.Address address) {
+        return getSlot(address).errorCount;
+    }
+
+    /**
+     * Returns the sample rate achieved for a device over the most recently completed one second interval.
+     *
+     * @param address
+     *            Address of a device added to this manager.
+     * @return The achieved sample rate in samples per second.
+     */
+    public double getSampleRate(final INA219.Address address) {
+        return getSlot(address).sampleRate;
+    }
+
+    /**
+     * Starts sampling the devices on a new daemon thread.
+     *
+     * @throws IllegalStateException
+     *             If sampling is already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Bus manager already running");
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, "INA219 bus manager");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops sampling and waits for the sampling thread to exit.
+     *
+     * @throws InterruptedException
+     *             If interrupted while waiting for the sampling thread.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * Stops sampling and closes the bus.
+     *
+     * @throws IOException
+     *             If the bus could not be closed.
+     */
+    public void close() throws IOException {
+        try {
+            stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (bus != null) {
+            bus.close();
+        }
+    }
+
+    /**
+     * Selects the next device to sample using smooth weighted round-robin, so that a device of weight w is visited w times in every cycle of the total
+     * weight, with the visits spread evenly through the cycle.
+     *
+     * @param s
+     *            The registered devices.
+     * @return The device to sample next.
+     */
+    static Slot next(final Slot[] s) {
+        int total = 0;
+        Slot best = null;
+        for (int i = 0; i < s.length; i++) {
+            s[i].currentWeight += s[i].weight;
+            total += s[i].weight;
+            if (best == null || s[i].currentWeight > best.currentWeight) {
+                best = s[i];
+            }
+        }
+        best.currentWeight -= total;
+        return best;
+    }
+
+    /**
+     * Visits the next device and reads its conversion if one is ready. The bus lock is taken by each register transaction rather than around the whole
+     * read: the device's register decorators hold their own monitors while they call down to the bus, so taking the bus lock first here would take the
+     * two in the opposite order to a thread reading the device directly.
+     * <p>
+     * A failed read is not retried in line, which would keep the other devices waiting for the backoff. If the device has retries left, it is skipped
+     * until its backoff has passed and retried on a later visit.
+     *
+     * @param s
+     *            The registered devices.
+     * @return True if a sample was taken.
+     */
+    boolean sampleNext(final Slot[] s) {
+        Slot slot = next(s);
+        if (slot.failures != 0 && System.nanoTime() - slot.retryAt < 0) {
+            return false;
+        }
+        try {
+            boolean ready = slot.device.sampleIfReady(sample, 0);
+            slot.failures = 0;
+            if (!ready) {
+                return false;
+            }
+        } catch (IOException e) {
+            slot.errorCount++;
+            long now = System.nanoTime();
+            if (slot.failures == 0) {
+                slot.failedAt = now;
+            }
+            long delay = slot.device.getRetryDelay(slot.failures, slot.failedAt);
+            if (delay >= 0) {
+                slot.failures++;
+                slot.retryAt = now + delay;
+                LOG.debug("INA219 read failed at " + slot.address + ", retrying", e);
+            } else {
+                slot.failures = 0;
+                if (slot.device.isCircuitOpen()) {
+                    LOG.debug("INA219 read skipped at " + slot.address, e);
+                } else {
+                    LOG.warn("INA219 read failed at " + slot.address, e);
+                }
+            }
+            return false;
+        }
+        slot.buffer.add(sample, 0);
+        slot.sampleCount++;
+        return true;
+    }
+
+    private void sample() {
+        long rateStart = System.nanoTime();
+        int idle = 0;
+        while (running) {
+            Slot[] s = slots;
+            if (s.length == 0) {
+                LockSupport.parkNanos(RATE_INTERVAL / 100);
+                continue;
+            }
+            if (sampleNext(s)) {
+                idle = 0;
+            } else if (++idle >= s.length) {
+                // nothing was ready in a full round, wait for the quickest device to convert
+                LockSupport.parkNanos(minConversionTime(s) / IDLE_POLLS);
+                idle = 0;
+            }
+            long now = System.nanoTime();
+            if (now - rateStart >= RATE_INTERVAL) {
+                for (Slot slot : s) {
+                    long count = slot.sampleCount;
+                    slot.sampleRate = (count - slot.rateCount) * 1e9 / (now - rateStart);
+                    slot.rateCount = count;
+                }
+                rateStart = now;
+            }
+        }
+    }
+
+    private static long minConversionTime(final Slot[] s) {
+        long min = Long.MAX_VALUE;
+        for (Slot slot : s) {
+            min = Math.min(min, slot.device.getConversionTime());
+        }
+        return min;
+    }
+
+    private Slot findSlot(final INA219.Address address) {
+        for (Slot slot : slots) {
+            if (slot.address == address) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private Slot getSlot(final INA219.Address address) {
+        Slot slot = findSlot(address);
+        if (slot == null) {
+            throw new IllegalArgumentException("Unknown device: " + address);
+        }
+        return slot;
+    }
+
+    /**
+     * Sampling state of one device.
+     */
+    static final class Slot {
+        final INA219.Address address;
+        final INA219 device;
+        final int weight;
+        final SampleRingBuffer buffer;
+        int currentWeight;
+        long rateCount;
+        int failures;
+        long failedAt;
+        long retryAt;
+        volatile long sampleCount;
+        volatile long errorCount;
+        volatile double sampleRate;
+
+        Slot(final INA219.Address address, final INA219 device, final int weight, final SampleRingBuffer buffer) {
+            this.address = address;
+            this.device = device;
+            this.weight = weight;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Serializes each transaction of a device with the other devices on the bus. It is the innermost decorator of a managed device, so the bus lock is
+     * always the last lock taken and is never held while waiting for another. While the device's instrumentation is enabled, the wait for the lock is
+     * recorded in it.
+     */
+    private final class LockedRegister implements INA219RegisterIF {
+        private final INA219RegisterIF register;
+        volatile INA219Instrumentation instrumentation;
+
+        LockedRegister(final INA219RegisterIF register) {
+            this.register = register;
+        }
+
+        private void acquire() {
+            INA219Instrumentation i = instrumentation;
+            if (i == null || !i.isEnabled()) {
+                lock.lock();
+                return;
+            }
+            long start = System.nanoTime();
+            lock.lock();
+            i.recordBusWait(start);
+        }
+
+        public void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+            acquire();
+            try {
+                register.writeRegister(ra, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int readRegister(final RegisterAddress ra) throws IOException {
+            acquire();
+            try {
+                return register.readRegister(ra);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public short readSignedRegister(final RegisterAddress ra) throws IOException {
+            acquire();
+            try {
+                return register.readSignedRegister(ra);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
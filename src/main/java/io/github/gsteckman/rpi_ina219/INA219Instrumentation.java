@@ -0,0 +1,236 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * INA219Instrumentation.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Measurements of the register accesses of one INA219: a latency histogram for reads and for writes of each register, the number of accesses and
+ * errors, and the fraction of time spent in register accesses. Latencies include any wait for a bus shared with other devices; for a device of an
+ * INA219BusManager that wait is measured separately and excluded from the duty cycle. If a ContinuousSampler is attached, its configured and achieved
+ * sample rates are reported as well, so a sagging sample rate can be attributed to slow register accesses, a busy bus, bus errors, or time spent
+ * between accesses.
+ * <p>
+ * Instrumentation is disabled initially. While disabled, a register access costs one additional volatile read, and the histograms are not allocated.
+ */
+public class INA219Instrumentation implements INA219InstrumentationMBean {
+    private static final RegisterAddress[] REGISTERS = RegisterAddress.values();
+    private volatile boolean enabled;
+    private volatile LatencyHistogram[] readLatency;
+    private volatile LatencyHistogram[] writeLatency;
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong busyTime = new AtomicLong();
+    private final AtomicLong busWaitTime = new AtomicLong();
+    private volatile long resetTime = System.nanoTime();
+    private volatile long resetSampleCount;
+    private volatile ContinuousSampler sampler;
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void setEnabled(final boolean enable) {
+        if (enable && readLatency == null) {
+            LatencyHistogram[] r = new LatencyHistogram[REGISTERS.length];
+            LatencyHistogram[] w = new LatencyHistogram[REGISTERS.length];
+            for (int i = 0; i < REGISTERS.length; i++) {
+                r[i] = new LatencyHistogram();
+                w[i] = new LatencyHistogram();
+            }
+            readLatency = r;
+            writeLatency = w;
+        }
+        enabled = enable;
+    }
+
+    /**
+     * Attaches the sampler whose sample rates are reported.
+     *
+     * @param sampler
+     *            The sampler reading this device, or null to detach.
+     */
+    public void setSampler(final ContinuousSampler sampler) {
+        this.sampler = sampler;
+        resetSampleCount = sampler == null ? 0 : sampler.getSampleCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTransactionCount() {
+        return transactions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getDutyCycle() {
+        long elapsed = System.nanoTime() - resetTime;
+        return elapsed <= 0 ? 0 : (double) Math.max(0, busyTime.get() - busWaitTime.get()) / elapsed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getBusWaitFraction() {
+        long elapsed = System.nanoTime() - resetTime;
+        return elapsed <= 0 ? 0 : (double) busWaitTime.get() / elapsed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getTargetSampleRate() {
+        ContinuousSampler s = sampler;
+        return s == null ? Double.NaN : 1e9 / s.getSamplePeriod();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getAchievedSampleRate() {
+        ContinuousSampler s = sampler;
+        long elapsed = System.nanoTime() - resetTime;
+        return s == null || elapsed <= 0 ? Double.NaN : (s.getSampleCount() - resetSampleCount) * 1e9 / elapsed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getReadLatency(final String register, final double percentile) {
+        LatencyHistogram h = getReadHistogram(RegisterAddress.valueOf(register));
+        return h == null ? 0 : h.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteLatency(final String register, final double percentile) {
+        LatencyHistogram h = getWriteHistogram(RegisterAddress.valueOf(register));
+        return h == null ? 0 : h.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Returns the histogram of the latency of reads of a register.
+     *
+     * @param register
+     *            The register.
+     * @return The histogram, or null if instrumentation was never enabled.
+     */
+    public LatencyHistogram getReadHistogram(final RegisterAddress register) {
+        LatencyHistogram[] r = readLatency;
+        return r == null ? null : r[register.ordinal()];
+    }
+
+    /**
+     * Returns the histogram of the latency of writes of a register.
+     *
+     * @param register
+     *            The register.
+     * @return The histogram, or null if instrumentation was never enabled.
+     */
+    public LatencyHistogram getWriteHistogram(final RegisterAddress register) {
+        LatencyHistogram[] w = writeLatency;
+        return w == null ? null : w[register.ordinal()];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void reset() {
+        if (readLatency != null) {
+            for (int i = 0; i < REGISTERS.length; i++) {
+                readLatency[i].reset();
+                writeLatency[i].reset();
+            }
+        }
+        transactions.set(0);
+        errors.set(0);
+        busyTime.set(0);
+        busWaitTime.set(0);
+        ContinuousSampler s = sampler;
+        resetSampleCount = s == null ? 0 : s.getSampleCount();
+        resetTime = System.nanoTime();
+    }
+
+    /**
+     * Registers this instrumentation with an MBean server under the name io.github.gsteckman.rpi_ina219:type=INA219,name=<i>name</i>.
+     *
+     * @param server
+     *            The MBean server, normally ManagementFactory.getPlatformMBeanServer().
+     * @param name
+     *            Name identifying the device, such as its bus and address.
+     * @return The name under which this instrumentation was registered.
+     * @throws JMException
+     *             If the name is invalid or already registered.
+     */
+    public ObjectName register(final MBeanServer server, final String name) throws JMException {
+        ObjectName objectName = new ObjectName(
+                "io.github.gsteckman.rpi_ina219:type=INA219,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Records a completed register access.
+     *
+     * @param register
+     *            The register accessed.
+     * @param write
+     *            True for a write, false for a read.
+     * @param start
+     *            System.nanoTime() value at the start of the access.
+     * @param failed
+     *            True if the access threw an IOException.
+     */
+    void record(final RegisterAddress register, final boolean write, final long start, final boolean failed) {
+        long latency = System.nanoTime() - start;
+        LatencyHistogram[] h = write ? writeLatency : readLatency;
+        h[register.ordinal()].record(latency);
+        transactions.incrementAndGet();
+        busyTime.addAndGet(latency);
+        if (failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a wait for the lock of a shared bus, made within a register access that is recorded once complete.
+     *
+     * @param start
+     *            System.nanoTime() value at the start of the wait.
+     */
+    void recordBusWait(final long start) {
+        busWaitTime.addAndGet(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * INA219InstrumentationMBean.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Management interface of the instrumentation of one INA219.
+ */
+public interface INA219InstrumentationMBean {
+    /**
+     * @return True if register accesses are being measured.
+     */
+    boolean isEnabled();
+
+    /**
+     * Starts or stops measuring register accesses.
+     *
+     * @param enable
+     *            True to start measuring.
+     */
+    void setEnabled(boolean enable);
+
+    /**
+     * @return The number of register accesses measured.
+     */
+    long getTransactionCount();
+
+    /**
+     * @return The number of measured register accesses that threw an IOException.
+     */
+    long getErrorCount();
+
+    /**
+     * @return The fraction of the time since the last reset spent in register accesses, not counting waits for a shared bus.
+     */
+    double getDutyCycle();
+
+    /**
+     * @return The fraction of the time since the last reset spent waiting for a bus shared with other devices.
+     */
+    double getBusWaitFraction();
+
+    /**
+     * @return The sample rate, in samples per second, that the sampler is configured for, or NaN if no sampler is attached.
+     */
+    double getTargetSampleRate();
+
+    /**
+     * @return The sample rate, in samples per second, achieved by the sampler since the last reset, or NaN if no sampler is attached.
+     */
+    double getAchievedSampleRate();
+
+    /**
+     * Returns a percentile of the latency of reads of a register.
+     *
+     * @param register
+     *            Name of the register, as in RegisterAddress.
+     * @param percentile
+     *            The percentile, from 0 to 100.
+     * @return The latency in nanoseconds.
+     */
+    long getReadLatency(String register, double percentile);
+
+    /**
+     * Returns a percentile of the latency of writes of a register.
+     *
+     * @param register
+     *            Name of the register, as in RegisterAddress.
+     * @param percentile
+     *            The percentile, from 0 to 100.
+     * @return The latency in nanoseconds.
+     */
+    long getWriteLatency(String register, double percentile);
+
+    /**
+     * Discards all measurements.
+     */
+    void reset();
+}
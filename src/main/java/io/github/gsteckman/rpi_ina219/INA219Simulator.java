@@ -0,0 +1,412 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * INA219Simulator.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Simulates an INA219 without requiring I2C hardware, for tests and for load testing of sampling code. The shunt and bus voltages are driven by
+ * waveforms.
+ * <p>
+ * With conversion timing enabled, the simulator follows the MODE and ADC settings of the configuration register: continuous modes complete a conversion
+ * every conversion period after the configuration register was last written, triggered modes complete one conversion, and the power-down and ADC off
+ * modes none. Each conversion averages the waveforms over the number of samples of the ADC setting, spread over the conversion time of its channel, and
+ * is truncated to the ADC resolution. The conversion ready flag (CNVR) is set when a conversion completes and cleared by reading the power register or
+ * writing the configuration register. Without conversion timing every register read reflects the values of the waveforms at that instant, at full
+ * resolution, and CNVR is always set.
+ * <p>
+ * The math overflow flag (OVF) is set when the shunt voltage exceeds the full scale of the configured gain range or the current register overflows;
+ * the shunt voltage register itself is not clipped. Each register access can be delayed to model bus latency, and errors can be injected.
+ * <p>
+ * A simulator starts no threads and holds no buffers, so thousands may be instantiated cheaply. Its methods are synchronized, so, like a device on an
+ * I2C bus, it serves one transaction at a time.
+ */
+public class INA219Simulator implements INA219RegisterIF {
+    private static final int DEFAULT_CONFIGURATION = 0x399F;
+    private static final int CNVR = 0x2;
+    private static final int OVF = 0x1;
+    private static final long[] CONVERSION_TIME = new long[16];
+    private static final int[] SAMPLES = new int[16];
+    private static final int[] RESOLUTION_STEP = new int[16];
+    private static final LongSupplier SYSTEM_CLOCK = new LongSupplier() {
+        public long getAsLong() {
+            return System.nanoTime();
+        }
+    };
+
+    static {
+        for (int v = 0; v < 16; v++) {
+            // 0x4 is ignored for single samples, and 0x8 alone is 12 bit
+            int c = (v & 0x8) == 0 ? v & 0x3 : (v == 0x8 ? 0x3 : v);
+            for (INA219.Adc adc : INA219.Adc.values()) {
+                if (adc.getValue() == c) {
+                    CONVERSION_TIME[v] = adc.getConversionTime();
+                }
+            }
+            SAMPLES[v] = (c & 0x8) == 0 ? 1 : 1 << (c & 0x7);
+            RESOLUTION_STEP[v] = (c & 0x8) == 0 ? 1 << (3 - c) : 1;
+        }
+    }
+
+    private final LongSupplier clock;
+    private final long start;
+    private Waveform shuntWaveform;
+    private Waveform busWaveform;
+    private boolean conversionTiming;
+    private int configurationRegister;
+    private int calibrationRegister;
+    private long configurationTime;
+    private long period;
+    private long latched;
+    private long consumed;
+    private int shuntCount;
+    private int busCount;
+    private long latency;
+    private double errorRate;
+    private Random random;
+    private int failures;
+    private boolean connected = true;
+    private long transactionCount;
+    private long errorCount;
+
+    /**
+     * Constructs a new INA219 simulator using the provided voltage values. Conversion timing is disabled.
+     *
+     * @param shuntVoltage
+     *            The voltage present across the shunt registor to be simulated.
+     * @param busVoltage
+     *            The bus voltage to be simulated.
+     */
+    public INA219Simulator(final double shuntVoltage, final double busVoltage) {
+        this(Waveform.constant(shuntVoltage), Waveform.constant(busVoltage), SYSTEM_CLOCK);
+        conversionTiming = false;
+        latch(start);
+    }
+
+    /**
+     * Constructs a new INA219 simulator driven by the provided waveforms, with conversion timing enabled and System.nanoTime() as the clock.
+     *
+     * @param shuntVoltage
+     *            The voltage across the shunt resistor.
+     * @param busVoltage
+     *            The bus voltage.
+     */
+    public INA219Simulator(final Waveform shuntVoltage, final Waveform busVoltage) {
+        this(shuntVoltage, busVoltage, SYSTEM_CLOCK);
+    }
+
+    /**
+     * Constructs a new INA219 simulator driven by the provided waveforms and clock, with conversion timing enabled. A clock under the control of a test
+     * makes conversion timing deterministic.
+     *
+     * @param shuntVoltage
+     *            The voltage across the shunt resistor.
+     * @param busVoltage
+     *            The bus voltage.
+     * @param clock
+     *            Source of the time in nanoseconds.
+     */
+    public INA219Simulator(final Waveform shuntVoltage, final Waveform busVoltage, final LongSupplier clock) {
+        this.clock = clock;
+        start = clock.getAsLong();
+        shuntWaveform = shuntVoltage;
+        busWaveform = busVoltage;
+        conversionTiming = true;
+        powerOnReset();
+    }
+
+    /**
+     * Sets the voltage across the shunt resistor to a constant value.
+     *
+     * @param shuntVoltage
+     *            The shunt voltage, in Volts.
+     */
+    public void setShuntVoltage(final double shuntVoltage) {
+        setShuntWaveform(Waveform.constant(shuntVoltage));
+    }
+
+    /**
+     * Sets the waveform of the voltage across the shunt resistor. It takes effect with the next conversion.
+     *
+     * @param shuntVoltage
+     *            The shunt voltage.
+     */
+    public synchronized void setShuntWaveform(final Waveform shuntVoltage) {
+        shuntWaveform = shuntVoltage;
+    }
+
+    /**
+     * Sets the waveform of the bus voltage. It takes effect with the next conversion.
+     *
+     * @param busVoltage
+     *            The bus voltage.
+     */
+    public synchronized void setBusWaveform(final Waveform busVoltage) {
+        busWaveform = busVoltage;
+    }
+
+    /**
+     * Enables or disables conversion timing.
+     *
+     * @param enable
+     *            True to complete conversions at the rate given by the configuration register, false to read the present values of the waveforms
+     *            with each register read.
+     */
+    public synchronized void setConversionTiming(final boolean enable) {
+        conversionTiming = enable;
+        restartConversion();
+    }
+
+    /**
+     * Sets the time taken by each register access, modelling the I2C transaction.
+     *
+     * @param nanos
+     *            The latency in nanoseconds.
+     */
+    public synchronized void setLatency(final long nanos) {
+        latency = nanos;
+    }
+
+    /**
+     * Sets the probability with which each register access fails with an IOException.
+     *
+     * @param probability
+     *            Probability of failure, from 0 to 1.
+     * @param seed
+     *            Seed of the random number generator, for a repeatable sequence of failures.
+     */
+    public synchronized void setErrorRate(final double probability, final long seed) {
+        errorRate = probability;
+        random = new Random(seed);
+    }
+
+    /**
+     * Makes the next register accesses fail with an IOException.
+     *
+     * @param count
+     *            Number of accesses to fail.
+     */
+    public synchronized void failNext(final int count) {
+        failures = count;
+    }
+
+    /**
+     * Connects or disconnects the simulated device. While disconnected, every register access fails with an IOException. Reconnecting models a power
+     * cycle: the configuration and calibration registers return to their power-on values.
+     *
+     * @param connect
+     *            True to connect the device.
+     */
+    public synchronized void setConnected(final boolean connect) {
+        if (connect && !connected) {
+            powerOnReset();
+        }
+        connected = connect;
+    }
+
+    /**
+     * @return The number of register accesses, including failed ones.
+     */
+    public synchronized long getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * @return The number of register accesses that failed.
+     */
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void writeRegister(RegisterAddress ra, int value) throws IOException {
+        transaction();
+        switch (ra) {
+        case CONFIGURATION:
+            if ((value & 0x8000) != 0) {
+                powerOnReset();
+            } else {
+                configurationRegister = value & 0xBFFF; // clear bit 14
+                restartConversion();
+            }
+            break;
+        case CALIBRATION:
+            calibrationRegister = value & 0xFFFE;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized short readSignedRegister(RegisterAddress ra) throws IOException {
+        transaction();
+        switch (ra) {
+        case CONFIGURATION:
+            return (short) configurationRegister;
+        case SHUNT_VOLTAGE:
+            update();
+            return (short) shuntCount;
+        case BUS_VOLTAGE:
+            update();
+            int bv = busCount << 3;
+            if (!conversionTiming || latched > consumed) {
+                bv = bv | CNVR;
+            }
+            int fullScale = 4000 << ((configurationRegister >> 11) & 0x3); // PGA range
+            long current = calculateCurrentRegister();
+            if (shuntCount > fullScale || shuntCount < -fullScale || current > Short.MAX_VALUE
+                    || current < Short.MIN_VALUE) {
+                bv = bv | OVF;
+            }
+            return (short) bv;
+        case POWER:
+            update();
+            consumed = latched;
+            return (short) ((calculateCurrentRegister() * busCount) / 5000);
+        case CURRENT:
+            update();
+            return (short) calculateCurrentRegister();
+        case CALIBRATION:
+            return (short) calibrationRegister;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readRegister(RegisterAddress ra) throws IOException {
+        return readSignedRegister(ra) & 0xFFFF;
+    }
+
+    private void transaction() throws IOException {
+        transactionCount++;
+        if (latency > 0) {
+            long deadline = System.nanoTime() + latency;
+            long delay;
+            while ((delay = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+        }
+        if (!connected) {
+            errorCount++;
+            throw new IOException("Simulated device not responding");
+        }
+        if (failures > 0) {
+            failures--;
+            errorCount++;
+            throw new IOException("Simulated I2C error");
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            errorCount++;
+            throw new IOException("Simulated I2C error");
+        }
+    }
+
+    private void powerOnReset() {
+        configurationRegister = DEFAULT_CONFIGURATION;
+        calibrationRegister = 0;
+        restartConversion();
+    }
+
+    private void restartConversion() {
+        configurationTime = clock.getAsLong();
+        latched = 0;
+        consumed = 0;
+        period = (convertsBus() ? CONVERSION_TIME[(configurationRegister >> 7) & 0xF] : 0)
+                + (convertsShunt() ? CONVERSION_TIME[(configurationRegister >> 3) & 0xF] : 0);
+    }
+
+    private boolean convertsShunt() {
+        return (configurationRegister & 0x1) != 0;
+    }
+
+    private boolean convertsBus() {
+        return (configurationRegister & 0x2) != 0;
+    }
+
+    /**
+     * Latches the most recently completed conversion, if it was not latched already, or without conversion timing the present values.
+     */
+    private void update() {
+        if (!conversionTiming) {
+            latch(clock.getAsLong());
+            return;
+        }
+        if (period == 0) {
+            return;
+        }
+        long completed = (clock.getAsLong() - configurationTime) / period;
+        if ((configurationRegister & 0x4) == 0 && completed > 1) {
+            completed = 1; // triggered mode
+        }
+        if (completed > latched) {
+            latched = completed;
+            latch(configurationTime + completed * period);
+        }
+    }
+
+    /**
+     * Sets the shunt and bus voltage counts from the conversion ending at the given time.
+     *
+     * @param end
+     *            Clock value at which the conversion completes.
+     */
+    private void latch(final long end) {
+        int sadc = (configurationRegister >> 3) & 0xF;
+        int badc = (configurationRegister >> 7) & 0xF;
+        if (!conversionTiming) {
+            shuntCount = (int) Math.round(shuntWaveform.valueAt(end - start) / 10E-6);
+            busCount = (int) (busWaveform.valueAt(end - start) / 4E-3);
+            return;
+        }
+        long shuntTime = CONVERSION_TIME[sadc];
+        long busTime = CONVERSION_TIME[badc];
+        if (convertsShunt()) {
+            long from = end - (convertsBus() ? busTime : 0) - shuntTime;
+            shuntCount = (int) Math.round(average(shuntWaveform, from, shuntTime, SAMPLES[sadc]) / 10E-6);
+            shuntCount -= shuntCount % RESOLUTION_STEP[sadc];
+        }
+        if (convertsBus()) {
+            busCount = (int) (average(busWaveform, end - busTime, busTime, SAMPLES[badc]) / 4E-3);
+            busCount -= busCount % RESOLUTION_STEP[badc];
+        }
+    }
+
+    private double average(final Waveform w, final long from, final long duration, final int samples) {
+        if (samples == 1) {
+            return w.valueAt(from + duration - start);
+        }
+        double sum = 0;
+        long step = duration / samples;
+        for (int i = 1; i <= samples; i++) {
+            sum += w.valueAt(from + i * step - start);
+        }
+        return sum / samples;
+    }
+
+    private long calculateCurrentRegister() {
+        return ((long) shuntCount * calibrationRegister) / 4096;
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * InstrumentedRegister.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+
+/**
+ * An INA219RegisterIF decorator that records the latency and outcome of each register access in an INA219Instrumentation while it is enabled.
+ */
+class InstrumentedRegister implements INA219RegisterIF {
+    private final INA219RegisterIF register;
+    private final INA219Instrumentation instrumentation = new INA219Instrumentation();
+
+    /**
+     * Constructs a new InstrumentedRegister.
+     *
+     * @param register
+     *            The register interface to decorate.
+     */
+    InstrumentedRegister(final INA219RegisterIF register) {
+        this.register = register;
+    }
+
+    /**
+     * @return The instrumentation to which accesses are recorded.
+     */
+    INA219Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+        if (!instrumentation.isEnabled()) {
+            register.writeRegister(ra, value);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            register.writeRegister(ra, value);
+            failed = false;
+        } finally {
+            instrumentation.record(ra, true, start, failed);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readRegister(final RegisterAddress ra) throws IOException {
+        if (!instrumentation.isEnabled()) {
+            return register.readRegister(ra);
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            int value = register.readRegister(ra);
+            failed = false;
+            return value;
+        } finally {
+            instrumentation.record(ra, false, start, failed);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public short readSignedRegister(final RegisterAddress ra) throws IOException {
+        if (!instrumentation.isEnabled()) {
+            return register.readSignedRegister(ra);
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            short value = register.readSignedRegister(ra);
+            failed = false;
+            return value;
+        } finally {
+            instrumentation.record(ra, false, start, failed);
+        }
+    }
+}
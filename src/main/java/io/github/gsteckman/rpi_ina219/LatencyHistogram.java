@@ -0,0 +1,129 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * LatencyHistogram.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with log-linear buckets, in the manner of HdrHistogram: values below 32 ns are counted exactly, and each larger power of two
+ * is divided into 16 buckets, so a recorded value is reported within 1/16 of its true value. Values above about 18 minutes are counted in the last bucket.
+ * The histogram occupies a fixed 4.7 KB, and recording does not allocate or lock, so values may be recorded and read from any thread.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_VALUE_BITS = 40;
+    private static final int BUCKETS = index((1L << MAX_VALUE_BITS) - 1) + 1;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos
+     *            The duration in nanoseconds. Negative values are recorded as zero.
+     */
+    public void record(final long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(Math.min(v, (1L << MAX_VALUE_BITS) - 1)));
+        count.incrementAndGet();
+        total.addAndGet(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return The number of recorded durations.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The longest recorded duration in nanoseconds, or 0 if none was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The mean of the recorded durations in nanoseconds, or NaN if none was recorded.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? Double.NaN : (double) total.get() / n;
+    }
+
+    /**
+     * Returns the duration below or at which the given percentage of the recorded durations lie, as the highest value counted in the same bucket.
+     *
+     * @param percentile
+     *            The percentile, from 0 to 100.
+     * @return The duration in nanoseconds, or 0 if none was recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Discards all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    private static int index(final long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (v >>> shift);
+    }
+
+    private static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long sub = index - shift * HALF_SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * Measurement.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * An immutable set of values read from a single INA219 conversion.
+ */
+public final class Measurement {
+    private final long timestamp;
+    private final double shuntVoltage;
+    private final double busVoltage;
+    private final double power;
+    private final double current;
+    private final boolean overflow;
+    private final INA219.Pga pga;
+    private final long conversionTime;
+
+    /**
+     * Constructs a new Measurement.
+     *
+     * @param timestamp
+     *            Value of System.nanoTime() when the conversion was found to be ready.
+     * @param shuntVoltage
+     *            The shunt voltage, in Volts.
+     * @param busVoltage
+     *            The bus voltage, in Volts.
+     * @param power
+     *            The power, in Watts.
+     * @param current
+     *            The current, in Amps.
+     * @param overflow
+     *            True if the math overflow flag was set for this conversion.
+     * @param pga
+     *            The gain range the conversion was taken at.
+     * @param conversionTime
+     *            The conversion time, in nanoseconds, of the ADC settings the conversion was taken with.
+     */
+    Measurement(final long timestamp, final double shuntVoltage, final double busVoltage, final double power,
+            final double current, final boolean overflow, final INA219.Pga pga, final long conversionTime) {
+        this.timestamp = timestamp;
+        this.shuntVoltage = shuntVoltage;
+        this.busVoltage = busVoltage;
+        this.power = power;
+        this.current = current;
+        this.overflow = overflow;
+        this.pga = pga;
+        this.conversionTime = conversionTime;
+    }
+
+    /**
+     * @return The System.nanoTime() value at which the conversion was found to be ready.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The shunt voltage.
+     */
+    public double getShuntVoltage() {
+        return shuntVoltage;
+    }
+
+    /**
+     * @return The bus voltage.
+     */
+    public double getBusVoltage() {
+        return busVoltage;
+    }
+
+    /**
+     * @return The power value.
+     */
+    public double getPower() {
+        return power;
+    }
+
+    /**
+     * @return The current value.
+     */
+    public double getCurrent() {
+        return current;
+    }
+
+    /**
+     * Returns the state of the math overflow flag (OVF). When set, the power and current values are not valid.
+     *
+     * @return True if the overflow flag was set.
+     */
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return The gain range the conversion was taken at.
+     */
+    public INA219.Pga getPga() {
+        return pga;
+    }
+
+    /**
+     * Returns the conversion time of the ADC settings the conversion was taken with, which is the time span the values were averaged over.
+     *
+     * @return The conversion time in nanoseconds.
+     */
+    public long getConversionTime() {
+        return conversionTime;
+    }
+}
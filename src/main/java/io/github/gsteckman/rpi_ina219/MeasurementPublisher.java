@@ -0,0 +1,435 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * MeasurementPublisher.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A Flow.Publisher of the measurements of an INA219, in which the demand of the subscribers drives sampling. The device is read on a publisher thread only
+ * while at least one subscriber has requested more measurements than are buffered for it; when there is no outstanding demand, the device is not read.
+ * <p>
+ * Each subscription buffers up to a fixed number of measurements that were read for other subscribers but not yet requested by it. When its buffer is
+ * full, the overflow policy decides what is kept. Measurements are delivered to each subscriber by tasks run on the executor, one at a time, so any
+ * executor may be used, including one that runs each task on a virtual thread. The publisher and subscriptions use ReentrantLocks rather than monitors,
+ * so a virtual thread blocked on them does not pin its carrier thread.
+ * <p>
+ * A failed read, whether it fails with an IOException or a RuntimeException, is counted and retried after the conversion time, or RETRY_INTERVAL if
+ * that is longer. Failures are logged as the ContinuousSampler logs them: the first as a warning, and further ones at most once every WARN_INTERVAL.
+ */
+public class MeasurementPublisher implements Flow.Publisher<Measurement>, Closeable {
+    private static final Log LOG = LogFactory.getLog(MeasurementPublisher.class);
+    /** Minimum time between warnings of failed reads, in nanoseconds. */
+    static final long WARN_INTERVAL = 10000000000L;
+    /** Minimum time between a failed read and the next attempt, in nanoseconds. */
+    static final long RETRY_INTERVAL = 10000000L;
+    private final INA219Base device;
+    private final int bufferSize;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition demand = lock.newCondition();
+    private final long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile MeasurementSubscription[] subscriptions = new MeasurementSubscription[0];
+    private volatile long sampleCount;
+    private volatile long errorCount;
+    private boolean closed;
+    private Thread thread;
+    private long warnedAt;
+    private long unlogged = -1;
+
+    /**
+     * What a subscription keeps when a measurement arrives while its buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Discard the oldest buffered measurement. */
+        DROP_OLDEST,
+        /** Discard the arriving measurement. */
+        DROP_NEWEST,
+        /** Replace the newest buffered measurement with the arriving one. */
+        LATEST,
+        /**
+         * Merge the arriving measurement into the newest buffered one, which then holds the mean values of the merged measurements, the timestamp,
+         * range and conversion time of the latest, and the overflow flag if any of them overflowed.
+         */
+        AGGREGATE
+    }
+
+    /**
+     * Constructs a new MeasurementPublisher.
+     *
+     * @param device
+     *            The device to read. It must not be read by anything else while the publisher has subscribers.
+     * @param bufferSize
+     *            Number of measurements buffered for each subscriber.
+     * @param policy
+     *            What to keep when a subscriber's buffer is full.
+     * @param executor
+     *            Executor on which measurements are delivered to subscribers.
+     */
+    public MeasurementPublisher(final INA219Base device, final int bufferSize, final OverflowPolicy policy,
+            final Executor executor) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.device = device;
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes a subscriber. The publisher thread is started with the first subscription. If the publisher is closed, the subscriber is completed
+     * immediately.
+     *
+     * @param subscriber
+     *            The subscriber.
+     */
+    public void subscribe(final Flow.Subscriber<? super Measurement> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        MeasurementSubscription s = new MeasurementSubscription(subscriber);
+        subscriber.onSubscribe(s);
+        boolean complete;
+        lock.lock();
+        try {
+            complete = closed;
+            if (!closed && !s.cancelled) {
+                MeasurementSubscription[] a = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+                a[a.length - 1] = s;
+                subscriptions = a;
+                if (thread == null) {
+                    thread = new Thread(new Runnable() {
+                        public void run() {
+                            publish();
+                        }
+                    }, "INA219 publisher");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                demand.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (complete) {
+            s.complete();
+        }
+    }
+
+    /**
+     * Stops reading the device and completes all subscribers after their buffered measurements are delivered.
+     */
+    public void close() {
+        Thread t;
+        MeasurementSubscription[] a;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            t = thread;
+            a = subscriptions;
+            subscriptions = new MeasurementSubscription[0];
+            demand.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (MeasurementSubscription s : a) {
+            s.complete();
+        }
+    }
+
+    /**
+     * @return The number of measurements read from the device.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return The number of device reads that failed.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return The number of measurements discarded or merged by the overflow policy, over all subscriptions.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void publish() {
+        while (awaitDemand()) {
+            Measurement m;
+            try {
+                device.readSnapshot(sample, 0);
+                m = device.toMeasurement(sample, 0);
+                sampleCount++;
+            } catch (IOException e) {
+                failed("INA219 read failed", e);
+                LockSupport.parkNanos(Math.max(device.getConversionTime(), RETRY_INTERVAL));
+                continue;
+            } catch (RuntimeException e) {
+                failed("INA219 sample failed", e);
+                LockSupport.parkNanos(Math.max(device.getConversionTime(), RETRY_INTERVAL));
+                continue;
+            }
+            MeasurementSubscription[] a = subscriptions;
+            for (int i = 0; i < a.length; i++) {
+                a[i].offer(m);
+            }
+        }
+    }
+
+    private void failed(final String message, final Exception e) {
+        errorCount++;
+        long now = System.nanoTime();
+        if (unlogged < 0 || now - warnedAt >= WARN_INTERVAL) {
+            if (unlogged > 0) {
+                LOG.warn(message + ", " + unlogged + " failures not logged since the last warning", e);
+            } else {
+                LOG.warn(message, e);
+            }
+            warnedAt = now;
+            unlogged = 0;
+        } else {
+            unlogged++;
+            LOG.debug(message, e);
+        }
+    }
+
+    /**
+     * Waits until a subscriber wants more measurements than are buffered for it.
+     *
+     * @return True if there is demand, false if the publisher was closed.
+     */
+    private boolean awaitDemand() {
+        lock.lock();
+        try {
+            while (!closed) {
+                MeasurementSubscription[] a = subscriptions;
+                for (int i = 0; i < a.length; i++) {
+                    if (a[i].wantsMore()) {
+                        return true;
+                    }
+                }
+                demand.awaitUninterruptibly();
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalDemand() {
+        lock.lock();
+        try {
+            demand.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(final MeasurementSubscription s) {
+        lock.lock();
+        try {
+            MeasurementSubscription[] a = subscriptions;
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] == s) {
+                    MeasurementSubscription[] n = new MeasurementSubscription[a.length - 1];
+                    System.arraycopy(a, 0, n, 0, i);
+                    System.arraycopy(a, i + 1, n, i, n.length - i);
+                    subscriptions = n;
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The subscription of one subscriber, with its buffer and outstanding demand. Delivery is serialized by a work-in-progress counter: whoever raises it
+     * from zero submits a drain task, and the task keeps draining until no further work was signalled while it ran.
+     */
+    private final class MeasurementSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Measurement> subscriber;
+        private final ReentrantLock subscriptionLock = new ReentrantLock();
+        private final ArrayDeque<Measurement> queue = new ArrayDeque<Measurement>(bufferSize);
+        private final AtomicInteger wip = new AtomicInteger();
+        private long requested;
+        private int merged;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private Throwable error;
+
+        MeasurementSubscription(final Flow.Subscriber<? super Measurement> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(final long n) {
+            subscriptionLock.lock();
+            try {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Non-positive request: " + n);
+                } else {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                }
+            } finally {
+                subscriptionLock.unlock();
+            }
+            signalDemand();
+            drain();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+        }
+
+        boolean wantsMore() {
+            subscriptionLock.lock();
+            try {
+                return !cancelled && requested > queue.size();
+            } finally {
+                subscriptionLock.unlock();
+            }
+        }
+
+        void offer(final Measurement m) {
+            if (cancelled) {
+                return;
+            }
+            subscriptionLock.lock();
+            try {
+                if (queue.size() < bufferSize) {
+                    queue.addLast(m);
+                    merged = 1;
+                } else {
+                    dropped.incrementAndGet();
+                    switch (policy) {
+                    case DROP_OLDEST:
+                        queue.pollFirst();
+                        queue.addLast(m);
+                        merged = 1;
+                        break;
+                    case LATEST:
+                        queue.pollLast();
+                        queue.addLast(m);
+                        merged = 1;
+                        break;
+                    case AGGREGATE:
+                        queue.addLast(aggregate(queue.pollLast(), merged++, m));
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            } finally {
+                subscriptionLock.unlock();
+            }
+            drain();
+        }
+
+        void complete() {
+            completed = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        public void run() {
+            int missed = 1;
+            do {
+                while (!cancelled) {
+                    Measurement m = null;
+                    Throwable e;
+                    boolean done;
+                    subscriptionLock.lock();
+                    try {
+                        e = error;
+                        if (e == null && requested > 0) {
+                            m = queue.pollFirst();
+                            if (m != null) {
+                                requested--;
+                            }
+                        }
+                        done = completed && queue.isEmpty();
+                    } finally {
+                        subscriptionLock.unlock();
+                    }
+                    try {
+                        if (e != null) {
+                            cancel();
+                            subscriber.onError(e);
+                        } else if (m != null) {
+                            subscriber.onNext(m);
+                            continue;
+                        } else if (done) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                        }
+                    } catch (RuntimeException x) {
+                        cancel();
+                        LOG.error("Subscriber failed", x);
+                    }
+                    break;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    private static Measurement aggregate(final Measurement a, final int n, final Measurement b) {
+        return new Measurement(b.getTimestamp(), mean(a.getShuntVoltage(), n, b.getShuntVoltage()),
+                mean(a.getBusVoltage(), n, b.getBusVoltage()), mean(a.getPower(), n, b.getPower()),
+                mean(a.getCurrent(), n, b.getCurrent()), a.isOverflow() || b.isOverflow(), b.getPga(),
+                b.getConversionTime());
+    }
+
+    private static double mean(final double mean, final int n, final double x) {
+        return mean + (x - mean) / (n + 1);
+    }
+}
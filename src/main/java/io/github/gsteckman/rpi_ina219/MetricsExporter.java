@@ -0,0 +1,465 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * MetricsExporter.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the samples of a SampleRingBuffer over HTTP, from the JDK's built-in server, without ever reading the device: a scrape costs the same bus
+ * traffic, none, however many scrapers there are.
+ * <ul>
+ * <li><b>/metrics</b> returns the latest sample and, if attached, the windowed statistics and energy totals in the Prometheus text format. The response
+ * is rendered once per new sample and shared by all scrapes until the next one; a minimum render interval further bounds the rendering cost when
+ * sampling fast. Rendering reuses a text buffer and two byte buffers, alternating between them so that scrapes still writing the previous response
+ * are not disturbed; a byte buffer is only replaced if a scrape is still writing from it two renders later.</li>
+ * <li><b>/stream</b> returns every sample from the time of the request as CSV lines of timestamp, shunt voltage, bus voltage, current, power and
+ * overflow flag, or as InfluxDB line protocol with <code>?format=line</code>. Each stream reads the buffer with its own SampleConsumer, converts the
+ * samples with a BatchConverter into reusable buffers, and writes them in one chunk per 256 samples, flushed once per flush interval. A stream that
+ * falls behind by more than the buffer capacity skips the samples it missed.</li>
+ * </ul>
+ * Timestamps are given in nanoseconds since the epoch, from the System.nanoTime() stamps of the samples and the offset between the two clocks when the
+ * exporter was constructed. The server should be bound to the loopback address, as by the port-only constructor, since it has no authentication.
+ */
+public class MetricsExporter implements Closeable {
+    private static final Log LOG = LogFactory.getLog(MetricsExporter.class);
+    private static final String CSV_HEADER = "timestamp,shunt_voltage,bus_voltage,current,power,overflow\n";
+    private static final int STREAM_BATCH = 256;
+    private final INA219Base device;
+    private final SampleRingBuffer buffer;
+    private final BatchConverter converter;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long epochOffset;
+    private final Object renderLock = new Object();
+    private final StringBuilder text = new StringBuilder(4096);
+    private final long[] latest = new long[INA219Base.SNAPSHOT_LENGTH];
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicLong renderCount = new AtomicLong();
+    private final AtomicLong scrapeCount = new AtomicLong();
+    private volatile WindowedStatistics statistics;
+    private volatile EnergyAccumulator energy;
+    private volatile long renderInterval;
+    private volatile long flushInterval = 100000000L;
+    private volatile int maxStreams = 4;
+    private volatile boolean running;
+    private final byte[][] renderBuffers = new byte[2][];
+    private final int[] renderReaders = new int[2];
+    private int renderedBuffer = -1;
+    private int renderedLength;
+    private long renderedSequence = -2;
+    private long renderedTime;
+
+    /**
+     * Constructs a new MetricsExporter listening on a port of the loopback address. The exporter must be started to serve requests.
+     *
+     * @param device
+     *            The device the samples are read from, whose calibrations convert current and power. It is not read.
+     * @param buffer
+     *            The buffer of samples to export, normally that of a running ContinuousSampler.
+     * @param port
+     *            The port, or 0 for any free port.
+     * @throws IOException
+     *             If the port could not be bound.
+     */
+    public MetricsExporter(final INA219Base device, final SampleRingBuffer buffer, final int port) throws IOException {
+        this(device, buffer, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Constructs a new MetricsExporter listening on an address. The exporter must be started to serve requests.
+     *
+     * @param device
+     *            The device the samples are read from, whose calibrations convert current and power. It is not read.
+     * @param buffer
+     *            The buffer of samples to export, normally that of a running ContinuousSampler.
+     * @param address
+     *            The address to listen on.
+     * @throws IOException
+     *             If the address could not be bound.
+     */
+    public MetricsExporter(final INA219Base device, final SampleRingBuffer buffer, final InetSocketAddress address)
+            throws IOException {
+        this.device = device;
+        this.buffer = buffer;
+        converter = new BatchConverter(device);
+        epochOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+        server = HttpServer.create(address, 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "INA219 exporter " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                scrape(exchange);
+            }
+        });
+        server.createContext("/stream", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                stream(exchange);
+            }
+        });
+    }
+
+    /**
+     * Attaches the windowed statistics to export. They must be fed from the same samples, normally as a listener of the same ContinuousSampler.
+     *
+     * @param statistics
+     *            The statistics, or null to export none.
+     */
+    public void setStatistics(final WindowedStatistics statistics) {
+        this.statistics = statistics;
+        invalidate();
+    }
+
+    /**
+     * Attaches the energy totals to export. They must be fed from the same samples, normally as a listener of the same ContinuousSampler.
+     *
+     * @param energy
+     *            The accumulator, or null to export none.
+     */
+    public void setEnergyAccumulator(final EnergyAccumulator energy) {
+        this.energy = energy;
+        invalidate();
+    }
+
+    /**
+     * Sets the minimum time between renderings of the /metrics response. Scrapes within the interval are served the previous rendering even if newer
+     * samples exist.
+     *
+     * @param nanos
+     *            The interval in nanoseconds, or 0 to render once per new sample.
+     */
+    public void setRenderInterval(final long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Negative render interval: " + nanos);
+        }
+        renderInterval = nanos;
+    }
+
+    /**
+     * Sets the time between writes to each stream. All samples taken during the interval are written together.
+     *
+     * @param nanos
+     *            The interval in nanoseconds.
+     */
+    public void setFlushInterval(final long nanos) {
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("Invalid flush interval: " + nanos);
+        }
+        flushInterval = nanos;
+    }
+
+    /**
+     * Sets the number of streams served at once. Further stream requests are refused with status 503.
+     *
+     * @param max
+     *            The maximum number of streams.
+     */
+    public void setMaxStreams(final int max) {
+        maxStreams = max;
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        running = true;
+        server.start();
+    }
+
+    /**
+     * Stops serving requests and ends all streams.
+     */
+    public void close() {
+        running = false;
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The address the server is listening on.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @return The number of /metrics requests served.
+     */
+    public long getScrapeCount() {
+        return scrapeCount.get();
+    }
+
+    /**
+     * @return The number of times the /metrics response was rendered.
+     */
+    public long getRenderCount() {
+        return renderCount.get();
+    }
+
+    private void invalidate() {
+        synchronized (renderLock) {
+            renderedSequence = -2;
+        }
+    }
+
+    private void scrape(final HttpExchange exchange) throws IOException {
+        scrapeCount.incrementAndGet();
+        int slot;
+        byte[] body;
+        int length;
+        synchronized (renderLock) {
+            long sequence = buffer.getCursor();
+            long now = System.nanoTime();
+            if (sequence != renderedSequence && (renderedBuffer < 0 || now - renderedTime >= renderInterval)) {
+                int spare = renderedBuffer < 0 ? 0 : 1 - renderedBuffer;
+                if (renderReaders[spare] > 0) {
+                    // a slow scrape is still writing from it; leave that array to it
+                    renderBuffers[spare] = null;
+                    renderReaders[spare] = 0;
+                }
+                renderBuffers[spare] = render(sequence, renderBuffers[spare]);
+                renderedLength = text.length();
+                renderedBuffer = spare;
+                renderedSequence = sequence;
+                renderedTime = now;
+                renderCount.incrementAndGet();
+            }
+            slot = renderedBuffer;
+            body = renderBuffers[slot];
+            length = renderedLength;
+            renderReaders[slot]++;
+        }
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body, 0, length);
+            out.close();
+        } finally {
+            exchange.close();
+            synchronized (renderLock) {
+                if (renderBuffers[slot] == body) {
+                    renderReaders[slot]--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the /metrics response into the reusable text buffer and copies it into a byte buffer. Called with the render lock held.
+     *
+     * @param sequence
+     *            The sequence number of the latest sample, or -1 if there is none.
+     * @param dest
+     *            The byte buffer to reuse, or null to allocate one.
+     * @return The byte buffer holding the response, dest unless it was null or too small.
+     */
+    private byte[] render(final long sequence, final byte[] dest) {
+        StringBuilder b = text;
+        b.setLength(0);
+        header(b, "ina219_samples_total", "counter", "Samples taken.");
+        b.append("ina219_samples_total ").append(sequence + 1).append('\n');
+        if (sequence >= 0 && buffer.get(sequence, latest, 0)) {
+            long bus = latest[INA219Base.SNAPSHOT_BUS_VOLTAGE];
+            long range = latest[INA219Base.SNAPSHOT_RANGE];
+            gauge(b, "ina219_shunt_voltage_volts", "Shunt voltage of the latest sample.",
+                    INA219Base.toShuntVoltage(latest[INA219Base.SNAPSHOT_SHUNT_VOLTAGE]));
+            gauge(b, "ina219_bus_voltage_volts", "Bus voltage of the latest sample.", INA219Base.toBusVoltage(bus));
+            gauge(b, "ina219_current_amperes", "Current of the latest sample.",
+                    device.toCurrent(latest[INA219Base.SNAPSHOT_CURRENT], range));
+            gauge(b, "ina219_power_watts", "Power of the latest sample.",
+                    device.toPower(latest[INA219Base.SNAPSHOT_POWER], range));
+            gauge(b, "ina219_overflow", "1 if the latest sample overflowed.", INA219Base.isOverflow(bus) ? 1 : 0);
+            gauge(b, "ina219_range", "Gain range of the latest sample, as the INA219.Pga value.", range);
+            gauge(b, "ina219_sample_timestamp_seconds", "Time of the latest sample since the epoch.",
+                    (latest[INA219Base.SNAPSHOT_TIMESTAMP] + epochOffset) / 1e9);
+        }
+        WindowedStatistics s = statistics;
+        if (s != null) {
+            header(b, "ina219_window", "gauge", "Statistics of each channel over the sliding and tumbling windows.");
+            for (Channel c : Channel.values()) {
+                ChannelStatistics cs = s.get(c);
+                summary(b, c, "sliding", cs.getSliding());
+                summary(b, c, "tumbling", cs.getTumbling());
+            }
+        }
+        EnergyAccumulator e = energy;
+        if (e != null) {
+            EnergyAccumulator.Snapshot t = e.getSnapshot();
+            counter(b, "ina219_energy_watt_hours_total", "Energy since the last reset.", t.getWattHours());
+            gauge(b, "ina219_charge_amp_hours", "Charge since the last reset.", t.getAmpHours());
+            counter(b, "ina219_integrated_seconds_total", "Time integrated since the last reset.",
+                    t.getDuration() / 1e9);
+            counter(b, "ina219_gaps_total", "Intervals not integrated since the last reset.", t.getGapCount());
+        }
+        return ascii(b, dest == null ? new byte[b.length()] : dest);
+    }
+
+    private static void summary(final StringBuilder b, final Channel c, final String window,
+            final ChannelStatistics.Summary s) {
+        if (s == null) {
+            return;
+        }
+        stat(b, c, window, "count", s.getCount());
+        stat(b, c, window, "min", s.getMin());
+        stat(b, c, window, "max", s.getMax());
+        stat(b, c, window, "mean", s.getMean());
+        stat(b, c, window, "variance", s.getVariance());
+        stat(b, c, window, "rms", s.getRms());
+        if (!Double.isNaN(s.getP50())) {
+            stat(b, c, window, "p50", s.getP50());
+            stat(b, c, window, "p99", s.getP99());
+            stat(b, c, window, "p999", s.getP999());
+        }
+    }
+
+    private static void stat(final StringBuilder b, final Channel c, final String window, final String stat,
+            final double v) {
+        b.append("ina219_window{channel=\"").append(c.name().toLowerCase(Locale.ROOT)).append("\",window=\"")
+                .append(window).append("\",stat=\"").append(stat).append("\"} ");
+        value(b, v).append('\n');
+    }
+
+    private static void header(final StringBuilder b, final String name, final String type, final String help) {
+        b.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        b.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(final StringBuilder b, final String name, final String help, final double v) {
+        header(b, name, "counter", help);
+        value(b.append(name).append(' '), v).append('\n');
+    }
+
+    private static void gauge(final StringBuilder b, final String name, final String help, final double v) {
+        header(b, name, "gauge", help);
+        value(b.append(name).append(' '), v).append('\n');
+    }
+
+    private static StringBuilder value(final StringBuilder b, final double v) {
+        if (Double.isInfinite(v)) {
+            return b.append(v > 0 ? "+Inf" : "-Inf");
+        }
+        return b.append(v);
+    }
+
+    /**
+     * Copies ASCII text into a byte array, allocating a larger array only if the text does not fit.
+     */
+    private static byte[] ascii(final CharSequence s, final byte[] dest) {
+        int n = s.length();
+        byte[] d = dest.length >= n ? dest : new byte[Math.max(n, dest.length * 2)];
+        for (int i = 0; i < n; i++) {
+            d[i] = (byte) s.charAt(i);
+        }
+        return d;
+    }
+
+    private void stream(final HttpExchange exchange) throws IOException {
+        if (streams.incrementAndGet() > maxStreams) {
+            streams.decrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        try {
+            String query = exchange.getRequestURI().getQuery();
+            boolean lineProtocol = query != null && query.contains("format=line");
+            exchange.getResponseHeaders().set("Content-Type", lineProtocol ? "text/plain" : "text/csv");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            SampleConsumer consumer = new SampleConsumer(buffer, SampleConsumer.WaitStrategy.PARK);
+            long[] block = new long[STREAM_BATCH * INA219Base.SNAPSHOT_LENGTH];
+            double[] shunt = new double[STREAM_BATCH];
+            double[] bus = new double[STREAM_BATCH];
+            double[] current = new double[STREAM_BATCH];
+            double[] power = new double[STREAM_BATCH];
+            StringBuilder b = new StringBuilder(STREAM_BATCH * 64);
+            byte[] bytes = new byte[b.capacity()];
+            if (!lineProtocol) {
+                bytes = ascii(CSV_HEADER, bytes);
+                out.write(bytes, 0, CSV_HEADER.length());
+                out.flush();
+            }
+            while (running && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(flushInterval);
+                boolean written = false;
+                int n;
+                do {
+                    n = consumer.drain(block, 0, STREAM_BATCH);
+                    b.setLength(0);
+                    converter.convert(block, 0, n, shunt, bus, current, power, 0);
+                    for (int k = 0; k < n; k++) {
+                        int o = k * INA219Base.SNAPSHOT_LENGTH;
+                        long time = block[o + INA219Base.SNAPSHOT_TIMESTAMP] + epochOffset;
+                        boolean overflow = INA219Base.isOverflow(block[o + INA219Base.SNAPSHOT_BUS_VOLTAGE]);
+                        if (lineProtocol) {
+                            b.append("ina219 shunt_voltage=").append(shunt[k]).append(",bus_voltage=").append(bus[k])
+                                    .append(",current=").append(current[k]).append(",power=").append(power[k])
+                                    .append(",overflow=").append(overflow).append(' ').append(time).append('\n');
+                        } else {
+                            b.append(time).append(',').append(shunt[k]).append(',').append(bus[k]).append(',')
+                                    .append(current[k]).append(',').append(power[k]).append(',')
+                                    .append(overflow ? 1 : 0).append('\n');
+                        }
+                    }
+                    if (n > 0) {
+                        bytes = ascii(b, bytes);
+                        out.write(bytes, 0, b.length());
+                        written = true;
+                    }
+                } while (n == STREAM_BATCH);
+                if (written) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            LOG.debug("Stream closed by client", e);
+        } finally {
+            streams.decrementAndGet();
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * P2Quantile.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Streaming estimate of a single quantile using the P-square algorithm of Jain and Chlamtac, which keeps five markers regardless of the number of
+ * observations. Each observation is processed in constant time without allocation.
+ */
+class P2Quantile {
+    private final double p;
+    private final double[] q = new double[5];
+    private final int[] n = new int[5];
+    private final double[] desired = new double[5];
+    private final double[] increment;
+    private final double[] scratch = new double[5];
+    private int count;
+
+    /**
+     * Constructs a new P2Quantile.
+     *
+     * @param p
+     *            The quantile to estimate, between 0 and 1.
+     */
+    P2Quantile(final double p) {
+        if (!(p > 0 && p < 1)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + p);
+        }
+        this.p = p;
+        increment = new double[] { 0, p / 2, p, (1 + p) / 2, 1 };
+    }
+
+    /**
+     * Adds an observation.
+     *
+     * @param x
+     *            The observed value.
+     */
+    void add(final double x) {
+        if (count < 5) {
+            q[count++] = x;
+            if (count == 5) {
+                insertionSort(q, 5);
+                for (int i = 0; i < 5; i++) {
+                    n[i] = i;
+                }
+                desired[0] = 0;
+                desired[1] = 2 * p;
+                desired[2] = 4 * p;
+                desired[3] = 2 + 2 * p;
+                desired[4] = 4;
+            }
+            return;
+        }
+        int k;
+        if (x < q[0]) {
+            q[0] = x;
+            k = 0;
+        } else if (x >= q[4]) {
+            q[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (x >= q[k + 1]) {
+                k++;
+            }
+        }
+        for (int i = k + 1; i < 5; i++) {
+            n[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            desired[i] += increment[i];
+        }
+        for (int i = 1; i < 4; i++) {
+            double d = desired[i] - n[i];
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                int s = d > 0 ? 1 : -1;
+                double qp = parabolic(i, s);
+                if (q[i - 1] < qp && qp < q[i + 1]) {
+                    q[i] = qp;
+                } else {
+                    q[i] = q[i] + s * (q[i + s] - q[i]) / (n[i + s] - n[i]);
+                }
+                n[i] += s;
+            }
+        }
+        count++;
+    }
+
+    /**
+     * @return The estimated quantile, or NaN if there have been no observations.
+     */
+    double get() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count < 5) {
+            System.arraycopy(q, 0, scratch, 0, count);
+            insertionSort(scratch, count);
+            return scratch[(int) Math.round((count - 1) * p)];
+        }
+        return q[2];
+    }
+
+    /**
+     * @return The number of observations.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Discards all observations.
+     */
+    void reset() {
+        count = 0;
+    }
+
+    private double parabolic(final int i, final int d) {
+        return q[i] + (double) d / (n[i + 1] - n[i - 1])
+                * ((n[i] - n[i - 1] + d) * (q[i + 1] - q[i]) / (n[i + 1] - n[i])
+                        + (n[i + 1] - n[i] - d) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+    }
+
+    private static void insertionSort(final double[] a, final int length) {
+        for (int i = 1; i < length; i++) {
+            double v = a[i];
+            int j = i - 1;
+            while (j >= 0 && a[j] > v) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+}
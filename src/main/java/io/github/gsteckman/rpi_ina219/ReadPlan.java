@@ -0,0 +1,217 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ReadPlan.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The smallest set of measurement registers to read each sample for the channels a use needs, with the remaining values derived on the host. The INA219
+ * computes its current register as the shunt voltage register times the calibration divided by 4096, and its power register as that current times the
+ * bus voltage register (without its flags) divided by 5000, truncating each quotient. A plan reproduces this arithmetic exactly, so a derived register
+ * holds the same bits the device would have returned, and derives the math overflow flag from the shunt voltage when the bus voltage register is not
+ * read. The overflow flag is always available, so every plan reads at least one register.
+ * <p>
+ * Only reading the power register clears the conversion ready flag. A plan that waits for conversion ready therefore reads the bus voltage and power
+ * registers; otherwise the registers are read immediately, and the caller must pace reads by the conversion time, as ContinuousSampler does, to avoid
+ * reading the same conversion twice. Values of channels that are neither read nor derived are stored as 0 in the snapshot.
+ */
+public final class ReadPlan {
+    static final int SHUNT = 1;
+    static final int BUS = 2;
+    static final int POWER = 4;
+    static final int CURRENT = 8;
+    private static final int BUS_VOLTAGE_OVF = 0x1;
+    private final EnumSet<Channel> channels;
+    private final boolean awaitConversion;
+    private final int registers;
+
+    /**
+     * Constructs the plan with the fewest register reads for a set of channels.
+     *
+     * @param awaitConversion
+     *            True to wait for the conversion ready flag before reading, which adds the bus voltage and power registers to the plan.
+     * @param channels
+     *            The channels needed.
+     */
+    public ReadPlan(final boolean awaitConversion, final Channel... channels) {
+        this.channels = EnumSet.noneOf(Channel.class);
+        for (Channel c : channels) {
+            this.channels.add(c);
+        }
+        this.awaitConversion = awaitConversion;
+        int best = -1;
+        for (int r = 1; r < 16; r++) {
+            if (provides(r) && (best < 0 || cost(r) < cost(best))) {
+                best = r;
+            }
+        }
+        registers = best;
+    }
+
+    /**
+     * @return The channels the plan provides.
+     */
+    public Set<Channel> getChannels() {
+        return EnumSet.copyOf(channels);
+    }
+
+    /**
+     * @return True if reads wait for the conversion ready flag.
+     */
+    public boolean isAwaitConversion() {
+        return awaitConversion;
+    }
+
+    /**
+     * @return The registers read each sample.
+     */
+    public Set<RegisterAddress> getRegisters() {
+        Set<RegisterAddress> s = EnumSet.noneOf(RegisterAddress.class);
+        if (reads(SHUNT)) {
+            s.add(RegisterAddress.SHUNT_VOLTAGE);
+        }
+        if (reads(BUS)) {
+            s.add(RegisterAddress.BUS_VOLTAGE);
+        }
+        if (reads(POWER)) {
+            s.add(RegisterAddress.POWER);
+        }
+        if (reads(CURRENT)) {
+            s.add(RegisterAddress.CURRENT);
+        }
+        return s;
+    }
+
+    /**
+     * @return The number of register reads per sample, not counting repeated polls of the conversion ready flag.
+     */
+    public int getReadCount() {
+        return Integer.bitCount(registers);
+    }
+
+    /**
+     * @return A description of the plan.
+     */
+    @Override
+    public String toString() {
+        return channels + " <- " + getRegisters() + (awaitConversion ? " awaiting conversion" : "");
+    }
+
+    boolean reads(final int register) {
+        return (registers & register) != 0;
+    }
+
+    /**
+     * Computes the current register from the shunt voltage register, as the INA219 does.
+     *
+     * @param shunt
+     *            The shunt voltage register value.
+     * @param calibration
+     *            The calibration register value.
+     * @return The current register value.
+     */
+    static short deriveCurrent(final long shunt, final int calibration) {
+        return (short) ((shunt * (calibration & 0xFFFE)) / 4096);
+    }
+
+    /**
+     * Computes the power register from the shunt and bus voltage registers, as the INA219 does.
+     *
+     * @param shunt
+     *            The shunt voltage register value.
+     * @param calibration
+     *            The calibration register value.
+     * @param bus
+     *            The bus voltage register value, including its flags.
+     * @return The unsigned power register value.
+     */
+    static int derivePower(final long shunt, final int calibration, final int bus) {
+        long current = (shunt * (calibration & 0xFFFE)) / 4096;
+        return (int) ((current * ((bus & 0xFFFF) >> 3)) / 5000) & 0xFFFF;
+    }
+
+    /**
+     * Computes the math overflow flag from the shunt voltage register, as the INA219 does: the shunt voltage is beyond the full scale of the gain range
+     * or the current overflows its register.
+     *
+     * @param shunt
+     *            The shunt voltage register value.
+     * @param calibration
+     *            The calibration register value.
+     * @param range
+     *            The gain range, as the value of the INA219.Pga setting.
+     * @return The overflow flag in its position in the bus voltage register.
+     */
+    static int deriveOverflow(final long shunt, final int calibration, final int range) {
+        long fullScale = 4000 << range;
+        long current = (shunt * (calibration & 0xFFFE)) / 4096;
+        boolean overflow = shunt > fullScale || shunt < -fullScale || current > Short.MAX_VALUE
+                || current < Short.MIN_VALUE;
+        return overflow ? BUS_VOLTAGE_OVF : 0;
+    }
+
+    /**
+     * Returns whether a set of registers provides the channels and the overflow flag, and allows waiting for conversion ready.
+     */
+    private boolean provides(final int r) {
+        boolean shunt = (r & SHUNT) != 0;
+        boolean bus = (r & BUS) != 0;
+        if (awaitConversion && (!bus || (r & POWER) == 0)) {
+            return false;
+        }
+        if (!bus && !shunt) {
+            return false; // no overflow flag
+        }
+        for (Channel c : channels) {
+            switch (c) {
+            case SHUNT_VOLTAGE:
+                if (!shunt) {
+                    return false;
+                }
+                break;
+            case BUS_VOLTAGE:
+                if (!bus) {
+                    return false;
+                }
+                break;
+            case CURRENT:
+                if (!shunt && (r & CURRENT) == 0) {
+                    return false;
+                }
+                break;
+            default:
+                if ((r & POWER) == 0 && !(shunt && bus)) {
+                    return false;
+                }
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Orders register sets by the number of reads, then by the number of values, including the overflow flag, derived rather than read.
+     */
+    private int cost(final int r) {
+        int derived = (r & BUS) == 0 ? 1 : 0;
+        for (Channel c : channels) {
+            if ((c == Channel.CURRENT && (r & CURRENT) == 0) || (c == Channel.POWER && (r & POWER) == 0)) {
+                derived++;
+            }
+        }
+        return Integer.bitCount(r) * 8 + derived;
+    }
+}
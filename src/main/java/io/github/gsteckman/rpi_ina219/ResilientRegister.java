@@ -0,0 +1,306 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ResilientRegister.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An INA219RegisterIF decorator that bounds the time a failing device can take from its caller and from the bus.
+ * <ul>
+ * <li>A failed register access is retried up to a number of times, after a backoff that doubles with each retry and is drawn at random from its upper
+ * half, so that devices failing together do not retry in lockstep.</li>
+ * <li>A deadline bounds the time spent on one call including its retries: a retry whose backoff would end past the deadline is not made. A call is
+ * the accesses made between begin and end on one thread, or a single access made outside of them. An access already on the bus cannot be aborted, so
+ * the deadline can be exceeded by at most one transaction.</li>
+ * <li>A circuit breaker opens after a number of consecutive failed accesses. While open, accesses fail immediately without using the bus. Once the open
+ * time has passed, the next access first rewrites the configuration and calibration registers, since a device that went away has usually been power
+ * cycled; if that succeeds the breaker closes and the access proceeds, otherwise the breaker stays open for another open time.</li>
+ * </ul>
+ * All three are disabled initially, so that accesses are passed through unchanged until configured.
+ */
+class ResilientRegister implements INA219RegisterIF {
+    private static final Log LOG = LogFactory.getLog(ResilientRegister.class);
+    private static final int WRITE = 0;
+    private static final int READ = 1;
+    private static final int READ_SIGNED = 2;
+    private final INA219RegisterIF register;
+    private final ThreadLocal<Call> calls = new ThreadLocal<Call>() {
+        protected Call initialValue() {
+            return new Call();
+        }
+    };
+    private int retries;
+    private long backoff;
+    private long deadline;
+    private int failureThreshold;
+    private long openTime;
+    private int consecutiveFailures;
+    private boolean open;
+    private long openedAt;
+    private int configuration = -1;
+    private int calibration = -1;
+    private long retryCount;
+    private long rejectedCount;
+    private long recoveryCount;
+
+    /**
+     * Constructs a new ResilientRegister.
+     *
+     * @param register
+     *            The register interface to decorate.
+     */
+    ResilientRegister(final INA219RegisterIF register) {
+        this.register = register;
+    }
+
+    /**
+     * @return The decorated register interface.
+     */
+    INA219RegisterIF getRegister() {
+        return register;
+    }
+
+    /**
+     * Sets how failed accesses are retried.
+     *
+     * @param retries
+     *            Maximum number of retries of an access, or 0 to disable retries.
+     * @param backoff
+     *            Upper bound in nanoseconds of the wait before the first retry. It doubles with each further retry.
+     */
+    synchronized void setRetries(final int retries, final long backoff) {
+        if (retries < 0 || backoff < 0) {
+            throw new IllegalArgumentException("Invalid retries: " + retries + ", " + backoff);
+        }
+        this.retries = retries;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Sets the deadline of an access.
+     *
+     * @param nanos
+     *            Time in nanoseconds after which a failed access is not retried, or 0 for no deadline.
+     */
+    synchronized void setDeadline(final long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Negative deadline: " + nanos);
+        }
+        deadline = nanos;
+    }
+
+    /**
+     * Configures the circuit breaker.
+     *
+     * @param failures
+     *            Number of consecutive failed accesses that opens the breaker, or 0 to disable the breaker.
+     * @param openTime
+     *            Time in nanoseconds the breaker stays open before the device is tried again.
+     */
+    synchronized void setCircuitBreaker(final int failures, final long openTime) {
+        if (failures < 0 || openTime < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker: " + failures + ", " + openTime);
+        }
+        failureThreshold = failures;
+        this.openTime = openTime;
+        if (failures == 0) {
+            open = false;
+        }
+    }
+
+    /**
+     * @return True if the circuit breaker is open.
+     */
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return The number of retries made.
+     */
+    synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return The number of accesses failed without using the bus because the breaker was open.
+     */
+    synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return The number of times the device was reinitialized and the breaker closed.
+     */
+    synchronized long getRecoveryCount() {
+        return recoveryCount;
+    }
+
+    /**
+     * Begins a call on the current thread, so that its accesses share one deadline. Calls may be nested; the deadline runs from the start of the
+     * outermost one.
+     *
+     * @param retry
+     *            False if failed accesses of the call are not to be retried in line, because the caller retries the whole call later.
+     */
+    void begin(final boolean retry) {
+        Call call = calls.get();
+        if (call.depth++ == 0) {
+            call.start = System.nanoTime();
+            call.retry = retry;
+        }
+    }
+
+    /**
+     * Ends the call begun by the matching begin.
+     */
+    void end() {
+        calls.get().depth--;
+    }
+
+    /**
+     * Returns the wait before retrying a failed call, and counts the retry.
+     *
+     * @param attempt
+     *            Number of retries of the call already made.
+     * @param start
+     *            The System.nanoTime() value at which the call was first made.
+     * @return The wait in nanoseconds, or -1 if the retries are used up or the retry would end past the deadline.
+     */
+    synchronized long retryDelay(final int attempt, final long start) {
+        if (attempt >= retries) {
+            return -1;
+        }
+        long wait = backoff << Math.min(attempt, 30);
+        wait -= ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+        if (deadline != 0 && System.nanoTime() + wait - start > deadline) {
+            return -1;
+        }
+        retryCount++;
+        return wait;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+        access(WRITE, ra, value);
+        if (ra == RegisterAddress.CONFIGURATION) {
+            configuration = (value & 0x8000) != 0 ? -1 : value;
+        } else if (ra == RegisterAddress.CALIBRATION) {
+            calibration = value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int readRegister(final RegisterAddress ra) throws IOException {
+        return access(READ, ra, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized short readSignedRegister(final RegisterAddress ra) throws IOException {
+        return (short) access(READ_SIGNED, ra, 0);
+    }
+
+    private int access(final int operation, final RegisterAddress ra, final int value) throws IOException {
+        long now = System.nanoTime();
+        if (open) {
+            if (now - openedAt < openTime) {
+                rejectedCount++;
+                throw new IOException("INA219 circuit breaker open, " + ra + " not accessed");
+            }
+            recover(now);
+        }
+        Call call = calls.get();
+        long start = call.depth != 0 ? call.start : now;
+        boolean retry = call.depth == 0 || call.retry;
+        int attempt = 0;
+        while (true) {
+            try {
+                int result = attempt(operation, ra, value);
+                consecutiveFailures = 0;
+                return result;
+            } catch (IOException e) {
+                long wait = retry ? retryDelay(attempt, start) : -1;
+                if (wait < 0) {
+                    fail();
+                    throw e;
+                }
+                attempt++;
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private int attempt(final int operation, final RegisterAddress ra, final int value) throws IOException {
+        switch (operation) {
+        case WRITE:
+            register.writeRegister(ra, value);
+            return 0;
+        case READ:
+            return register.readRegister(ra);
+        default:
+            return register.readSignedRegister(ra);
+        }
+    }
+
+    private void fail() {
+        consecutiveFailures++;
+        if (failureThreshold != 0 && consecutiveFailures >= failureThreshold && !open) {
+            open = true;
+            openedAt = System.nanoTime();
+            LOG.warn("INA219 failed " + consecutiveFailures + " times in a row, circuit breaker opened");
+        }
+    }
+
+    /**
+     * Rewrites the configuration and calibration registers after the open time, and closes the breaker if that succeeds.
+     */
+    private void recover(final long now) throws IOException {
+        try {
+            if (configuration >= 0) {
+                register.writeRegister(RegisterAddress.CONFIGURATION, configuration);
+            }
+            if (calibration >= 0) {
+                register.writeRegister(RegisterAddress.CALIBRATION, calibration);
+            }
+        } catch (IOException e) {
+            openedAt = now;
+            throw e;
+        }
+        open = false;
+        consecutiveFailures = 0;
+        recoveryCount++;
+        LOG.info("INA219 recovered, configuration and calibration rewritten, circuit breaker closed");
+    }
+
+    /**
+     * The call in progress on one thread.
+     */
+    private static final class Call {
+        int depth;
+        long start;
+        boolean retry;
+    }
+}
@@ -0,0 +1,335 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * RollupStore.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A time series store of the samples delivered to it, pre-aggregated into per-second, per-minute and per-hour buckets. Each tier keeps the minimum,
+ * maximum and mean of one channel and the energy of each bucket in fixed-size rings of primitive arrays, so memory use is fixed at construction no
+ * matter how long the system runs; the oldest buckets of a tier are overwritten as new ones begin. Every sample updates all three tiers directly, so a
+ * coarse bucket holds exactly the same values as the fine buckets it spans would.
+ * <p>
+ * Buckets are aligned to multiples of their length in the time base of the sample timestamps, System.nanoTime(), and queries use the same time base.
+ * Energy is integrated from the power with the trapezoidal rule and each interval is counted in the bucket of the sample that ends it. Intervals longer
+ * than the maximum gap, or ending or starting at a sample with the overflow flag set, are not integrated, and overflowed samples are excluded from the
+ * statistics of the current and power channels. Samples must be delivered by a single thread, normally the sampling thread; queries may be made from
+ * any thread.
+ */
+public class RollupStore implements SampleListener {
+    private final Channel channel;
+    private final TrapezoidIntegral integral;
+    private final Tier[] tiers;
+    private long lastTimestamp;
+
+    /**
+     * The bucket lengths of the tiers.
+     */
+    public enum Resolution {
+        /** One second buckets. */
+        SECOND(1_000_000_000L),
+        /** One minute buckets. */
+        MINUTE(60_000_000_000L),
+        /** One hour buckets. */
+        HOUR(3_600_000_000_000L);
+
+        private final long period;
+
+        Resolution(final long period) {
+            this.period = period;
+        }
+
+        /**
+         * @return The length of a bucket in nanoseconds.
+         */
+        public long getPeriod() {
+            return period;
+        }
+    }
+
+    /**
+     * The ring of buckets of one resolution. A slot holds the bucket whose index, the bucket start divided by the period, is stored in index[slot].
+     */
+    private static final class Tier {
+        final Resolution resolution;
+        final long period;
+        final long[] index;
+        final long[] count;
+        final double[] min;
+        final double[] max;
+        final double[] sum;
+        final double[] energy;
+        long newest = Long.MIN_VALUE;
+
+        Tier(final Resolution resolution, final int slots) {
+            if (slots < 1) {
+                throw new IllegalArgumentException("Number of " + resolution + " buckets must be positive: " + slots);
+            }
+            this.resolution = resolution;
+            period = resolution.getPeriod();
+            index = new long[slots];
+            count = new long[slots];
+            min = new double[slots];
+            max = new double[slots];
+            sum = new double[slots];
+            energy = new double[slots];
+            Arrays.fill(index, Long.MIN_VALUE);
+        }
+
+        /**
+         * Returns the slot of the bucket holding a timestamp, starting a new bucket in it if needed.
+         *
+         * @return The slot, or -1 if the bucket has already been overwritten.
+         */
+        int slot(final long timestamp) {
+            long i = Math.floorDiv(timestamp, period);
+            int s = (int) Math.floorMod(i, (long) index.length);
+            if (index[s] != i) {
+                if (index[s] > i) {
+                    return -1;
+                }
+                index[s] = i;
+                count[s] = 0;
+                min[s] = Double.POSITIVE_INFINITY;
+                max[s] = Double.NEGATIVE_INFINITY;
+                sum[s] = 0;
+                energy[s] = 0;
+                newest = Math.max(newest, i);
+            }
+            return s;
+        }
+
+        boolean retains(final long timestamp) {
+            return newest != Long.MIN_VALUE && Math.floorDiv(timestamp, period) > newest - index.length;
+        }
+    }
+
+    /**
+     * Constructs a new RollupStore that keeps the last hour of seconds, the last day of minutes and the last 31 days of hours, in about 280 kB. Each
+     * tier keeps one bucket more than its span, since a span that does not start on a bucket boundary touches a partial bucket at its start, so that
+     * for example the last 24 hours are returned as at most 1441 minute buckets.
+     *
+     * @param channel
+     *            The channel whose minimum, maximum and mean are kept.
+     * @param maxGap
+     *            The longest interval between two samples, in nanoseconds, over which energy is integrated.
+     */
+    public RollupStore(final Channel channel, final long maxGap) {
+        this(channel, maxGap, 3601, 1441, 745);
+    }
+
+    /**
+     * Constructs a new RollupStore. Each bucket takes 48 bytes.
+     *
+     * @param channel
+     *            The channel whose minimum, maximum and mean are kept.
+     * @param maxGap
+     *            The longest interval between two samples, in nanoseconds, over which energy is integrated.
+     * @param seconds
+     *            Number of one second buckets kept.
+     * @param minutes
+     *            Number of one minute buckets kept.
+     * @param hours
+     *            Number of one hour buckets kept.
+     */
+    public RollupStore(final Channel channel, final long maxGap, final int seconds, final int minutes,
+            final int hours) {
+        this.channel = channel;
+        integral = new TrapezoidIntegral(maxGap);
+        tiers = new Tier[] { new Tier(Resolution.SECOND, seconds), new Tier(Resolution.MINUTE, minutes),
+                new Tier(Resolution.HOUR, hours) };
+    }
+
+    /**
+     * @return The channel whose minimum, maximum and mean are kept.
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void sample(final long timestamp, final double shuntVoltage, final double busVoltage,
+            final double current, final double power, final boolean overflow) {
+        double value;
+        switch (channel) {
+        case SHUNT_VOLTAGE:
+            value = shuntVoltage;
+            break;
+        case BUS_VOLTAGE:
+            value = busVoltage;
+            break;
+        case CURRENT:
+            value = current;
+            break;
+        default:
+            value = power;
+            break;
+        }
+        boolean valid = !overflow || channel == Channel.SHUNT_VOLTAGE || channel == Channel.BUS_VOLTAGE;
+        double e = integral.add(timestamp, power, overflow);
+        lastTimestamp = timestamp;
+        for (int t = 0; t < tiers.length; t++) {
+            Tier tier = tiers[t];
+            int s = tier.slot(timestamp);
+            if (s < 0) {
+                continue;
+            }
+            if (valid) {
+                tier.count[s]++;
+                tier.sum[s] += value;
+                if (value < tier.min[s]) {
+                    tier.min[s] = value;
+                }
+                if (value > tier.max[s]) {
+                    tier.max[s] = value;
+                }
+            }
+            tier.energy[s] += e;
+        }
+    }
+
+    /**
+     * Returns the buckets holding samples in a time range. The tier is chosen to return as few buckets as possible without being coarser than the
+     * requested resolution: the coarsest tier no coarser than the resolution that still retains the start of the range, or if none does, the finest
+     * tier that retains it. If no tier retains the start, the hour tier is used and only its retained buckets are returned.
+     *
+     * @param from
+     *            Start of the range, inclusive, as a System.nanoTime() value.
+     * @param to
+     *            End of the range, exclusive, as a System.nanoTime() value.
+     * @param resolution
+     *            The coarsest bucket length wanted, in nanoseconds.
+     * @return The buckets starting in the range or holding its start, oldest first.
+     */
+    public synchronized List<Bucket> query(final long from, final long to, final long resolution) {
+        Tier tier = select(from, resolution);
+        List<Bucket> result = new ArrayList<Bucket>();
+        if (to <= from) {
+            return result;
+        }
+        long first = Math.max(Math.floorDiv(from, tier.period), tier.newest - tier.index.length + 1);
+        long last = Math.min(Math.floorDiv(to - 1, tier.period), tier.newest);
+        for (long i = first; i <= last; i++) {
+            int s = (int) Math.floorMod(i, (long) tier.index.length);
+            if (tier.index[s] == i) {
+                result.add(new Bucket(tier.resolution, i * tier.period, tier.count[s], tier.min[s], tier.max[s],
+                        tier.count[s] == 0 ? Double.NaN : tier.sum[s] / tier.count[s], tier.energy[s]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the buckets holding samples in the period ending with the latest sample.
+     *
+     * @param duration
+     *            Length of the period, in nanoseconds.
+     * @param resolution
+     *            The coarsest bucket length wanted, in nanoseconds.
+     * @return The buckets, oldest first.
+     * @see #query(long, long, long)
+     */
+    public synchronized List<Bucket> queryLast(final long duration, final long resolution) {
+        long to = lastTimestamp + 1;
+        return query(to - duration, to, resolution);
+    }
+
+    private Tier select(final long from, final long resolution) {
+        Tier best = null;
+        for (int t = 0; t < tiers.length; t++) {
+            if (tiers[t].retains(from) && (best == null || tiers[t].period <= resolution)) {
+                best = tiers[t];
+            }
+        }
+        return best == null ? tiers[tiers.length - 1] : best;
+    }
+
+    /**
+     * Immutable aggregate of the samples in one bucket.
+     */
+    public static final class Bucket {
+        private final Resolution resolution;
+        private final long start;
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double energy;
+
+        Bucket(final Resolution resolution, final long start, final long count, final double min, final double max,
+                final double mean, final double energy) {
+            this.resolution = resolution;
+            this.start = start;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.energy = energy;
+        }
+
+        /**
+         * @return The resolution of the tier the bucket belongs to.
+         */
+        public Resolution getResolution() {
+            return resolution;
+        }
+
+        /**
+         * @return The start of the bucket, as a System.nanoTime() value.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return The number of samples of the channel in the bucket.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The minimum value of the channel, or positive infinity if the bucket holds no valid sample.
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * @return The maximum value of the channel, or negative infinity if the bucket holds no valid sample.
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * @return The mean value of the channel, or NaN if the bucket holds no valid sample.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return The energy, in Watt-hours.
+         */
+        public double getEnergy() {
+            return energy;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleConsumer.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An independent reader of a SampleRingBuffer with its own cursor. Any number of consumers may read the same buffer, each at its own pace, without
+ * locking and without additional device reads. The producer never waits for consumers: if a consumer falls more than the buffer capacity behind, the
+ * samples it missed are counted as overrun and it continues from the oldest sample still held. A consumer must only be used by one thread.
+ */
+public class SampleConsumer {
+    private final SampleRingBuffer buffer;
+    private final WaitStrategy waitStrategy;
+    private long sequence;
+    private long overrun;
+
+    /**
+     * How a consumer waits for the next sample.
+     */
+    public enum WaitStrategy {
+        /** Spin on the cursor. Lowest latency, occupies a core. */
+        BUSY_SPIN,
+        /** Yield the processor between checks of the cursor. */
+        YIELD,
+        /** Park for a short interval between checks of the cursor. Lowest CPU use. */
+        PARK;
+
+        private static final long PARK_INTERVAL = 50000;
+
+        void idle() {
+            switch (this) {
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                LockSupport.parkNanos(PARK_INTERVAL);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Constructs a new SampleConsumer that starts with the next sample added to the buffer.
+     *
+     * @param buffer
+     *            The buffer to read.
+     * @param waitStrategy
+     *            How to wait in take when no sample is available.
+     */
+    public SampleConsumer(final SampleRingBuffer buffer, final WaitStrategy waitStrategy) {
+        this.buffer = buffer;
+        this.waitStrategy = waitStrategy;
+        sequence = buffer.getCursor() + 1;
+    }
+
+    /**
+     * Reads the next sample if one is available, without waiting. This method does not allocate.
+     *
+     * @param dest
+     *            Array into which the snapshot is copied.
+     * @param offset
+     *            Index in dest at which to store the snapshot.
+     * @return True if a sample was read.
+     */
+    public boolean poll(final long[] dest, final int offset) {
+        while (sequence <= buffer.getCursor()) {
+            if (buffer.get(sequence, dest, offset)) {
+                sequence++;
+                return true;
+            }
+            long oldest = buffer.getOldestSequence();
+            if (oldest > sequence) {
+                overrun += oldest - sequence;
+                sequence = oldest;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next sample, waiting with the wait strategy until one is available. This method does not allocate.
+     *
+     * @param dest
+     *            Array into which the snapshot is copied.
+     * @param offset
+     *            Index in dest at which to store the snapshot.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting.
+     */
+    public void take(final long[] dest, final int offset) throws InterruptedException {
+        while (!poll(dest, offset)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle();
+        }
+    }
+
+    /**
+     * Reads all available samples, up to a maximum, without waiting. This method does not allocate.
+     *
+     * @param dest
+     *            Array into which the snapshots are copied consecutively.
+     * @param offset
+     *            Index in dest at which to store the first snapshot.
+     * @param max
+     *            Maximum number of samples to read.
+     * @return The number of samples read.
+     */
+    public int drain(final long[] dest, final int offset, final int max) {
+        int n = 0;
+        while (n < max && poll(dest, offset + n * INA219Base.SNAPSHOT_LENGTH)) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return The sequence number of the next sample this consumer will read.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return The number of samples available to read without waiting.
+     */
+    public long getBacklog() {
+        return Math.max(0, buffer.getCursor() + 1 - Math.max(sequence, buffer.getOldestSequence()));
+    }
+
+    /**
+     * @return The number of samples this consumer missed because it fell too far behind the producer.
+     */
+    public long getOverrunCount() {
+        return overrun;
+    }
+}
@@ -0,0 +1,282 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleDecoder.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Decodes a stream written by a SampleEncoder into raw snapshots. The block headers are indexed when the decoder is constructed, so any block can be
+ * found by time and decoded on its own, directly into an array of snapshots, without allocating. A block cut short at the end of the stream, as left by
+ * a crash while writing, is ignored. A decoder is not thread-safe.
+ */
+public class SampleDecoder {
+    private final ByteBuffer buffer;
+    private final int blockSize;
+    private final int configuration;
+    private final int calibration;
+    private final int[] rangeCalibration = new int[INA219.Pga.values().length];
+    private int blockCount;
+    private int[] positions = new int[16];
+    private int[] counts = new int[16];
+    private long[] firsts = new long[16];
+    private long[] lasts = new long[16];
+    private long sampleCount;
+    private int position;
+
+    /**
+     * Constructs a new SampleDecoder of an encoded file, which is mapped into memory.
+     *
+     * @param file
+     *            The file.
+     * @throws IOException
+     *             If the file could not be read or is not an encoded stream.
+     */
+    public SampleDecoder(final File file) throws IOException {
+        this(map(file));
+    }
+
+    /**
+     * Constructs a new SampleDecoder of an encoded stream held in a buffer, from its position to its limit.
+     *
+     * @param buffer
+     *            The buffer.
+     * @throws IOException
+     *             If the buffer does not hold an encoded stream.
+     */
+    public SampleDecoder(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        if (this.buffer.limit() < SampleEncoder.HEADER_SIZE || this.buffer.getInt(0) != SampleEncoder.MAGIC
+                || this.buffer.getInt(4) != SampleEncoder.VERSION || this.buffer.getInt(8) < 1
+                || this.buffer.getInt(8) > SampleEncoder.MAX_BLOCK_SIZE) {
+            throw new IOException("Not an encoded sample stream");
+        }
+        blockSize = this.buffer.getInt(8);
+        configuration = this.buffer.getInt(12);
+        calibration = this.buffer.getInt(16);
+        for (int i = 0; i < rangeCalibration.length; i++) {
+            rangeCalibration[i] = this.buffer.getInt(SampleEncoder.RANGE_CALIBRATION_OFFSET + 4 * i);
+        }
+        index();
+    }
+
+    /**
+     * @return The configuration register value of the recorded device.
+     */
+    public int getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return The calibration register value of the recorded device.
+     */
+    public int getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Returns the calibration register value the recorded device used at a gain range. The current register LSB of a snapshot taken at the range is
+     * 0.04096 / (calibration * shunt resistance) Amps, and the power register LSB is 20 times that.
+     *
+     * @param range
+     *            The gain range, as stored at SNAPSHOT_RANGE.
+     * @return The calibration register value.
+     */
+    public int getCalibration(final int range) {
+        return rangeCalibration[range];
+    }
+
+    /**
+     * @return The largest number of samples in a block, for sizing the array given to decodeBlock().
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return The number of complete blocks.
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return The number of samples in the complete blocks.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @param block
+     *            Index of the block.
+     * @return The number of samples in the block.
+     */
+    public int getSampleCount(final int block) {
+        checkBlock(block);
+        return counts[block];
+    }
+
+    /**
+     * @param block
+     *            Index of the block.
+     * @return The timestamp of the first sample in the block.
+     */
+    public long getFirstTimestamp(final int block) {
+        checkBlock(block);
+        return firsts[block];
+    }
+
+    /**
+     * @param block
+     *            Index of the block.
+     * @return The timestamp of the last sample in the block.
+     */
+    public long getLastTimestamp(final int block) {
+        checkBlock(block);
+        return lasts[block];
+    }
+
+    /**
+     * Finds the block holding the first sample at or after a time, by binary search of the block headers.
+     *
+     * @param time
+     *            The time, in the System.nanoTime() stamps of the samples.
+     * @return Index of the first block whose last sample is at or after time, or getBlockCount() if every sample is before time.
+     */
+    public int findBlock(final long time) {
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lasts[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Decodes a block into consecutive raw snapshots.
+     *
+     * @param block
+     *            Index of the block.
+     * @param dest
+     *            Array receiving the snapshots, which must have room for getSampleCount(block) snapshots of INA219Base.SNAPSHOT_LENGTH values.
+     * @param offset
+     *            Index in dest of the first snapshot.
+     * @return The number of snapshots decoded.
+     * @throws IOException
+     *             If the block is corrupt.
+     */
+    public int decodeBlock(final int block, final long[] dest, final int offset) throws IOException {
+        checkBlock(block);
+        int n = counts[block];
+        if (offset < 0 || dest.length - offset < n * INA219Base.SNAPSHOT_LENGTH) {
+            throw new IllegalArgumentException("No room for " + n + " samples");
+        }
+        position = positions[block] + SampleEncoder.BLOCK_HEADER_SIZE;
+        int end = position + buffer.getInt(positions[block] + 4);
+        long t = firsts[block];
+        long delta = 0;
+        dest[offset + INA219Base.SNAPSHOT_TIMESTAMP] = t;
+        for (int k = 1; k < n; k++) {
+            delta += SampleEncoder.unzigzag(nextVarint(end, block));
+            t += delta;
+            dest[offset + k * INA219Base.SNAPSHOT_LENGTH + INA219Base.SNAPSHOT_TIMESTAMP] = t;
+        }
+        for (int c = 1; c < SampleEncoder.COLUMNS.length; c++) {
+            int slot = offset + SampleEncoder.COLUMNS[c];
+            long v = 0;
+            for (int k = 0; k < n; k++) {
+                v += SampleEncoder.unzigzag(nextVarint(end, block));
+                dest[slot + k * INA219Base.SNAPSHOT_LENGTH] = v;
+            }
+        }
+        long tags = 0;
+        for (int k = 0; k < n; k++) {
+            tags += SampleEncoder.unzigzag(nextVarint(end, block));
+            int o = offset + k * INA219Base.SNAPSHOT_LENGTH;
+            dest[o + INA219Base.SNAPSHOT_RANGE] = tags & ((1 << SampleEncoder.RANGE_BITS) - 1);
+            dest[o + INA219Base.SNAPSHOT_CONVERSION_TIME] = tags >> SampleEncoder.RANGE_BITS;
+        }
+        return n;
+    }
+
+    /**
+     * Reads the variable length value at the decoding position and advances past it.
+     */
+    private long nextVarint(final int end, final int block) throws IOException {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position == end || shift > 63) {
+                throw new IOException("Corrupt block " + block);
+            }
+            b = buffer.get(position++);
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return v;
+    }
+
+    private void checkBlock(final int block) {
+        if (block < 0 || block >= blockCount) {
+            throw new IndexOutOfBoundsException("Block " + block + " of " + blockCount);
+        }
+    }
+
+    private void index() {
+        int p = SampleEncoder.HEADER_SIZE;
+        int limit = buffer.limit();
+        while (limit - p >= SampleEncoder.BLOCK_HEADER_SIZE) {
+            int n = buffer.getInt(p);
+            int length = buffer.getInt(p + 4);
+            if (n < 1 || n > blockSize || length < 0 || length > limit - p - SampleEncoder.BLOCK_HEADER_SIZE) {
+                break;
+            }
+            if (blockCount == positions.length) {
+                int size = blockCount * 2;
+                positions = Arrays.copyOf(positions, size);
+                counts = Arrays.copyOf(counts, size);
+                firsts = Arrays.copyOf(firsts, size);
+                lasts = Arrays.copyOf(lasts, size);
+            }
+            positions[blockCount] = p;
+            counts[blockCount] = n;
+            firsts[blockCount] = buffer.getLong(p + 8);
+            lasts[blockCount] = buffer.getLong(p + 16);
+            blockCount++;
+            sampleCount += n;
+            p += SampleEncoder.BLOCK_HEADER_SIZE + length;
+        }
+    }
+
+    private static ByteBuffer map(final File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            return f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+        } finally {
+            f.close();
+        }
+    }
+}
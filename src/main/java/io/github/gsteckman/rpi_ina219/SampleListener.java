@@ -0,0 +1,40 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleListener.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Receives each sample on the sampling thread, immediately after it has been read. Implementations must be quick and should not allocate, since they
+ * delay the next read.
+ */
+public interface SampleListener {
+    /**
+     * Called for each sample.
+     * 
+     * @param timestamp
+     *            Value of System.nanoTime() when the conversion was found to be ready.
+     * @param shuntVoltage
+     *            The shunt voltage, in Volts.
+     * @param busVoltage
+     *            The bus voltage, in Volts.
+     * @param current
+     *            The current, in Amps.
+     * @param power
+     *            The power, in Watts.
+     * @param overflow
+     *            True if the math overflow flag was set, in which case current and power are not valid.
+     */
+    void sample(long timestamp, double shuntVoltage, double busVoltage, double current, double power,
+            boolean overflow);
+}
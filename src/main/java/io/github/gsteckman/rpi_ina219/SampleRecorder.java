@@ -0,0 +1,159 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleRecorder.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records raw snapshots to memory-mapped files of fixed size records. When a file is full, recording continues in the next file of the sequence. Recording
+ * a sample does not allocate, except when rolling over to a new file.
+ * <p>
+ * Each file starts with a header holding a magic number, the format version, the record size, the configuration and calibration register values of the
+ * recorded device, the number of records, which is updated with every record so that a file is readable even if the recorder was not closed, and the
+ * calibration register value of each gain range. Each record holds the timestamp followed by the shunt voltage, bus voltage, power and current registers
+ * and the gain range as 16 bit values. With auto-ranging the power and current registers of each record are scaled by the calibration of its range.
+ */
+public class SampleRecorder implements Closeable {
+    static final int MAGIC = 0x494E4132;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 48;
+    static final int RECORD_SIZE = 18;
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 8;
+    static final int CONFIGURATION_OFFSET = 12;
+    static final int CALIBRATION_OFFSET = 16;
+    static final int COUNT_OFFSET = 24;
+    static final int RANGE_CALIBRATION_OFFSET = 32;
+    private final File base;
+    private final long maxFileSize;
+    private final int configuration;
+    private final int calibration;
+    private final int[] rangeCalibration = new int[INA219.Pga.values().length];
+    private int fileIndex = -1;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private long count;
+    private int position;
+
+    /**
+     * Constructs a new SampleRecorder and creates the first file.
+     *
+     * @param base
+     *            Base name of the files. The files are named base.0, base.1, and so on.
+     * @param maxFileSize
+     *            Maximum size of each file in bytes.
+     * @param device
+     *            The device whose samples are recorded, from which the configuration and calibrations are taken.
+     * @throws IOException
+     *             If the first file could not be created.
+     */
+    public SampleRecorder(final File base, final long maxFileSize, final INA219Base device) throws IOException {
+        if (maxFileSize < HEADER_SIZE + RECORD_SIZE || maxFileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid maximum file size: " + maxFileSize);
+        }
+        this.base = base;
+        this.maxFileSize = maxFileSize - (maxFileSize - HEADER_SIZE) % RECORD_SIZE;
+        configuration = device.getConfiguration();
+        calibration = device.getCalibration();
+        for (int i = 0; i < rangeCalibration.length; i++) {
+            rangeCalibration[i] = device.getCalibration(i);
+        }
+        rollOver();
+    }
+
+    /**
+     * Records a raw snapshot.
+     *
+     * @param sample
+     *            Array holding the snapshot.
+     * @param offset
+     *            Index of the snapshot in sample.
+     * @throws IOException
+     *             If a new file was needed and could not be created.
+     */
+    public void record(final long[] sample, final int offset) throws IOException {
+        if (position == maxFileSize) {
+            rollOver();
+        }
+        buffer.putLong(position, sample[offset + INA219Base.SNAPSHOT_TIMESTAMP]);
+        buffer.putShort(position + 8, (short) sample[offset + INA219Base.SNAPSHOT_SHUNT_VOLTAGE]);
+        buffer.putShort(position + 10, (short) sample[offset + INA219Base.SNAPSHOT_BUS_VOLTAGE]);
+        buffer.putShort(position + 12, (short) sample[offset + INA219Base.SNAPSHOT_POWER]);
+        buffer.putShort(position + 14, (short) sample[offset + INA219Base.SNAPSHOT_CURRENT]);
+        buffer.putShort(position + 16, (short) sample[offset + INA219Base.SNAPSHOT_RANGE]);
+        position += RECORD_SIZE;
+        buffer.putLong(COUNT_OFFSET, ++count);
+    }
+
+    /**
+     * Flushes the current file to the storage device.
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Flushes and closes the current file, truncating it to the recorded length.
+     *
+     * @throws IOException
+     *             If the file could not be closed.
+     */
+    public void close() throws IOException {
+        if (file != null) {
+            buffer.force();
+            file.setLength(position);
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * Returns the file with the given index in a sequence of recorded files.
+     *
+     * @param base
+     *            Base name of the files.
+     * @param index
+     *            Index of the file in the sequence.
+     * @return The file.
+     */
+    static File getFile(final File base, final int index) {
+        return new File(base.getPath() + "." + index);
+    }
+
+    private void rollOver() throws IOException {
+        close();
+        fileIndex++;
+        file = new RandomAccessFile(getFile(base, fileIndex), "rw");
+        file.setLength(0);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxFileSize);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putInt(CONFIGURATION_OFFSET, configuration);
+        buffer.putInt(CALIBRATION_OFFSET, calibration);
+        for (int i = 0; i < rangeCalibration.length; i++) {
+            buffer.putInt(RANGE_CALIBRATION_OFFSET + 4 * i, rangeCalibration[i]);
+        }
+        count = 0;
+        buffer.putLong(COUNT_OFFSET, count);
+        position = HEADER_SIZE;
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleReplay.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays files written by a SampleRecorder as the registers of an INA219, so that a captured trace can be fed through INA219Base in place of the
+ * device. Like the device, reading the bus voltage register reports a ready conversion and reading the power register clears it; the next read of the
+ * bus voltage register then advances to the next recorded sample. Reading past the last recorded sample throws an EOFException.
+ * <p>
+ * As on the device, the power and current registers follow the calibration register: a sample recorded at a gain range whose calibration differs from
+ * the value last written is scaled to that value, so that a trace recorded with auto-ranging replays correctly through an INA219Base at any range.
+ */
+public class SampleReplay implements INA219RegisterIF, Closeable {
+    private static final int CNVR = 0x2;
+    private final File base;
+    private int fileIndex = -1;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private int end;
+    private int position;
+    private boolean consumed;
+    private int configurationRegister;
+    private int calibrationRegister;
+    private final int[] rangeCalibration = new int[INA219.Pga.values().length];
+
+    /**
+     * Constructs a new SampleReplay positioned at the first recorded sample.
+     *
+     * @param base
+     *            Base name of the recorded files, as given to the SampleRecorder.
+     * @throws IOException
+     *             If the first file could not be opened, is not a recording, or holds no samples.
+     */
+    public SampleReplay(final File base) throws IOException {
+        this.base = base;
+        if (!openNext()) {
+            throw new EOFException("No samples recorded in " + SampleRecorder.getFile(base, 0));
+        }
+        configurationRegister = buffer.getInt(SampleRecorder.CONFIGURATION_OFFSET);
+        calibrationRegister = buffer.getInt(SampleRecorder.CALIBRATION_OFFSET);
+        for (int i = 0; i < rangeCalibration.length; i++) {
+            rangeCalibration[i] = buffer.getInt(SampleRecorder.RANGE_CALIBRATION_OFFSET + 4 * i) & 0xFFFE;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+        switch (ra) {
+        case CONFIGURATION:
+            configurationRegister = value & 0x7FFF;
+            break;
+        case CALIBRATION:
+            calibrationRegister = value & 0xFFFE;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readRegister(final RegisterAddress ra) throws IOException {
+        return readSignedRegister(ra) & 0xFFFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public short readSignedRegister(final RegisterAddress ra) throws IOException {
+        switch (ra) {
+        case CONFIGURATION:
+            return (short) configurationRegister;
+        case SHUNT_VOLTAGE:
+            return buffer.getShort(position + 8);
+        case BUS_VOLTAGE:
+            if (consumed) {
+                advance();
+            }
+            return (short) (buffer.getShort(position + 10) | CNVR);
+        case POWER:
+            consumed = true;
+            return (short) scale(buffer.getShort(position + 12) & 0xFFFF, 0, 0xFFFF);
+        case CURRENT:
+            return (short) scale(buffer.getShort(position + 14), Short.MIN_VALUE, Short.MAX_VALUE);
+        case CALIBRATION:
+            return (short) calibrationRegister;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * @return The recorded System.nanoTime() stamp of the current sample.
+     */
+    public long getTimestamp() {
+        return buffer.getLong(position);
+    }
+
+    /**
+     * @return The recorded gain range of the current sample, as stored at SNAPSHOT_RANGE.
+     */
+    public int getRange() {
+        return buffer.getShort(position + 16);
+    }
+
+    /**
+     * Advances to the next recorded sample.
+     *
+     * @throws EOFException
+     *             If there are no more samples.
+     * @throws IOException
+     *             If the next file could not be opened.
+     */
+    public void advance() throws IOException {
+        consumed = false;
+        if (position + SampleRecorder.RECORD_SIZE < end) {
+            position += SampleRecorder.RECORD_SIZE;
+        } else if (!openNext()) {
+            throw new EOFException("End of recording");
+        }
+    }
+
+    /**
+     * Closes the current file.
+     *
+     * @throws IOException
+     *             If the file could not be closed.
+     */
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private int scale(final int value, final int min, final int max) {
+        int recorded = rangeCalibration[getRange()];
+        if (recorded == calibrationRegister || recorded == 0) {
+            return value;
+        }
+        long scaled = Math.round((double) value * calibrationRegister / recorded);
+        return (int) Math.max(min, Math.min(max, scaled));
+    }
+
+    private boolean openNext() throws IOException {
+        while (true) {
+            File f = SampleRecorder.getFile(base, fileIndex + 1);
+            if (!f.exists()) {
+                return false;
+            }
+            close();
+            fileIndex++;
+            file = new RandomAccessFile(f, "r");
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (file.length() < SampleRecorder.HEADER_SIZE
+                    || buffer.getInt(SampleRecorder.MAGIC_OFFSET) != SampleRecorder.MAGIC
+                    || buffer.getInt(SampleRecorder.VERSION_OFFSET) != SampleRecorder.VERSION
+                    || buffer.getInt(SampleRecorder.RECORD_SIZE_OFFSET) != SampleRecorder.RECORD_SIZE) {
+                throw new IOException("Not a sample recording: " + f);
+            }
+            long count = buffer.getLong(SampleRecorder.COUNT_OFFSET);
+            end = (int) Math.min(file.length(), SampleRecorder.HEADER_SIZE + count * SampleRecorder.RECORD_SIZE);
+            if (end > SampleRecorder.HEADER_SIZE) {
+                position = SampleRecorder.HEADER_SIZE;
+                return true;
+            }
+        }
+    }
+}
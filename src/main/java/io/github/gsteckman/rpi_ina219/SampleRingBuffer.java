@@ -0,0 +1,107 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleRingBuffer.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A preallocated ring buffer of raw snapshots, laid out as described by the INA219Base SNAPSHOT_* constants. There must be a single writer. Any number of
+ * readers may read concurrently by sequence number; once the writer has wrapped around, the oldest samples are overwritten and reads of them fail.
+ */
+public class SampleRingBuffer {
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray data;
+    private volatile long claimed = -1;
+    private volatile long cursor = -1;
+
+    /**
+     * Constructs a new SampleRingBuffer.
+     *
+     * @param capacity
+     *            Minimum number of samples to hold. It is rounded up to a power of two.
+     */
+    public SampleRingBuffer(final int capacity) {
+        if (capacity < 1 || capacity > (1 << 30) / INA219Base.SNAPSHOT_LENGTH) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = this.capacity - 1;
+        data = new AtomicLongArray(this.capacity * INA219Base.SNAPSHOT_LENGTH);
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest one if the buffer is full. Must only be called by the single writer. This method does not allocate.
+     *
+     * @param sample
+     *            Array holding the snapshot to append.
+     * @param offset
+     *            Index of the snapshot in sample.
+     * @return The sequence number of the appended sample.
+     */
+    public long add(final long[] sample, final int offset) {
+        long sequence = cursor + 1;
+        claimed = sequence;
+        int base = (int) (sequence & mask) * INA219Base.SNAPSHOT_LENGTH;
+        for (int i = 0; i < INA219Base.SNAPSHOT_LENGTH; i++) {
+            data.set(base + i, sample[offset + i]);
+        }
+        cursor = sequence;
+        return sequence;
+    }
+
+    /**
+     * Copies the sample with the given sequence number. This method does not allocate.
+     *
+     * @param sequence
+     *            Sequence number of the sample to read.
+     * @param dest
+     *            Array into which the snapshot is copied.
+     * @param offset
+     *            Index in dest at which to store the snapshot.
+     * @return False if the sample has not been written yet or has already been overwritten, in which case the contents of dest are undefined.
+     */
+    public boolean get(final long sequence, final long[] dest, final int offset) {
+        if (sequence < 0 || sequence > cursor) {
+            return false;
+        }
+        int base = (int) (sequence & mask) * INA219Base.SNAPSHOT_LENGTH;
+        for (int i = 0; i < INA219Base.SNAPSHOT_LENGTH; i++) {
+            dest[offset + i] = data.get(base + i);
+        }
+        return claimed - sequence < capacity;
+    }
+
+    /**
+     * @return The sequence number of the most recently added sample, or -1 if none has been added.
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return The sequence number of the oldest sample still held.
+     */
+    public long getOldestSequence() {
+        return Math.max(0, claimed - capacity + 1);
+    }
+
+    /**
+     * @return The number of samples held when the buffer is full.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,229 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SharedINA219.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe facade over an INA219 that many threads may share, and that keeps their reads from multiplying the bus traffic. A reading is served from
+ * the last sample without touching the bus while the sample is younger than the conversion time, since the device holds no newer conversion, or than
+ * the staleness bound if that is longer. Otherwise one thread reads the device while every other thread asking in the meantime waits for and shares that
+ * result (single-flight), so concurrent readers cause one bus read per conversion at most.
+ * <p>
+ * All access to the device, including configuration changes, must go through the facade. Locks are ReentrantLocks rather than monitors, so a virtual
+ * thread waiting for a read does not pin its carrier thread.
+ */
+public class SharedINA219 {
+    private final INA219Base device;
+    private final ReentrantLock deviceLock = new ReentrantLock();
+    private final ReentrantLock flightLock = new ReentrantLock();
+    private final Condition landed = flightLock.newCondition();
+    private final AtomicLong busReads = new AtomicLong();
+    private final AtomicLong sharedReads = new AtomicLong();
+    private final AtomicLong cachedReads = new AtomicLong();
+    private volatile long maxAge;
+    private volatile Measurement latest;
+    private Flight flight;
+
+    /**
+     * A read of the device in progress, whose result is shared by all threads waiting for it.
+     */
+    private static final class Flight {
+        Measurement result;
+        IOException error;
+        boolean done;
+    }
+
+    /**
+     * Constructs a new SharedINA219.
+     *
+     * @param device
+     *            The device. It must not be accessed other than through this facade.
+     * @param maxAge
+     *            The staleness bound: the age in nanoseconds up to which a sample is served without reading the device.
+     */
+    public SharedINA219(final INA219Base device, final long maxAge) {
+        this.device = device;
+        setMaxAge(maxAge);
+    }
+
+    /**
+     * Sets the staleness bound. A sample younger than the conversion time is served regardless.
+     *
+     * @param nanos
+     *            The age in nanoseconds up to which a sample is served without reading the device.
+     */
+    public void setMaxAge(final long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Negative maximum age: " + nanos);
+        }
+        maxAge = nanos;
+    }
+
+    /**
+     * @return The staleness bound in nanoseconds.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Returns a reading no older than the staleness bound, or the conversion time if longer, reading the device if needed. In a triggered mode, reading
+     * the device triggers a conversion and waits for it.
+     *
+     * @return The reading. Its timestamp tells its age.
+     * @throws IOException
+     *             If the device was read for this call and the read failed.
+     */
+    public Measurement read() throws IOException {
+        Measurement m = latest;
+        if (isFresh(m)) {
+            cachedReads.incrementAndGet();
+            return m;
+        }
+        Flight f;
+        boolean leader = false;
+        flightLock.lock();
+        try {
+            m = latest;
+            if (isFresh(m)) {
+                cachedReads.incrementAndGet();
+                return m;
+            }
+            if (flight == null) {
+                flight = new Flight();
+                leader = true;
+            }
+            f = flight;
+        } finally {
+            flightLock.unlock();
+        }
+        if (leader) {
+            fly(f);
+        } else {
+            sharedReads.incrementAndGet();
+            flightLock.lock();
+            try {
+                while (!f.done) {
+                    landed.awaitUninterruptibly();
+                }
+            } finally {
+                flightLock.unlock();
+            }
+        }
+        if (f.error != null) {
+            throw leader ? f.error : new IOException(f.error.getMessage(), f.error);
+        }
+        if (f.result == null) {
+            throw new IOException("Shared read failed");
+        }
+        return f.result;
+    }
+
+    /**
+     * Changes the gain range of the device. The last sample is discarded, so the next read reads the device.
+     *
+     * @param pga
+     *            The new gain range.
+     * @throws IOException
+     *             If a register could not be written.
+     */
+    public void setPga(final INA219.Pga pga) throws IOException {
+        deviceLock.lock();
+        try {
+            device.setPga(pga);
+            latest = null;
+        } finally {
+            deviceLock.unlock();
+        }
+    }
+
+    /**
+     * Changes the ADC settings of the device. The last sample is discarded, so the next read reads the device.
+     *
+     * @param badc
+     *            The new bus voltage ADC setting.
+     * @param sadc
+     *            The new shunt voltage ADC setting.
+     * @throws IOException
+     *             If the configuration register could not be written.
+     */
+    public void setAdc(final INA219.Adc badc, final INA219.Adc sadc) throws IOException {
+        deviceLock.lock();
+        try {
+            device.setAdc(badc, sadc);
+                latest = null;
+        } finally {
+            deviceLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of reads of the device.
+     */
+    public long getBusReadCount() {
+        return busReads.get();
+    }
+
+    /**
+     * @return The number of calls served by waiting for a read made for another thread.
+     */
+    public long getSharedReadCount() {
+        return sharedReads.get();
+    }
+
+    /**
+     * @return The number of calls served from the last sample.
+     */
+    public long getCachedReadCount() {
+        return cachedReads.get();
+    }
+
+    private boolean isFresh(final Measurement m) {
+        if (m == null) {
+            return false;
+        }
+        long age = System.nanoTime() - m.getTimestamp();
+        return age < device.getConversionTime() || age <= maxAge;
+    }
+
+    private void fly(final Flight f) {
+        try {
+            deviceLock.lock();
+            try {
+                busReads.incrementAndGet();
+                Measurement m = device.getMode().isTriggered() ? device.triggerAndRead() : device.readSnapshot();
+                latest = m;
+                f.result = m;
+            } finally {
+                deviceLock.unlock();
+            }
+        } catch (IOException e) {
+            f.error = e;
+        } finally {
+            flightLock.lock();
+            try {
+                f.done = true;
+                flight = null;
+                landed.signalAll();
+            } finally {
+                flightLock.unlock();
+            }
+        }
+    }
+}
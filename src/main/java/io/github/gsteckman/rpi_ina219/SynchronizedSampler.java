@@ -0,0 +1,221 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SynchronizedSampler.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples several INA219 devices at nearly the same instant, for quantities derived from more than one device such as the efficiency of a converter
+ * measured on its input and output rails. Each frame triggers a single conversion on every device in quick succession, waits for the slowest to
+ * complete and reads them all. The devices must be in a triggered mode, so that they do not free-run between frames.
+ * <p>
+ * The sample time of a conversion is taken as the middle of its conversion window, which starts when the trigger write completes. The spread of the
+ * sample times within a frame is reported as its skew; it is mostly the time taken by the trigger writes plus half the difference in conversion time,
+ * so devices with the same ADC settings give the smallest skew. With interpolation enabled, the values of each device are linearly interpolated
+ * between its previous and current conversions to the earliest sample time of the frame, which removes the skew for signals that change slowly compared
+ * to the frame period.
+ */
+public class SynchronizedSampler {
+    private final INA219Base[] devices;
+    private final long[] raw;
+    private final Measurement[] previous;
+    private boolean interpolation;
+
+    /**
+     * Constructs a new SynchronizedSampler.
+     *
+     * @param devices
+     *            The devices, each in a triggered mode. They must not be read by anything else while frames are being acquired.
+     * @throws IllegalArgumentException
+     *             If no device is given, or a device is not in a triggered mode.
+     */
+    public SynchronizedSampler(final INA219Base... devices) {
+        if (devices.length == 0) {
+            throw new IllegalArgumentException("No devices");
+        }
+        for (INA219Base d : devices) {
+            if (!d.getMode().isTriggered()) {
+                throw new IllegalArgumentException("Not in a triggered mode: " + d.getMode());
+            }
+        }
+        this.devices = devices.clone();
+        raw = new long[devices.length * INA219Base.SNAPSHOT_LENGTH];
+        previous = new Measurement[devices.length];
+    }
+
+    /**
+     * Enables or disables interpolation of the values to a common time. The first frame after enabling it is not interpolated.
+     *
+     * @param enable
+     *            True to interpolate.
+     */
+    public synchronized void setInterpolation(final boolean enable) {
+        interpolation = enable;
+    }
+
+    /**
+     * @return True if values are interpolated to a common time.
+     */
+    public synchronized boolean isInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * Triggers a conversion on every device, waits for all of them to complete and returns their values.
+     *
+     * @return The frame.
+     * @throws IOException
+     *             If a device could not be triggered or read, or its conversion did not complete.
+     */
+    public synchronized Frame acquire() throws IOException {
+        int n = devices.length;
+        long[] sampleTimes = new long[n];
+        long[] readTimes = new long[n];
+        long deadline = 0;
+        for (int i = 0; i < n; i++) {
+            devices[i].trigger();
+            long start = System.nanoTime();
+            long conversionTime = devices[i].getConversionTime();
+            sampleTimes[i] = start + conversionTime / 2;
+            if (i == 0 || start + conversionTime - deadline > 0) {
+                deadline = start + conversionTime;
+            }
+        }
+        long delay;
+        while ((delay = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+        }
+        long earliest = sampleTimes[0];
+        long latest = sampleTimes[0];
+        for (int i = 0; i < n; i++) {
+            devices[i].readSnapshot(raw, i * INA219Base.SNAPSHOT_LENGTH);
+            readTimes[i] = raw[i * INA219Base.SNAPSHOT_LENGTH + INA219Base.SNAPSHOT_TIMESTAMP];
+            earliest = sampleTimes[i] - earliest < 0 ? sampleTimes[i] : earliest;
+            latest = sampleTimes[i] - latest > 0 ? sampleTimes[i] : latest;
+        }
+
+        boolean interpolate = interpolation && previous[0] != null;
+        Measurement[] values = new Measurement[n];
+        for (int i = 0; i < n; i++) {
+            Measurement m = devices[i].toMeasurement(raw, i * INA219Base.SNAPSHOT_LENGTH);
+            Measurement current = new Measurement(sampleTimes[i], m.getShuntVoltage(), m.getBusVoltage(),
+                    m.getPower(), m.getCurrent(), m.isOverflow(), m.getPga(), m.getConversionTime());
+            values[i] = interpolate ? interpolate(previous[i], current, earliest) : current;
+            previous[i] = interpolation ? current : null;
+        }
+        return new Frame(interpolate ? earliest : latest, latest - earliest, interpolate, values, sampleTimes,
+                readTimes);
+    }
+
+    /**
+     * Linearly interpolates between two conversions of a device. Overflowed conversions are not interpolated.
+     *
+     * @return The interpolated values at time t, or b if either conversion overflowed.
+     */
+    private static Measurement interpolate(final Measurement a, final Measurement b, final long t) {
+        long span = b.getTimestamp() - a.getTimestamp();
+        if (a.isOverflow() || b.isOverflow() || span <= 0) {
+            return b;
+        }
+        double f = (double) (t - a.getTimestamp()) / span;
+        return new Measurement(t, lerp(a.getShuntVoltage(), b.getShuntVoltage(), f),
+                lerp(a.getBusVoltage(), b.getBusVoltage(), f), lerp(a.getPower(), b.getPower(), f),
+                lerp(a.getCurrent(), b.getCurrent(), f), false, b.getPga(), b.getConversionTime());
+    }
+
+    private static double lerp(final double a, final double b, final double f) {
+        return a + (b - a) * f;
+    }
+
+    /**
+     * The values of all devices from one acquisition, in the order the devices were given to the sampler.
+     */
+    public static final class Frame {
+        private final long time;
+        private final long skew;
+        private final boolean interpolated;
+        private final Measurement[] values;
+        private final long[] sampleTimes;
+        private final long[] readTimes;
+
+        Frame(final long time, final long skew, final boolean interpolated, final Measurement[] values,
+                final long[] sampleTimes, final long[] readTimes) {
+            this.time = time;
+            this.skew = skew;
+            this.interpolated = interpolated;
+            this.values = values;
+            this.sampleTimes = sampleTimes;
+            this.readTimes = readTimes;
+        }
+
+        /**
+         * @return The System.nanoTime() value the frame represents: the common time of interpolated values, or else the latest sample time.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return The difference between the earliest and latest sample times of the devices, in nanoseconds.
+         */
+        public long getSkew() {
+            return skew;
+        }
+
+        /**
+         * @return True if the values were interpolated to the frame time.
+         */
+        public boolean isInterpolated() {
+            return interpolated;
+        }
+
+        /**
+         * @return The number of devices in the frame.
+         */
+        public int size() {
+            return values.length;
+        }
+
+        /**
+         * Returns the values of a device. The timestamp of the measurement is its sample time, or the frame time if interpolated.
+         *
+         * @param device
+         *            Index of the device.
+         * @return The values of the device.
+         */
+        public Measurement get(final int device) {
+            return values[device];
+        }
+
+        /**
+         * @param device
+         *            Index of the device.
+         * @return The System.nanoTime() value at the middle of the conversion of the device.
+         */
+        public long getSampleTime(final int device) {
+            return sampleTimes[device];
+        }
+
+        /**
+         * @param device
+         *            Index of the device.
+         * @return The System.nanoTime() value at which the conversion of the device was read.
+         */
+        public long getReadTime(final int device) {
+            return readTimes[device];
+        }
+    }
+}
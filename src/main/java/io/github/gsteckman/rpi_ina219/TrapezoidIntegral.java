@@ -0,0 +1,124 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * TrapezoidIntegral.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Integral over time of one channel using the trapezoidal rule over the sample timestamps, in units of the channel times hours. The sum is compensated
+ * (Kahan summation) so that rounding errors do not accumulate over long uptimes.
+ * <p>
+ * An interval is not integrated if it is longer than the maximum gap, if the timestamps go backwards (a restart of the time base), or if either end is a
+ * sample with the overflow flag set; such intervals are counted instead. Not thread-safe; samples are normally added on the sampling thread.
+ */
+class TrapezoidIntegral {
+    private static final double NANOS_PER_HOUR = 3600e9;
+    private final long maxGap;
+    private boolean hasLast;
+    private long lastTimestamp;
+    private double lastValue;
+    private double total;
+    private double compensation;
+    private long duration;
+    private long gaps;
+    private long restarts;
+
+    /**
+     * Constructs a new TrapezoidIntegral.
+     *
+     * @param maxGap
+     *            The longest interval between two samples, in nanoseconds, that is integrated.
+     */
+    TrapezoidIntegral(final long maxGap) {
+        if (maxGap <= 0) {
+            throw new IllegalArgumentException("Maximum gap must be positive: " + maxGap);
+        }
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Adds a sample, integrating the interval that it ends.
+     *
+     * @param timestamp
+     *            The System.nanoTime() value at which the sample was taken.
+     * @param value
+     *            The value of the channel.
+     * @param overflow
+     *            True if the sample has the overflow flag set.
+     * @return The integral over the interval ending at the sample, or 0 if the interval was not integrated.
+     */
+    double add(final long timestamp, final double value, final boolean overflow) {
+        double area = 0;
+        if (hasLast && !overflow) {
+            long dt = timestamp - lastTimestamp;
+            if (dt <= 0) {
+                restarts++;
+            } else if (dt > maxGap) {
+                gaps++;
+            } else {
+                area = (value + lastValue) * 0.5 * (dt / NANOS_PER_HOUR);
+                double y = area - compensation;
+                double t = total + y;
+                compensation = (t - total) - y;
+                total = t;
+                duration += dt;
+            }
+        } else if (overflow) {
+            gaps++;
+        }
+        hasLast = !overflow;
+        lastTimestamp = timestamp;
+        lastValue = value;
+        return area;
+    }
+
+    /**
+     * Clears the integral and the counts, and forgets the last sample so that the next one starts a new integration.
+     */
+    void reset() {
+        hasLast = false;
+        total = 0;
+        compensation = 0;
+        duration = 0;
+        gaps = 0;
+        restarts = 0;
+    }
+
+    /**
+     * @return The integral since construction or the last reset.
+     */
+    double getTotal() {
+        return total;
+    }
+
+    /**
+     * @return The total length of the integrated intervals, in nanoseconds.
+     */
+    long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return The number of intervals not integrated because they exceeded the maximum gap or involved an overflowed sample.
+     */
+    long getGapCount() {
+        return gaps;
+    }
+
+    /**
+     * @return The number of times the timestamps went backwards.
+     */
+    long getRestartCount() {
+        return restarts;
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * Waveform.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A signal driving one input of an INA219Simulator, as a function of time. Waveforms without state, such as those returned by constant, sine and step,
+ * may be shared by any number of simulators.
+ */
+public interface Waveform {
+    /**
+     * Returns the value of the signal at the given time.
+     *
+     * @param time
+     *            Time in nanoseconds since the simulator was constructed.
+     * @return The signal value, in Volts.
+     */
+    double valueAt(long time);
+
+    /**
+     * Returns a waveform with a constant value.
+     *
+     * @param value
+     *            The value.
+     * @return The waveform.
+     */
+    static Waveform constant(final double value) {
+        return new Waveform() {
+            public double valueAt(final long time) {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Returns a sine wave.
+     *
+     * @param offset
+     *            The mean value.
+     * @param amplitude
+     *            The peak deviation from the mean value.
+     * @param period
+     *            The period in nanoseconds.
+     * @return The waveform.
+     */
+    static Waveform sine(final double offset, final double amplitude, final long period) {
+        final double omega = 2 * Math.PI / period;
+        return new Waveform() {
+            public double valueAt(final long time) {
+                return offset + amplitude * Math.sin(omega * (time % period));
+            }
+        };
+    }
+
+    /**
+     * Returns a single step from one value to another.
+     *
+     * @param before
+     *            The value before the step.
+     * @param after
+     *            The value from the step on.
+     * @param at
+     *            The time of the step in nanoseconds.
+     * @return The waveform.
+     */
+    static Waveform step(final double before, final double after, final long at) {
+        return new Waveform() {
+            public double valueAt(final long time) {
+                return time < at ? before : after;
+            }
+        };
+    }
+
+    /**
+     * Returns a waveform with normally distributed noise added to another waveform. The returned waveform holds a random number generator, so each
+     * simulator should be given its own.
+     *
+     * @param signal
+     *            The waveform to which the noise is added.
+     * @param standardDeviation
+     *            The standard deviation of the noise.
+     * @param seed
+     *            Seed of the random number generator, for repeatable noise.
+     * @return The waveform.
+     */
+    static Waveform noise(final Waveform signal, final double standardDeviation, final long seed) {
+        final Random random = new Random(seed);
+        return new Waveform() {
+            public double valueAt(final long time) {
+                return signal.valueAt(time) + standardDeviation * random.nextGaussian();
+            }
+        };
+    }
+
+    /**
+     * Reads a recorded waveform from comma separated lines of time, in seconds, and value. Times are taken relative to the first line and must not
+     * decrease. Blank lines, lines starting with # and a header line are skipped. Values between recorded times are interpolated linearly; after the last
+     * recorded time the waveform either holds the last value or repeats from the start.
+     *
+     * @param in
+     *            The source of the lines.
+     * @param repeat
+     *            True to repeat the recording, false to hold the last value.
+     * @return The waveform.
+     * @throws IOException
+     *             If the source could not be read, or holds no values.
+     */
+    static Waveform fromCsv(final Reader in, final boolean repeat) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        long[] times = new long[64];
+        double[] values = new double[64];
+        int n = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            double t;
+            double v;
+            try {
+                if (fields.length < 2) {
+                    throw new NumberFormatException();
+                }
+                t = Double.parseDouble(fields[0].trim());
+                v = Double.parseDouble(fields[1].trim());
+            } catch (NumberFormatException e) {
+                if (n == 0 && lineNumber == 1) {
+                    continue; // header
+                }
+                throw new IOException("Invalid waveform line " + lineNumber + ": " + line);
+            }
+            if (n == times.length) {
+                times = Arrays.copyOf(times, n * 2);
+                values = Arrays.copyOf(values, n * 2);
+            }
+            times[n] = Math.round(t * 1e9);
+            values[n] = v;
+            if (n > 0 && times[n] < times[n - 1]) {
+                throw new IOException("Time decreases at waveform line " + lineNumber);
+            }
+            n++;
+        }
+        if (n == 0) {
+            throw new IOException("No waveform values");
+        }
+        final long start = times[0];
+        for (int i = 0; i < n; i++) {
+            times[i] -= start;
+        }
+        final long[] t = Arrays.copyOf(times, n);
+        final double[] v = Arrays.copyOf(values, n);
+        final long length = t[n - 1];
+        return new Waveform() {
+            public double valueAt(final long time) {
+                long x = repeat && length > 0 ? time % length : time;
+                if (x <= 0) {
+                    return v[0];
+                }
+                int i = Arrays.binarySearch(t, x);
+                if (i >= 0) {
+                    return v[i];
+                }
+                i = -i - 1;
+                if (i == t.length) {
+                    return v[t.length - 1];
+                }
+                return v[i - 1] + (v[i] - v[i - 1]) * (x - t[i - 1]) / (t[i] - t[i - 1]);
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * WindowedStatistics.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+/**
+ * Maintains ChannelStatistics for each channel from the samples delivered to it. Samples with the overflow flag set are excluded from the current and
+ * power statistics, since those values are not valid.
+ */
+public class WindowedStatistics implements SampleListener {
+    private final ChannelStatistics[] channels = new ChannelStatistics[Channel.values().length];
+
+    /**
+     * Constructs a new WindowedStatistics.
+     *
+     * @param slidingLength
+     *            Number of samples in the sliding window.
+     * @param tumblingLength
+     *            Number of samples in each tumbling window.
+     */
+    public WindowedStatistics(final int slidingLength, final int tumblingLength) {
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new ChannelStatistics(slidingLength, tumblingLength);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sample(final long timestamp, final double shuntVoltage, final double busVoltage, final double current,
+            final double power, final boolean overflow) {
+        channels[Channel.SHUNT_VOLTAGE.ordinal()].add(shuntVoltage);
+        channels[Channel.BUS_VOLTAGE.ordinal()].add(busVoltage);
+        if (!overflow) {
+            channels[Channel.CURRENT.ordinal()].add(current);
+            channels[Channel.POWER.ordinal()].add(power);
+        }
+    }
+
+    /**
+     * @param channel
+     *            The channel.
+     * @return The statistics of the channel.
+     */
+    public ChannelStatistics get(final Channel channel) {
+        return channels[channel.ordinal()];
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * AlertEngineTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the AlertEngine.
+ */
+public class AlertEngineTest {
+    private static final long MS = 1000000L;
+
+    /**
+     * An AlertListener that records the events it receives as strings.
+     */
+    private static final class Recorder implements AlertListener {
+        private final List<String> events = new ArrayList<String>();
+
+        public void alertRaised(final AlertRule rule, final long timestamp, final double value) {
+            events.add("+" + rule.getName() + "@" + timestamp / MS);
+        }
+
+        public void alertCleared(final AlertRule rule, final long timestamp, final double value) {
+            events.add("-" + rule.getName() + "@" + timestamp / MS);
+        }
+    }
+
+    /**
+     * Tests threshold rules with hysteresis and a minimum duration.
+     */
+    @Test
+    public void thresholds() {
+        AlertEngine e = new AlertEngine(100 * MS);
+        Recorder r = new Recorder();
+        e.addListener(r);
+        AlertRule high = new AlertRule("high", Channel.CURRENT, AlertRule.Condition.ABOVE, 1.0);
+        high.setHysteresis(0.1);
+        high.setMinimumDuration(20 * MS);
+        e.addRule(high);
+        AlertRule low = new AlertRule("low", Channel.BUS_VOLTAGE, AlertRule.Condition.BELOW, 11.0);
+        e.addRule(low);
+
+        double[] current = { 0.5, 1.2, 1.2, 0.8, 1.2, 1.2, 1.2, 0.95, 0.85 };
+        for (int i = 0; i < current.length; i++) {
+            e.sample(i * 10 * MS, 0, i == 3 ? 10.5 : 12.0, current[i], 12.0 * current[i], false);
+        }
+        Assert.assertEquals("[+low@30, -low@40, +high@60, -high@80]", r.events.toString());
+        Assert.assertFalse(e.isActive(high));
+
+        r.events.clear();
+        e.sample(90 * MS, 0, 12.0, 5.0, 60.0, true);
+        e.sample(100 * MS, 0, 12.0, 5.0, 60.0, true);
+        e.sample(110 * MS, 0, 12.0, 5.0, 60.0, true);
+        Assert.assertTrue("overflowed current ignored", r.events.isEmpty());
+    }
+
+    /**
+     * Tests rules on the rate of change.
+     */
+    @Test
+    public void rates() {
+        AlertEngine e = new AlertEngine(100 * MS);
+        Recorder r = new Recorder();
+        e.addListener(r);
+        e.addRule(new AlertRule("surge", Channel.CURRENT, AlertRule.Condition.RISING_FASTER, 10.0));
+        e.addRule(new AlertRule("drop", Channel.BUS_VOLTAGE, AlertRule.Condition.FALLING_FASTER, 50.0));
+
+        double[] current = { 0.0, 0.05, 0.3, 0.35, 0.35 };
+        double[] bus = { 12.0, 12.0, 12.0, 11.0, 11.0 };
+        for (int i = 0; i < current.length; i++) {
+            e.sample(i * 10 * MS, 0, bus[i], current[i], 0, false);
+        }
+        Assert.assertEquals("[+surge@20, -surge@30, +drop@30, -drop@40]", r.events.toString());
+    }
+
+    /**
+     * Tests energy integration and energy rules.
+     */
+    @Test
+    public void energy() {
+        AlertEngine e = new AlertEngine(2000 * MS);
+        Recorder r = new Recorder();
+        e.addListener(r);
+        e.addRule(AlertRule.forEnergy("budget", AlertRule.Condition.ABOVE, 0.999));
+
+        for (int i = 0; i <= 1800; i++) {
+            e.sample(i * 1000 * MS, 0, 12.0, 1.0, 3.0, false);
+        }
+        Assert.assertEquals(1.5, e.getEnergy(), 1e-9);
+        Assert.assertEquals("[+budget@1199000]", r.events.toString());
+
+        e.sample(1805000 * MS, 0, 12.0, 1.0, 3.0, false);
+        Assert.assertEquals("gap skipped", 1.5, e.getEnergy(), 1e-9);
+        e.reset();
+        e.sample(1806000 * MS, 0, 12.0, 1.0, 3.0, false);
+        e.sample(1807000 * MS, 0, 12.0, 1.0, 3.0, false);
+        Assert.assertEquals(3.0 / 3600, e.getEnergy(), 1e-12);
+        Assert.assertEquals("[+budget@1199000, -budget@1806000]", r.events.toString());
+    }
+
+    /**
+     * Tests that the gain range is programmed so that the device's overflow flag raises an overflow rule.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void overflow() throws IOException {
+        INA219Simulator s = new INA219Simulator(50e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        Assert.assertEquals(INA219.Pga.GAIN_4, AlertEngine.programOverflow(i, 1.0));
+        Assert.assertEquals(INA219.Pga.GAIN_4, i.getPga());
+        try {
+            AlertEngine.programOverflow(i, 4.0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        AlertEngine e = new AlertEngine(100 * MS);
+        Recorder r = new Recorder();
+        e.addListener(r);
+        e.addRule(AlertRule.forOverflow("ovf"));
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+        double[] shunt = { 50e-3, 200e-3, 100e-3 };
+        for (int k = 0; k < shunt.length; k++) {
+            s.setShuntVoltage(shunt[k]);
+            i.readSnapshot(sample, 0);
+            Measurement m = i.toMeasurement(sample, 0);
+            e.sample(k * 10 * MS, m.getShuntVoltage(), m.getBusVoltage(), m.getCurrent(), m.getPower(),
+                    m.isOverflow());
+        }
+        Assert.assertEquals("[+ovf@10, -ovf@20]", r.events.toString());
+
+        i.setAutoRanging(true);
+        try {
+            AlertEngine.programOverflow(i, 1.0);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * Tests that evaluating rules does not allocate.
+     */
+    @Test
+    public void evaluationDoesNotAllocate() {
+        AlertEngine e = new AlertEngine(100 * MS);
+        e.addRule(new AlertRule("high", Channel.CURRENT, AlertRule.Condition.ABOVE, 1.0));
+        e.addRule(new AlertRule("surge", Channel.POWER, AlertRule.Condition.RISING_FASTER, 100.0));
+        e.addRule(AlertRule.forEnergy("budget", AlertRule.Condition.ABOVE, 1e6));
+        e.addRule(AlertRule.forOverflow("ovf"));
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        final int n = 100000;
+
+        for (int k = 0; k < n; k++) { // warm up
+            e.sample(k * MS, 0.01, 12.0, 0.9 + (k & 1), 12.0, false);
+        }
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int k = n; k < 2 * n; k++) {
+            e.sample(k * MS, 0.01, 12.0, 0.9 + (k & 1), 12.0, false);
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid) - before;
+        Assert.assertTrue("allocated " + allocated + " bytes", allocated < n);
+    }
+}
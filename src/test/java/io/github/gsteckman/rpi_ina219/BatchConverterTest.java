@@ -0,0 +1,90 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * BatchConverterTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the BatchConverter.
+ */
+public class BatchConverterTest {
+    private static final int N = 1000;
+
+    private static long[] snapshots(final Random random, final boolean mixedRanges) {
+        long[] samples = new long[(N + 1) * INA219Base.SNAPSHOT_LENGTH];
+        for (int k = 0; k < N; k++) {
+            int o = (k + 1) * INA219Base.SNAPSHOT_LENGTH;
+            samples[o + INA219Base.SNAPSHOT_SHUNT_VOLTAGE] = (short) random.nextInt();
+            samples[o + INA219Base.SNAPSHOT_BUS_VOLTAGE] = random.nextInt(0x10000);
+            samples[o + INA219Base.SNAPSHOT_POWER] = random.nextInt(0x10000);
+            samples[o + INA219Base.SNAPSHOT_CURRENT] = (short) random.nextInt();
+            samples[o + INA219Base.SNAPSHOT_RANGE] = mixedRanges ? random.nextInt(4) : 2;
+        }
+        return samples;
+    }
+
+    /**
+     * Tests that batch conversion of snapshots, with one gain range and with mixed ranges, gives the same values as the INA219Base conversion methods.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void matchesSingleConversion() throws IOException {
+        INA219Base device = new INA219Base(new INA219Simulator(20e-3, 12.0), 0.1, 3.0, INA219.Brng.V32,
+                INA219.Pga.GAIN_8, INA219.Adc.BITS_12, INA219.Adc.BITS_12);
+        device.setAutoRanging(true);
+        BatchConverter converter = new BatchConverter(device);
+        Random random = new Random(3);
+        double[] shunt = new double[N + 2];
+        double[] bus = new double[N + 2];
+        double[] current = new double[N + 2];
+        double[] power = new double[N + 2];
+        for (boolean mixed : new boolean[] { false, true }) {
+            long[] samples = snapshots(random, mixed);
+            converter.convert(samples, INA219Base.SNAPSHOT_LENGTH, N, shunt, bus, current, power, 2);
+            for (int k = 0; k < N; k++) {
+                int o = (k + 1) * INA219Base.SNAPSHOT_LENGTH;
+                long range = samples[o + INA219Base.SNAPSHOT_RANGE];
+                Assert.assertEquals(INA219Base.toShuntVoltage(samples[o + INA219Base.SNAPSHOT_SHUNT_VOLTAGE]),
+                        shunt[k + 2], 0);
+                Assert.assertEquals(INA219Base.toBusVoltage(samples[o + INA219Base.SNAPSHOT_BUS_VOLTAGE]), bus[k + 2],
+                        0);
+                Assert.assertEquals(device.toCurrent(samples[o + INA219Base.SNAPSHOT_CURRENT], range), current[k + 2],
+                        0);
+                Assert.assertEquals(device.toPower(samples[o + INA219Base.SNAPSHOT_POWER], range), power[k + 2], 0);
+            }
+        }
+
+        long[] column = new long[N];
+        for (int k = 0; k < N; k++) {
+            column[k] = (short) random.nextInt();
+        }
+        BatchConverter.toShuntVoltage(column, 0, shunt, 0, N);
+        BatchConverter.toBusVoltage(column, 0, bus, 0, N);
+        converter.toCurrent(column, 0, 1, current, 0, N);
+        converter.toPower(column, 0, 3, power, 0, N);
+        for (int k = 0; k < N; k++) {
+            Assert.assertEquals(INA219Base.toShuntVoltage(column[k]), shunt[k], 0);
+            Assert.assertEquals(INA219Base.toBusVoltage(column[k]), bus[k], 0);
+            Assert.assertEquals(device.toCurrent(column[k], 1), current[k], 0);
+            Assert.assertEquals(device.toPower(column[k], 3), power[k], 0);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * CachingRegisterTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the CachingRegister decorator.
+ */
+public class CachingRegisterTest {
+
+    /**
+     * Counts the transactions passed to a simulator.
+     */
+    private static class CountingRegister implements INA219RegisterIF {
+        private final INA219RegisterIF register;
+        int writes;
+        int reads;
+
+        CountingRegister(final INA219RegisterIF register) {
+            this.register = register;
+        }
+
+        public void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+            writes++;
+            register.writeRegister(ra, value);
+        }
+
+        public int readRegister(final RegisterAddress ra) throws IOException {
+            reads++;
+            return register.readRegister(ra);
+        }
+
+        public short readSignedRegister(final RegisterAddress ra) throws IOException {
+            reads++;
+            return register.readSignedRegister(ra);
+        }
+    }
+
+    /**
+     * Tests that redundant writes are skipped and that configuration and calibration reads are served from the cache.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void redundantWrites() throws IOException {
+        CountingRegister c = new CountingRegister(new INA219Simulator(20e-3, 12.0));
+        CachingRegister r = new CachingRegister(c);
+
+        r.writeRegister(RegisterAddress.CONFIGURATION, 0x019F);
+        r.writeRegister(RegisterAddress.CALIBRATION, 20480);
+        r.writeRegister(RegisterAddress.CONFIGURATION, 0x019F);
+        r.writeRegister(RegisterAddress.CALIBRATION, 20481); // bit 0 is not implemented
+        Assert.assertEquals(2, c.writes);
+        Assert.assertEquals(2, r.getElidedWriteCount());
+
+        Assert.assertEquals(0x019F, r.readRegister(RegisterAddress.CONFIGURATION));
+        Assert.assertEquals(20480, r.readSignedRegister(RegisterAddress.CALIBRATION));
+        Assert.assertEquals(0, c.reads);
+        Assert.assertEquals(10000, r.readSignedRegister(RegisterAddress.CURRENT));
+        Assert.assertEquals(1, c.reads);
+
+        r.writeRegister(RegisterAddress.CONFIGURATION, 0x019B); // triggered mode
+        r.writeRegister(RegisterAddress.CONFIGURATION, 0x019B);
+        Assert.assertEquals(4, c.writes);
+
+        r.writeRegister(RegisterAddress.CONFIGURATION, 0x8000);
+        Assert.assertEquals(0, r.readRegister(RegisterAddress.CALIBRATION));
+        Assert.assertEquals(1, c.reads);
+    }
+
+    /**
+     * Tests that verification detects and repairs a device that lost its calibration.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void detectReset() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219 i = new INA219(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        Assert.assertEquals(200E-3, i.getCurrent(), 0.001);
+
+        s.writeRegister(RegisterAddress.CALIBRATION, 0); // brown-out
+        Assert.assertEquals(0, i.getCurrent(), 0);
+        Assert.assertEquals(0, i.getResetCount());
+
+        i.setVerifyInterval(1);
+        Assert.assertEquals(200E-3, i.getCurrent(), 0.001);
+        Assert.assertEquals(1, i.getResetCount());
+        Assert.assertEquals(200E-3, i.getCurrent(), 0.001);
+        Assert.assertEquals(1, i.getResetCount());
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ChannelStatisticsTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the ChannelStatistics and WindowedStatistics classes against brute force calculations.
+ */
+public class ChannelStatisticsTest {
+
+    /**
+     * Tests the sliding window statistics after every sample of a random sequence.
+     */
+    @Test
+    public void sliding() {
+        final int length = 50;
+        Random r = new Random(1);
+        ChannelStatistics c = new ChannelStatistics(length, 1000);
+        double[] x = new double[1000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = 12.0 + r.nextGaussian() * 0.01;
+            c.add(x[i]);
+            int from = Math.max(0, i - length + 1);
+            int n = i - from + 1;
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            double sum = 0;
+            double sumSquares = 0;
+            for (int j = from; j <= i; j++) {
+                min = Math.min(min, x[j]);
+                max = Math.max(max, x[j]);
+                sum += x[j];
+                sumSquares += x[j] * x[j];
+            }
+            double mean = sum / n;
+            double variance = 0;
+            for (int j = from; j <= i; j++) {
+                variance += (x[j] - mean) * (x[j] - mean);
+            }
+            ChannelStatistics.Summary s = c.getSliding();
+            Assert.assertEquals(n, s.getCount());
+            Assert.assertEquals(min, s.getMin(), 0);
+            Assert.assertEquals(max, s.getMax(), 0);
+            Assert.assertEquals(mean, s.getMean(), 1e-12);
+            Assert.assertEquals(variance / n, s.getVariance(), 1e-12);
+            Assert.assertEquals(Math.sqrt(sumSquares / n), s.getRms(), 1e-12);
+        }
+    }
+
+    /**
+     * Tests the tumbling window statistics and percentile estimates.
+     */
+    @Test
+    public void tumbling() {
+        final int length = 100000;
+        Random r = new Random(2);
+        ChannelStatistics c = new ChannelStatistics(10, length);
+        Assert.assertNull(c.getTumbling());
+        double[] x = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = r.nextDouble();
+            c.add(x[i]);
+        }
+        c.add(5.0);
+        Arrays.sort(x);
+
+        ChannelStatistics.Summary s = c.getTumbling();
+        Assert.assertEquals(length, s.getCount());
+        Assert.assertEquals(x[0], s.getMin(), 0);
+        Assert.assertEquals(x[length - 1], s.getMax(), 0);
+        Assert.assertEquals(0.5, s.getMean(), 0.01);
+        Assert.assertEquals(1.0 / 12, s.getVariance(), 0.002);
+        Assert.assertEquals(Math.sqrt(1.0 / 3), s.getRms(), 0.01);
+        Assert.assertEquals(x[length / 2], s.getP50(), 0.01);
+        Assert.assertEquals(x[length * 99 / 100], s.getP99(), 0.005);
+        Assert.assertEquals(x[length * 999 / 1000], s.getP999(), 0.002);
+
+        ChannelStatistics.Summary partial = c.getTumblingPartial();
+        Assert.assertEquals(1, partial.getCount());
+        Assert.assertEquals(5.0, partial.getP99(), 0);
+    }
+
+    /**
+     * Tests that overflowed samples are excluded from the current and power statistics.
+     */
+    @Test
+    public void overflow() {
+        WindowedStatistics w = new WindowedStatistics(10, 10);
+        w.sample(0, 0.02, 12.0, 0.2, 2.4, false);
+        w.sample(1, 0.33, 12.0, 0, 0, true);
+        Assert.assertEquals(2, w.get(Channel.SHUNT_VOLTAGE).getSliding().getCount());
+        Assert.assertEquals(0.33, w.get(Channel.SHUNT_VOLTAGE).getSliding().getMax(), 0);
+        Assert.assertEquals(1, w.get(Channel.CURRENT).getSliding().getCount());
+        Assert.assertEquals(2.4, w.get(Channel.POWER).getSliding().getMin(), 0);
+    }
+}
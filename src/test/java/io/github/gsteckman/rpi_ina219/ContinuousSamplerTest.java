@@ -0,0 +1,162 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ContinuousSamplerTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the ContinuousSampler and SampleRingBuffer classes.
+ */
+public class ContinuousSamplerTest {
+
+    /**
+     * Tests that the ring buffer returns samples by sequence and detects overwritten samples.
+     */
+    @Test
+    public void ringBuffer() {
+        SampleRingBuffer b = new SampleRingBuffer(3);
+        Assert.assertEquals(4, b.getCapacity());
+        long[] s = new long[INA219Base.SNAPSHOT_LENGTH];
+        for (int i = 0; i < 6; i++) {
+            s[INA219Base.SNAPSHOT_TIMESTAMP] = i;
+            Assert.assertEquals(i, b.add(s, 0));
+        }
+        Assert.assertEquals(5, b.getCursor());
+        Assert.assertEquals(2, b.getOldestSequence());
+        Assert.assertFalse(b.get(1, s, 0));
+        Assert.assertFalse(b.get(6, s, 0));
+        Assert.assertTrue(b.get(2, s, 0));
+        Assert.assertEquals(2, s[INA219Base.SNAPSHOT_TIMESTAMP]);
+    }
+
+    /**
+     * Tests that the sampler is paced by the requested sample period and can be changed while running.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     * @throws InterruptedException
+     *             If the test is interrupted.
+     */
+    @Test
+    public void pacing() throws IOException, InterruptedException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_9,
+                INA219.Adc.BITS_9);
+        ContinuousSampler sampler = new ContinuousSampler(i, new SampleRingBuffer(1024));
+        Assert.assertEquals(168000, sampler.getSamplePeriod());
+
+        sampler.setSamplePeriod(10000000);
+        Assert.assertEquals(10000000, sampler.getSamplePeriod());
+        sampler.start();
+        Thread.sleep(200);
+        long slow = sampler.getSampleCount();
+        sampler.setSamplePeriod(0);
+        Thread.sleep(200);
+        sampler.stop();
+        long fast = sampler.getSampleCount() - slow;
+
+        Assert.assertFalse(sampler.isRunning());
+        Assert.assertTrue("slow " + slow, slow >= 5 && slow <= 22);
+        Assert.assertTrue("fast " + fast, fast > 2 * slow && fast <= 1250);
+        Assert.assertEquals(0, sampler.getErrorCount());
+
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+        Assert.assertTrue(sampler.getBuffer().get(sampler.getBuffer().getCursor(), sample, 0));
+        Assert.assertEquals(2000, sample[INA219Base.SNAPSHOT_SHUNT_VOLTAGE]);
+    }
+
+    /**
+     * Tests that shortening the sample period wakes a sampler waiting out a long period.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     * @throws InterruptedException
+     *             If the test is interrupted.
+     */
+    @Test
+    public void wake() throws IOException, InterruptedException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_9,
+                INA219.Adc.BITS_9);
+        ContinuousSampler sampler = new ContinuousSampler(i, new SampleRingBuffer(1024));
+        sampler.setSamplePeriod(60000000000L);
+        sampler.start();
+        Thread.sleep(50);
+        Assert.assertEquals(1, sampler.getSampleCount());
+        sampler.setSamplePeriod(1000000);
+        Thread.sleep(100);
+        sampler.stop();
+        Assert.assertTrue("samples " + sampler.getSampleCount(), sampler.getSampleCount() > 10);
+    }
+
+    /**
+     * Tests that the sampler counts reads failing with an IOException or a RuntimeException and keeps sampling.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     * @throws InterruptedException
+     *             If the test is interrupted.
+     */
+    @Test
+    public void failures() throws IOException, InterruptedException {
+        final INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        final AtomicReference<RuntimeException> fault = new AtomicReference<RuntimeException>();
+        INA219RegisterIF r = new INA219RegisterIF() {
+            public void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+                s.writeRegister(ra, value);
+            }
+
+            public int readRegister(final RegisterAddress ra) throws IOException {
+                return readSignedRegister(ra) & 0xFFFF;
+            }
+
+            public short readSignedRegister(final RegisterAddress ra) throws IOException {
+                RuntimeException e = fault.get();
+                if (e != null) {
+                    throw e;
+                }
+                return s.readSignedRegister(ra);
+            }
+        };
+        INA219Base i = new INA219Base(r, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_9,
+                INA219.Adc.BITS_9);
+        ContinuousSampler sampler = new ContinuousSampler(i, new SampleRingBuffer(1024));
+        sampler.start();
+        s.setConnected(false);
+        for (int k = 0; k < 500 && sampler.getErrorCount() == 0; k++) {
+            Thread.sleep(10);
+        }
+        s.setConnected(true);
+        long ioErrors = sampler.getErrorCount();
+        Assert.assertTrue(ioErrors > 0);
+        fault.set(new IllegalStateException("Simulated fault"));
+        for (int k = 0; k < 500 && sampler.getErrorCount() == ioErrors; k++) {
+            Thread.sleep(10);
+        }
+        fault.set(null);
+        Assert.assertTrue(sampler.getErrorCount() > ioErrors);
+        long count = sampler.getSampleCount();
+        for (int k = 0; k < 500 && sampler.getSampleCount() == count; k++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(sampler.isRunning());
+        sampler.stop();
+        Assert.assertTrue(sampler.getSampleCount() > count);
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * EnergyAccumulatorTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the EnergyAccumulator class.
+ */
+public class EnergyAccumulatorTest {
+    private static final long MS = 1000000L;
+
+    /**
+     * Tests trapezoidal integration of a ramp over one hour of 1 ms samples.
+     */
+    @Test
+    public void integrate() {
+        EnergyAccumulator e = new EnergyAccumulator(10 * MS);
+        final int n = 3600 * 1000;
+        for (int i = 0; i <= n; i++) {
+            double p = 2.0 * i / n; // 0 to 2 W ramp
+            e.sample(i * MS, 0, 12.0, p / 12.0, p, false);
+        }
+        EnergyAccumulator.Snapshot s = e.getSnapshot();
+        Assert.assertEquals(1.0, s.getWattHours(), 1e-12);
+        Assert.assertEquals(1.0 / 12.0, s.getAmpHours(), 1e-12);
+        Assert.assertEquals(3600 * 1000 * MS, s.getDuration());
+        Assert.assertEquals(n + 1, s.getSampleCount());
+        Assert.assertEquals(0, s.getGapCount());
+    }
+
+    /**
+     * Tests that gaps, overflowed samples and time base restarts are not integrated.
+     */
+    @Test
+    public void gapsAndRestarts() {
+        EnergyAccumulator e = new EnergyAccumulator(10 * MS);
+        e.sample(0, 0, 12.0, 1.0, 3600.0, false);
+        e.sample(MS, 0, 12.0, 1.0, 3600.0, false);
+        e.sample(100 * MS, 0, 12.0, 1.0, 3600.0, false); // gap
+        e.sample(101 * MS, 0, 12.0, 1.0, 3600.0, true); // overflow
+        e.sample(102 * MS, 0, 12.0, 1.0, 3600.0, false);
+        e.sample(103 * MS, 0, 12.0, 1.0, 3600.0, false);
+        e.sample(0, 0, 12.0, 1.0, 3600.0, false); // restart
+        e.sample(MS, 0, 12.0, 1.0, 3600.0, false);
+
+        EnergyAccumulator.Snapshot s = e.getSnapshot();
+        Assert.assertEquals(3 * MS, s.getDuration());
+        Assert.assertEquals(3e-3, s.getWattHours(), 1e-15);
+        Assert.assertEquals(2, s.getGapCount());
+        Assert.assertEquals(1, s.getRestartCount());
+    }
+
+    /**
+     * Tests that a reset from another thread splits the totals without losing any energy.
+     *
+     * @throws InterruptedException
+     *             If the test is interrupted.
+     */
+    @Test
+    public void concurrentReset() throws InterruptedException {
+        final EnergyAccumulator e = new EnergyAccumulator(10 * MS);
+        final int n = 1000000;
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i <= n; i++) {
+                    e.sample(i * MS, 0, 1.0, 1.0, 3600.0, false);
+                }
+            }
+        });
+        writer.start();
+        double total = 0;
+        long samples = 0;
+        while (writer.isAlive()) {
+            EnergyAccumulator.Snapshot s = e.getSnapshotAndReset();
+            total += s.getWattHours();
+            samples += s.getSampleCount();
+        }
+        writer.join();
+        EnergyAccumulator.Snapshot s = e.getSnapshotAndReset();
+        total += s.getWattHours();
+        samples += s.getSampleCount();
+        Assert.assertEquals(n + 1, samples);
+        Assert.assertEquals(n * 1e-3, total, 1e-6);
+        Assert.assertEquals(0, e.getSnapshot().getSampleCount());
+    }
+
+    /**
+     * Tests that the accumulator receives samples from a ContinuousSampler.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     * @throws InterruptedException
+     *             If the test is interrupted.
+     */
+    @Test
+    public void sampler() throws IOException, InterruptedException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        ContinuousSampler sampler = new ContinuousSampler(i, new SampleRingBuffer(16));
+        EnergyAccumulator e = new EnergyAccumulator(100 * MS);
+        sampler.addListener(e);
+        sampler.start();
+        Thread.sleep(200);
+        sampler.stop();
+
+        EnergyAccumulator.Snapshot snapshot = e.getSnapshot();
+        Assert.assertEquals(sampler.getSampleCount(), snapshot.getSampleCount());
+        double hours = snapshot.getDuration() / 3600e9;
+        Assert.assertEquals(i.getPower() * hours, snapshot.getWattHours(), 1e-12);
+        Assert.assertEquals(i.getCurrent() * hours, snapshot.getAmpHours(), 1e-12);
+    }
+}
@@ -15,6 +15,8 @@ package io.github.gsteckman.rpi_ina219;
  */
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.IntBuffer;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -39,4 +41,247 @@ public class INA219BaseTest {
         Assert.assertEquals(200E-3 * 12.0, i.getPower(), 0.01);
         Assert.assertEquals(200E-3, i.getCurrent(), 0.001);
     }
+
+    /**
+     * Tests that a snapshot returns values consistent with the individual register reads.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void snapshot() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+
+        long before = System.nanoTime();
+        Measurement m = i.readSnapshot();
+        Assert.assertTrue(m.getTimestamp() - before >= 0);
+        Assert.assertEquals(i.getShuntVoltage(), m.getShuntVoltage(), 0);
+        Assert.assertEquals(i.getBusVoltage(), m.getBusVoltage(), 0);
+        Assert.assertEquals(i.getPower(), m.getPower(), 0);
+        Assert.assertEquals(i.getCurrent(), m.getCurrent(), 0);
+        Assert.assertFalse(m.isOverflow());
+        Assert.assertEquals(2 * 532000, i.getConversionTime());
+    }
+
+    /**
+     * Tests that the overflow flag is reported in the snapshot.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void snapshotOverflow() throws IOException {
+        INA219Simulator s = new INA219Simulator(330e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+
+        Assert.assertTrue(i.readSnapshot().isOverflow());
+    }
+
+    /**
+     * Tests that the raw getters and raw snapshots agree with the scaled values.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void rawSnapshot() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH + 1];
+        i.readSnapshot(sample, 1);
+        Assert.assertEquals(i.getShuntVoltageRaw(), sample[1 + INA219Base.SNAPSHOT_SHUNT_VOLTAGE]);
+        Assert.assertEquals(i.getBusVoltageRaw(), sample[1 + INA219Base.SNAPSHOT_BUS_VOLTAGE]);
+        Assert.assertEquals(i.getPowerRaw(), sample[1 + INA219Base.SNAPSHOT_POWER]);
+        Assert.assertEquals(i.getCurrentRaw(), sample[1 + INA219Base.SNAPSHOT_CURRENT]);
+        Assert.assertEquals(i.getCurrent(), i.toMeasurement(sample, 1).getCurrent(), 0);
+
+        IntBuffer buf = IntBuffer.allocate(5);
+        i.readSnapshot(buf);
+        Assert.assertArrayEquals(new int[] { 2000, 3000 << 3 | 0x2, (int) sample[1 + INA219Base.SNAPSHOT_POWER],
+                (int) sample[1 + INA219Base.SNAPSHOT_CURRENT], INA219.Pga.GAIN_8.getValue() }, buf.array());
+    }
+
+    /**
+     * Tests that steady state sampling into a caller provided array does not allocate.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void snapshotDoesNotAllocate() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+        IntBuffer buf = IntBuffer.allocate(5);
+        long tid = Thread.currentThread().getId();
+        final int n = 100000;
+
+        for (int k = 0; k < n; k++) { // warm up
+            i.readSnapshot(sample, 0);
+            buf.clear();
+            i.readSnapshot(buf);
+        }
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int k = 0; k < n; k++) {
+            i.readSnapshot(sample, 0);
+            buf.clear();
+            i.readSnapshot(buf);
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid) - before;
+        Assert.assertTrue("allocated " + allocated + " bytes", allocated < n);
+    }
+
+    /**
+     * Tests that a triggered read waits for the conversion time and that the mode bits are written.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void triggerAndRead() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.SAMPLES_4,
+                INA219.Adc.SAMPLES_2, INA219.Mode.SHUNT_BUS_TRIGGERED);
+        Assert.assertEquals(0x3, s.readRegister(RegisterAddress.CONFIGURATION) & 0x7);
+        Assert.assertEquals(2130000 + 1060000, i.getConversionTime());
+
+        long before = System.nanoTime();
+        Measurement m = i.triggerAndRead();
+        Assert.assertTrue(m.getTimestamp() - before >= i.getConversionTime());
+        Assert.assertEquals(200E-3, m.getCurrent(), 0.001);
+
+        i.setMode(INA219.Mode.SHUNT_TRIGGERED);
+        Assert.assertEquals(1060000, i.getConversionTime());
+        i.setMode(INA219.Mode.POWER_DOWN);
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.CONFIGURATION) & 0x7);
+        Assert.assertEquals(0, i.getConversionTime());
+        try {
+            i.triggerAndRead();
+            Assert.fail("triggered read in power-down mode");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(INA219.Mode.POWER_DOWN, i.getMode());
+        }
+    }
+
+    /**
+     * Tests that automatic ranging narrows the gain range for small signals, widens it on overflow and tags each conversion with its range.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void autoRanging() throws IOException {
+        INA219Simulator s = new INA219Simulator(5e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        i.setAutoRanging(true);
+        Assert.assertTrue(i.isAutoRanging());
+
+        INA219.Pga[] expected = { INA219.Pga.GAIN_8, INA219.Pga.GAIN_4, INA219.Pga.GAIN_2 };
+        for (INA219.Pga pga : expected) {
+            for (int k = 0; k < 8; k++) {
+                Measurement m = i.readSnapshot();
+                Assert.assertEquals(pga, m.getPga());
+                Assert.assertEquals(50e-3, m.getCurrent(), 1e-3);
+            }
+        }
+        Measurement m = i.readSnapshot();
+        Assert.assertEquals(INA219.Pga.GAIN_1, m.getPga());
+        Assert.assertEquals(0, (s.readRegister(RegisterAddress.CONFIGURATION) >> 11) & 0x3);
+        Assert.assertEquals(50e-3, m.getCurrent(), 1e-4);
+
+        s.setShuntVoltage(100e-3);
+        m = i.readSnapshot();
+        Assert.assertTrue(m.isOverflow());
+        Assert.assertEquals(INA219.Pga.GAIN_1, m.getPga());
+        m = i.readSnapshot();
+        Assert.assertTrue(m.isOverflow());
+        Assert.assertEquals(INA219.Pga.GAIN_2, m.getPga());
+        for (int k = 0; k < 20; k++) {
+            m = i.readSnapshot();
+            Assert.assertFalse(m.isOverflow());
+            Assert.assertEquals(INA219.Pga.GAIN_4, m.getPga());
+            Assert.assertEquals(1.0, m.getCurrent(), 1e-3);
+        }
+
+        i.setAutoRanging(false);
+        Assert.assertEquals(3.0 / 32768, i.toCurrent(1), 0);
+    }
+
+    /**
+     * Tests that conversions read into a buffer drive automatic ranging and are tagged with the range they were taken at.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void rawSnapshotAutoRanging() throws IOException {
+        INA219Simulator s = new INA219Simulator(5e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        i.setAutoRanging(true);
+        IntBuffer buf = IntBuffer.allocate(5);
+
+        for (int k = 0; k < 8; k++) {
+            buf.clear();
+            i.readSnapshot(buf);
+            Assert.assertEquals(INA219.Pga.GAIN_8.getValue(), buf.get(4));
+        }
+        buf.clear();
+        i.readSnapshot(buf);
+        Assert.assertEquals(INA219.Pga.GAIN_4.getValue(), buf.get(4));
+        Assert.assertEquals(50e-3, i.toCurrent(buf.get(3), buf.get(4)), 1e-3);
+
+        s.setShuntVoltage(300e-3);
+        buf.clear();
+        i.readSnapshot(buf);
+        Assert.assertTrue(INA219Base.isOverflow(buf.get(1)));
+        Assert.assertEquals(INA219.Pga.GAIN_4.getValue(), buf.get(4));
+        buf.clear();
+        i.readSnapshot(buf);
+        Assert.assertEquals(INA219.Pga.GAIN_8.getValue(), buf.get(4));
+    }
+
+    /**
+     * Tests that the ADC settings change at runtime with only the configuration register, and that adaptive averaging steps up while the signal is
+     * steady and drops to the fast setting on a transient.
+     * @throws IOException Not thrown due to use of the simulator.
+     */
+    @Test
+    public void adaptiveAveraging() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        int calibration = s.readRegister(RegisterAddress.CALIBRATION);
+        i.setAdc(INA219.Adc.SAMPLES_16, INA219.Adc.SAMPLES_4);
+        Assert.assertEquals(12, (s.readRegister(RegisterAddress.CONFIGURATION) >> 7) & 0xF);
+        Assert.assertEquals(10, (s.readRegister(RegisterAddress.CONFIGURATION) >> 3) & 0xF);
+        Assert.assertEquals(calibration, s.readRegister(RegisterAddress.CALIBRATION));
+        Assert.assertEquals(8_510_000 + 2_130_000, i.getConversionTime());
+        Assert.assertEquals(8_510_000 + 2_130_000, i.readSnapshot().getConversionTime());
+
+        i.setAdaptiveAveraging(new AdaptiveAveraging(INA219.Adc.BITS_12, INA219.Adc.SAMPLES_8, 1e-3, 4));
+        INA219.Adc[] expected = { INA219.Adc.BITS_12, INA219.Adc.SAMPLES_2, INA219.Adc.SAMPLES_4 };
+        Measurement m = i.readSnapshot();
+        Assert.assertEquals(2 * INA219.Adc.BITS_12.getConversionTime(), m.getConversionTime());
+        for (INA219.Adc adc : expected) {
+            for (int k = 0; k < 4; k++) {
+                m = i.readSnapshot();
+                Assert.assertEquals(2 * adc.getConversionTime(), m.getConversionTime());
+            }
+        }
+        for (int k = 0; k < 10; k++) {
+            m = i.readSnapshot();
+            Assert.assertEquals(2 * INA219.Adc.SAMPLES_8.getConversionTime(), m.getConversionTime());
+        }
+        Assert.assertEquals(INA219.Adc.SAMPLES_8, i.getShuntAdc());
+        Assert.assertEquals(11, (s.readRegister(RegisterAddress.CONFIGURATION) >> 3) & 0xF);
+
+        s.setShuntVoltage(50e-3);
+        m = i.readSnapshot();
+        Assert.assertEquals(2 * INA219.Adc.SAMPLES_8.getConversionTime(), m.getConversionTime());
+        Assert.assertEquals(INA219.Adc.BITS_12, i.getBusAdc());
+        Assert.assertEquals(INA219.Adc.BITS_12, i.getShuntAdc());
+        Assert.assertEquals(2 * INA219.Adc.BITS_12.getConversionTime(), i.readSnapshot().getConversionTime());
+        Assert.assertEquals(calibration, s.readRegister(RegisterAddress.CALIBRATION));
+
+        i.setAdaptiveAveraging(null);
+        for (int k = 0; k < 10; k++) {
+            i.readSnapshot();
+        }
+        Assert.assertEquals(INA219.Adc.BITS_12, i.getShuntAdc());
+    }
 }
@@ -0,0 +1,220 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * INA219BusManagerTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the INA219BusManager using one simulator per bus address.
+ */
+public class INA219BusManagerTest {
+
+    private static INA219BusManager createManager(final Map<INA219.Address, INA219Simulator> sims) throws IOException {
+        INA219BusManager m = new INA219BusManager(new INA219BusManager.RegisterFactory() {
+            public INA219RegisterIF create(final INA219.Address address) {
+                return sims.get(address);
+            }
+        }, 64);
+        int weight = 1;
+        for (INA219.Address a : INA219.Address.values()) {
+            sims.put(a, new INA219Simulator(a.getValue() * 1e-4, 12.0));
+            m.addDevice(a, weight, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_9,
+                    INA219.Adc.BITS_9);
+            weight *= 2;
+        }
+        return m;
+    }
+
+    /**
+     * Tests that devices are visited in proportion to their weights and that each device's samples go to its own buffer.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void weightedRoundRobin() throws IOException {
+        Map<INA219.Address, INA219Simulator> sims = new EnumMap<INA219.Address, INA219Simulator>(INA219.Address.class);
+        INA219BusManager m = createManager(sims);
+        INA219BusManager.Slot[] slots = new INA219BusManager.Slot[4];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new INA219BusManager.Slot(INA219.Address.values()[i], null, 1 << i, null);
+        }
+        int[] visits = new int[4];
+        for (int i = 0; i < 15; i++) {
+            visits[INA219BusManager.next(slots).address.ordinal()]++;
+        }
+        Assert.assertArrayEquals(new int[] { 1, 2, 4, 8 }, visits);
+
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+        for (INA219.Address a : INA219.Address.values()) {
+            Assert.assertEquals(-1, m.getBuffer(a).getCursor());
+        }
+        m.start();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Assert.fail();
+        }
+        m.close();
+        for (INA219.Address a : INA219.Address.values()) {
+            SampleRingBuffer b = m.getBuffer(a);
+            Assert.assertTrue(b.get(b.getCursor(), sample, 0));
+            Assert.assertEquals(a.getValue() * 10, sample[INA219Base.SNAPSHOT_SHUNT_VOLTAGE]);
+            Assert.assertEquals(0, m.getErrorCount(a));
+        }
+        long c40 = m.getSampleCount(INA219.Address.ADDR_40);
+        long c45 = m.getSampleCount(INA219.Address.ADDR_45);
+        Assert.assertTrue(c40 > 0);
+        Assert.assertEquals(8.0, (double) c45 / c40, 0.5);
+    }
+
+    /**
+     * Tests that a thread reading a managed device while the manager samples it does not deadlock with the sampling thread.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void concurrentRead() throws Exception {
+        final INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        s.setLatency(20000);
+        INA219BusManager m = new INA219BusManager(new INA219BusManager.RegisterFactory() {
+            public INA219RegisterIF create(final INA219.Address address) {
+                return s;
+            }
+        }, 64);
+        final INA219 device = m.addDevice(INA219.Address.ADDR_40, 1, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8,
+                INA219.Adc.BITS_9, INA219.Adc.BITS_9);
+        final long[] reads = new long[1];
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int k = 0; k < 2000; k++) {
+                        device.getCurrent();
+                        reads[0]++;
+                    }
+                } catch (IOException e) {
+                    Assert.fail(e.toString());
+                }
+            }
+        });
+        reader.setDaemon(true);
+        m.start();
+        reader.start();
+        reader.join(10000);
+        Assert.assertFalse("reader deadlocked after " + reads[0] + " reads", reader.isAlive());
+        m.close();
+        Assert.assertTrue(m.getSampleCount(INA219.Address.ADDR_40) > 0);
+    }
+
+    /**
+     * Tests that the wait for the bus while another device holds it is reported separately and not counted in the duty cycle.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void busWait() throws Exception {
+        final INA219Simulator slow = new INA219Simulator(20e-3, 12.0);
+        final INA219Simulator fast = new INA219Simulator(20e-3, 12.0);
+        INA219BusManager m = new INA219BusManager(new INA219BusManager.RegisterFactory() {
+            public INA219RegisterIF create(final INA219.Address address) {
+                return address == INA219.Address.ADDR_40 ? slow : fast;
+            }
+        }, 64);
+        final INA219 holder = m.addDevice(INA219.Address.ADDR_40, 1, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8,
+                INA219.Adc.BITS_9, INA219.Adc.BITS_9);
+        INA219 device = m.addDevice(INA219.Address.ADDR_41, 1, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8,
+                INA219.Adc.BITS_9, INA219.Adc.BITS_9);
+        INA219Instrumentation instr = device.getInstrumentation();
+        instr.setEnabled(true);
+        slow.setLatency(100000000L);
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    started.countDown();
+                    holder.getCurrent();
+                } catch (IOException e) {
+                    Assert.fail(e.toString());
+                }
+            }
+        });
+        t.start();
+        started.await();
+        Thread.sleep(20);
+        instr.reset();
+        device.getCurrent();
+        t.join();
+
+        Assert.assertTrue(instr.getReadLatency("CURRENT", 100) >= 50000000L);
+        Assert.assertTrue(instr.getBusWaitFraction() > 0.5);
+        Assert.assertTrue(instr.getDutyCycle() < 0.1);
+        m.close();
+    }
+
+    /**
+     * Tests that a failing device with retries enabled is retried on later passes instead of holding up the sampling of the other devices.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void failingDevice() throws Exception {
+        final Map<INA219.Address, INA219Simulator> sims = new EnumMap<INA219.Address, INA219Simulator>(
+                INA219.Address.class);
+        sims.put(INA219.Address.ADDR_40, new INA219Simulator(20e-3, 12.0));
+        sims.put(INA219.Address.ADDR_41, new INA219Simulator(20e-3, 12.0));
+        INA219BusManager m = new INA219BusManager(new INA219BusManager.RegisterFactory() {
+            public INA219RegisterIF create(final INA219.Address address) {
+                return sims.get(address);
+            }
+        }, 64);
+        m.addDevice(INA219.Address.ADDR_40, 1, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_9,
+                INA219.Adc.BITS_9);
+        INA219 failing = m.addDevice(INA219.Address.ADDR_41, 1, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8,
+                INA219.Adc.BITS_9, INA219.Adc.BITS_9);
+        failing.setRetries(10, 50000000L);
+        sims.get(INA219.Address.ADDR_41).setConnected(false);
+        m.start();
+        Thread.sleep(200);
+        m.close();
+        Assert.assertTrue(m.getSampleCount(INA219.Address.ADDR_40) > 100);
+        Assert.assertEquals(0, m.getSampleCount(INA219.Address.ADDR_41));
+        long errors = m.getErrorCount(INA219.Address.ADDR_41);
+        Assert.assertTrue(errors >= 1 && errors <= 4);
+        Assert.assertEquals(errors, failing.getRetryCount());
+    }
+
+    /**
+     * Tests that a device address may only be added once.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateAddress() throws IOException {
+        Map<INA219.Address, INA219Simulator> sims = new EnumMap<INA219.Address, INA219Simulator>(INA219.Address.class);
+        INA219BusManager m = createManager(sims);
+        m.addDevice(INA219.Address.ADDR_40, 1, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_9,
+                INA219.Adc.BITS_9);
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * INA219InstrumentationTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the INA219Instrumentation and LatencyHistogram.
+ */
+public class INA219InstrumentationTest {
+
+    /**
+     * Tests that percentiles are reported within the precision of the histogram buckets.
+     */
+    @Test
+    public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        Assert.assertEquals(0, h.getValueAtPercentile(50));
+        for (long v = 1; v <= 100000; v++) {
+            h.record(v * 10);
+        }
+        Assert.assertEquals(100000, h.getCount());
+        Assert.assertEquals(1000000, h.getMax());
+        Assert.assertEquals(500005, h.getMean(), 1e-6);
+        Assert.assertEquals(500000, h.getValueAtPercentile(50), 500000 / 16);
+        Assert.assertEquals(990000, h.getValueAtPercentile(99), 990000 / 16);
+        Assert.assertEquals(1000000, h.getValueAtPercentile(100));
+        h.record(Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, h.getMax());
+        h.reset();
+        Assert.assertEquals(0, h.getCount());
+    }
+
+    /**
+     * Tests that register accesses are counted and timed only while enabled, and that the measurements are readable through JMX.
+     *
+     * @throws IOException
+     *             Not thrown except by injected errors.
+     * @throws JMException
+     *             If the MBean could not be registered or read.
+     */
+    @Test
+    public void registerAccesses() throws IOException, JMException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219 i = new INA219(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        INA219Instrumentation instr = i.getInstrumentation();
+        i.readSnapshot();
+        Assert.assertFalse(instr.isEnabled());
+        Assert.assertEquals(0, instr.getTransactionCount());
+        Assert.assertNull(instr.getReadHistogram(RegisterAddress.CURRENT));
+
+        instr.setEnabled(true);
+        s.setLatency(200000);
+        for (int k = 0; k < 10; k++) {
+            i.readSnapshot();
+        }
+        s.failNext(1);
+        try {
+            i.getCurrent();
+            Assert.fail("injected error not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(41, instr.getTransactionCount());
+        Assert.assertEquals(1, instr.getErrorCount());
+        Assert.assertEquals(11, instr.getReadHistogram(RegisterAddress.CURRENT).getCount());
+        Assert.assertTrue(instr.getReadLatency("POWER", 50) >= 200000);
+        Assert.assertTrue(instr.getDutyCycle() > 0 && instr.getDutyCycle() <= 1);
+        Assert.assertTrue(Double.isNaN(instr.getAchievedSampleRate()));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = instr.register(server, "test");
+        try {
+            Assert.assertEquals(41L, server.getAttribute(name, "TransactionCount"));
+            Object p = server.invoke(name, "getReadLatency", new Object[] { "BUS_VOLTAGE", 99.0 },
+                    new String[] { String.class.getName(), double.class.getName() });
+            Assert.assertTrue((Long) p >= 200000);
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            Assert.assertEquals(0L, server.getAttribute(name, "ErrorCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+
+        instr.setEnabled(false);
+        i.readSnapshot();
+        Assert.assertEquals(0, instr.getTransactionCount());
+    }
+}
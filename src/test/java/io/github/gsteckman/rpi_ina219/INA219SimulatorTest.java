@@ -15,6 +15,8 @@ package io.github.gsteckman.rpi_ina219;
  */
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.function.LongSupplier;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -62,4 +64,177 @@ public class INA219SimulatorTest {
         Assert.assertEquals(-28928, s.readSignedRegister(RegisterAddress.CURRENT));
         Assert.assertEquals(35232, s.readRegister(RegisterAddress.POWER));
     }
+
+    /**
+     * Tests that without conversion timing every register read reflects the present shunt voltage, without a read of the bus voltage register in
+     * between.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void testLiveValues() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 11.98);
+        s.writeRegister(RegisterAddress.CONFIGURATION, 0x019F);
+        s.writeRegister(RegisterAddress.CALIBRATION, 20480);
+        Assert.assertEquals(2000, s.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE));
+        s.setShuntVoltage(-10e-3);
+        Assert.assertEquals(-1000, s.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE));
+        s.setShuntVoltage(10e-3);
+        Assert.assertEquals(5000, s.readSignedRegister(RegisterAddress.CURRENT));
+        s.setShuntVoltage(20e-3);
+        Assert.assertEquals(5990, s.readRegister(RegisterAddress.POWER));
+
+        INA219 i = new INA219(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        s.setShuntVoltage(5e-3);
+        Assert.assertEquals(5e-3, i.getShuntVoltage(), 1e-9);
+        s.setShuntVoltage(30e-3);
+        Assert.assertEquals(30e-3, i.getShuntVoltage(), 1e-9);
+    }
+
+    /**
+     * Tests that conversions complete at the period given by the ADC settings and mode, and that the conversion ready flag is set and cleared as on the
+     * device.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void testConversionTiming() throws IOException {
+        final long[] now = { 1000 };
+        LongSupplier clock = new LongSupplier() {
+            public long getAsLong() {
+                return now[0];
+            }
+        };
+        INA219Simulator s = new INA219Simulator(Waveform.constant(20e-3), Waveform.constant(11.98), clock);
+        s.writeRegister(RegisterAddress.CONFIGURATION, 0x019F); // 12 bit, shunt and bus continuous
+        s.writeRegister(RegisterAddress.CALIBRATION, 20480);
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.BUS_VOLTAGE));
+
+        now[0] += 2 * 532000 - 1;
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.BUS_VOLTAGE) & 0x2);
+        now[0]++;
+        Assert.assertEquals(2995 << 3 | 0x2, s.readRegister(RegisterAddress.BUS_VOLTAGE));
+        Assert.assertEquals(2000, s.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE));
+        Assert.assertEquals(5990, s.readRegister(RegisterAddress.POWER));
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.BUS_VOLTAGE) & 0x2);
+        now[0] += 2 * 532000;
+        Assert.assertEquals(0x2, s.readRegister(RegisterAddress.BUS_VOLTAGE) & 0x2);
+
+        s.writeRegister(RegisterAddress.CONFIGURATION, 0x0199); // shunt only, triggered
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.BUS_VOLTAGE) & 0x2);
+        now[0] += 532000;
+        Assert.assertEquals(0x2, s.readRegister(RegisterAddress.BUS_VOLTAGE) & 0x2);
+        s.readRegister(RegisterAddress.POWER);
+        now[0] += 10 * 532000;
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.BUS_VOLTAGE) & 0x2);
+
+        s.writeRegister(RegisterAddress.CONFIGURATION, 0x0198); // power-down
+        now[0] += 10 * 532000;
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.BUS_VOLTAGE) & 0x2);
+    }
+
+    /**
+     * Tests that a conversion averages the waveform over its conversion time and is truncated to the ADC resolution.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void testAveraging() throws IOException {
+        final long[] now = { 0 };
+        LongSupplier clock = new LongSupplier() {
+            public long getAsLong() {
+                return now[0];
+            }
+        };
+        INA219Simulator s = new INA219Simulator(Waveform.sine(0.1, 0.05, 68100000), Waveform.constant(12.0), clock);
+        s.writeRegister(RegisterAddress.CONFIGURATION, 0x1FFD); // shunt continuous, 128 samples
+        now[0] += 68100000;
+        Assert.assertEquals(10000, s.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE), 2);
+
+        s.setShuntWaveform(Waveform.constant(0.10009));
+        s.writeRegister(RegisterAddress.CONFIGURATION, 0x1805); // shunt continuous, 9 bit
+        now[0] += 84000;
+        Assert.assertEquals(10008, s.readSignedRegister(RegisterAddress.SHUNT_VOLTAGE));
+    }
+
+    /**
+     * Tests a recorded waveform read from CSV text.
+     *
+     * @throws IOException
+     *             Not thrown as the text is valid.
+     */
+    @Test
+    public void testCsvWaveform() throws IOException {
+        Waveform w = Waveform.fromCsv(new StringReader("time,volts\n# comment\n10,1\n11,3\n12,2\n"), true);
+        Assert.assertEquals(1, w.valueAt(0), 0);
+        Assert.assertEquals(2, w.valueAt(500000000L), 1e-9);
+        Assert.assertEquals(3, w.valueAt(1000000000L), 0);
+        Assert.assertEquals(2.5, w.valueAt(3500000000L), 1e-9);
+        w = Waveform.fromCsv(new StringReader("0,1\n1,3\n"), false);
+        Assert.assertEquals(3, w.valueAt(5000000000L), 0);
+        try {
+            Waveform.fromCsv(new StringReader("0,1\n1,x\n"), false);
+            Assert.fail("invalid line accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests injected errors, disconnection and bus latency.
+     *
+     * @throws IOException
+     *             Not thrown except by injected errors.
+     */
+    @Test
+    public void testFaultInjection() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 11.98);
+        s.writeRegister(RegisterAddress.CALIBRATION, 20480);
+        s.failNext(2);
+        for (int i = 0; i < 2; i++) {
+            try {
+                s.readRegister(RegisterAddress.CURRENT);
+                Assert.fail("injected error not thrown");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(10000, s.readSignedRegister(RegisterAddress.CURRENT));
+
+        s.setConnected(false);
+        try {
+            s.readRegister(RegisterAddress.CALIBRATION);
+            Assert.fail("disconnected device responded");
+        } catch (IOException e) {
+            // expected
+        }
+        s.setConnected(true);
+        Assert.assertEquals(0x399F, s.readRegister(RegisterAddress.CONFIGURATION));
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.CALIBRATION));
+        Assert.assertEquals(3, s.getErrorCount());
+        Assert.assertEquals(7, s.getTransactionCount());
+
+        s.setErrorRate(0.5, 1);
+        int failed = 0;
+        for (int i = 0; i < 1000; i++) {
+            try {
+                s.readRegister(RegisterAddress.SHUNT_VOLTAGE);
+            } catch (IOException e) {
+                failed++;
+            }
+        }
+        Assert.assertTrue("failed " + failed, failed > 400 && failed < 600);
+
+        s.setErrorRate(0, 1);
+        s.setLatency(1000000);
+        long before = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            s.readRegister(RegisterAddress.SHUNT_VOLTAGE);
+        }
+        Assert.assertTrue(System.nanoTime() - before >= 3000000);
+    }
 }
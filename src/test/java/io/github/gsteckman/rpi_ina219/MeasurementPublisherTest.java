@@ -0,0 +1,244 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * MeasurementPublisherTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the MeasurementPublisher.
+ */
+public class MeasurementPublisherTest {
+    private static final Executor DIRECT = new Executor() {
+        public void execute(final Runnable r) {
+            r.run();
+        }
+    };
+
+    /**
+     * A subscriber that records what it receives and cancels after a limit. A stepwise recorder requests the next measurement from onNext, so that
+     * it never has more than one outstanding.
+     */
+    private static final class Recorder implements Flow.Subscriber<Measurement> {
+        private final List<Measurement> received = new ArrayList<Measurement>();
+        private final int limit;
+        private final boolean stepwise;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+        private volatile boolean completed;
+
+        Recorder(final int limit) {
+            this(limit, false);
+        }
+
+        Recorder(final int limit, final boolean stepwise) {
+            this.limit = limit;
+            this.stepwise = stepwise;
+        }
+
+        public void onSubscribe(final Flow.Subscription s) {
+            subscription = s;
+        }
+
+        public synchronized void onNext(final Measurement m) {
+            received.add(m);
+            if (received.size() == limit) {
+                subscription.cancel();
+                done.countDown();
+            } else if (stepwise) {
+                subscription.request(1);
+            }
+        }
+
+        public void onError(final Throwable t) {
+            done.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+
+        synchronized List<Measurement> getReceived() {
+            return new ArrayList<Measurement>(received);
+        }
+    }
+
+    /**
+     * Tests that the device is read only while there is outstanding demand.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void demandDrivesSampling() throws Exception {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        MeasurementPublisher p = new MeasurementPublisher(i, 4, MeasurementPublisher.OverflowPolicy.DROP_OLDEST,
+                DIRECT);
+        Recorder r = new Recorder(5);
+        long before = s.getTransactionCount();
+        p.subscribe(r);
+        Thread.sleep(20);
+        Assert.assertEquals(before, s.getTransactionCount());
+        Assert.assertEquals(0, p.getSampleCount());
+
+        r.subscription.request(5);
+        Assert.assertTrue(r.done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        Assert.assertEquals(5, p.getSampleCount());
+        Assert.assertEquals(5, r.getReceived().size());
+        Assert.assertEquals(200e-3, r.getReceived().get(4).getCurrent(), 1e-3);
+
+        Recorder late = new Recorder(Integer.MAX_VALUE);
+        p.close();
+        p.subscribe(late);
+        Assert.assertTrue(late.completed);
+    }
+
+    /**
+     * Tests what each overflow policy keeps for a subscriber without demand while another subscriber drives sampling.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void overflowPolicies() throws Exception {
+        for (MeasurementPublisher.OverflowPolicy policy : MeasurementPublisher.OverflowPolicy.values()) {
+            INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+            INA219Base device = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                    INA219.Adc.BITS_12);
+            MeasurementPublisher p = new MeasurementPublisher(device, 4, policy, DIRECT);
+            Recorder fast = new Recorder(100, true);
+            Recorder slow = new Recorder(4);
+            p.subscribe(fast);
+            p.subscribe(slow);
+            fast.subscription.request(1);
+            Assert.assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+            for (int k = 0; k < 500 && p.getDroppedCount() < 96; k++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(100, p.getSampleCount());
+            Assert.assertEquals(96, p.getDroppedCount());
+
+            slow.subscription.request(4);
+            List<Measurement> all = fast.getReceived();
+            List<Measurement> kept = slow.getReceived();
+            Assert.assertEquals(4, kept.size());
+            int[] expected;
+            switch (policy) {
+            case DROP_OLDEST:
+                expected = new int[] { 96, 97, 98, 99 };
+                break;
+            case DROP_NEWEST:
+                expected = new int[] { 0, 1, 2, 3 };
+                break;
+            default:
+                expected = new int[] { 0, 1, 2, 99 };
+                break;
+            }
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(policy.toString(), all.get(expected[i]).getTimestamp(), kept.get(i).getTimestamp());
+            }
+            if (policy == MeasurementPublisher.OverflowPolicy.AGGREGATE) {
+                Assert.assertNotSame(all.get(99), kept.get(3));
+                Assert.assertEquals(all.get(99).getCurrent(), kept.get(3).getCurrent(), 1e-9);
+            }
+            p.close();
+        }
+    }
+
+    /**
+     * Tests that failed reads are retried no faster than the minimum retry interval when the device is powered down, so that its conversion time is
+     * zero.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void failureBackoff() throws Exception {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        i.setMode(INA219.Mode.POWER_DOWN);
+        Assert.assertEquals(0, i.getConversionTime());
+        MeasurementPublisher p = new MeasurementPublisher(i, 4, MeasurementPublisher.OverflowPolicy.DROP_OLDEST,
+                DIRECT);
+        Recorder r = new Recorder(1);
+        p.subscribe(r);
+        s.setConnected(false);
+        r.subscription.request(1);
+        Thread.sleep(100);
+        p.close();
+        long errors = p.getErrorCount();
+        Assert.assertTrue("errors " + errors, errors > 0 && errors <= 11);
+        Assert.assertEquals(0, p.getSampleCount());
+    }
+
+    /**
+     * Tests that a RuntimeException from a read is counted and that publishing continues once reads succeed again.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void runtimeFailure() throws Exception {
+        final INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        final AtomicReference<RuntimeException> fault = new AtomicReference<RuntimeException>();
+        INA219RegisterIF r = new INA219RegisterIF() {
+            public void writeRegister(final RegisterAddress ra, final int value) throws IOException {
+                s.writeRegister(ra, value);
+            }
+
+            public int readRegister(final RegisterAddress ra) throws IOException {
+                return readSignedRegister(ra) & 0xFFFF;
+            }
+
+            public short readSignedRegister(final RegisterAddress ra) throws IOException {
+                RuntimeException e = fault.get();
+                if (e != null) {
+                    throw e;
+                }
+                return s.readSignedRegister(ra);
+            }
+        };
+        INA219Base i = new INA219Base(r, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        MeasurementPublisher p = new MeasurementPublisher(i, 4, MeasurementPublisher.OverflowPolicy.DROP_OLDEST,
+                DIRECT);
+        Recorder recorder = new Recorder(3);
+        p.subscribe(recorder);
+        fault.set(new IllegalStateException("Simulated fault"));
+        recorder.subscription.request(3);
+        for (int k = 0; k < 500 && p.getErrorCount() == 0; k++) {
+            Thread.sleep(10);
+        }
+        fault.set(null);
+        Assert.assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(p.getErrorCount() > 0);
+        Assert.assertEquals(3, recorder.getReceived().size());
+        p.close();
+    }
+}
@@ -0,0 +1,173 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * MetricsExporterTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the MetricsExporter, using a local HTTP client.
+ */
+public class MetricsExporterTest {
+    private static HttpURLConnection open(final MetricsExporter e, final String path) throws IOException {
+        URL url = new URL("http", e.getAddress().getHostString(), e.getAddress().getPort(), path);
+        HttpURLConnection c = (HttpURLConnection) url.openConnection();
+        c.setReadTimeout(10000);
+        return c;
+    }
+
+    private static String get(final MetricsExporter e, final String path) throws IOException {
+        HttpURLConnection c = open(e, path);
+        Assert.assertEquals(200, c.getResponseCode());
+        StringBuilder b = new StringBuilder();
+        BufferedReader r = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.US_ASCII));
+        String line;
+        while ((line = r.readLine()) != null) {
+            b.append(line).append('\n');
+        }
+        r.close();
+        return b.toString();
+    }
+
+    private static double value(final String text, final String metric) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(metric + " ")) {
+                return Double.parseDouble(line.substring(metric.length() + 1));
+            }
+        }
+        Assert.fail("No " + metric + " in\n" + text);
+        return 0;
+    }
+
+    /**
+     * Tests the Prometheus response, that scrapes make no register reads, and that scrapes without new samples share one rendering.
+     *
+     * @throws IOException
+     *             If the local HTTP request failed.
+     */
+    @Test
+    public void scrape() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base device = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        SampleRingBuffer buffer = new SampleRingBuffer(16);
+        WindowedStatistics statistics = new WindowedStatistics(10, 10);
+        EnergyAccumulator energy = new EnergyAccumulator(1000000000L);
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+        for (int k = 0; k < 3; k++) {
+            device.readSnapshot(sample, 0);
+            sample[INA219Base.SNAPSHOT_TIMESTAMP] = k * 1000000L;
+            buffer.add(sample, 0);
+            Measurement m = device.toMeasurement(sample, 0);
+            statistics.sample(m.getTimestamp(), m.getShuntVoltage(), m.getBusVoltage(), m.getCurrent(), m.getPower(),
+                    m.isOverflow());
+            energy.sample(m.getTimestamp(), m.getShuntVoltage(), m.getBusVoltage(), m.getCurrent(), m.getPower(),
+                    m.isOverflow());
+        }
+        MetricsExporter e = new MetricsExporter(device, buffer, 0);
+        e.setStatistics(statistics);
+        e.setEnergyAccumulator(energy);
+        e.start();
+        try {
+            long transactions = s.getTransactionCount();
+            String text = get(e, "/metrics");
+            for (int k = 0; k < 4; k++) {
+                Assert.assertEquals(text, get(e, "/metrics"));
+            }
+            Assert.assertEquals(transactions, s.getTransactionCount());
+            Assert.assertEquals(5, e.getScrapeCount());
+            Assert.assertEquals(1, e.getRenderCount());
+
+            Assert.assertEquals(3, value(text, "ina219_samples_total"), 0);
+            Assert.assertEquals(20e-3, value(text, "ina219_shunt_voltage_volts"), 1e-9);
+            Assert.assertEquals(12.0, value(text, "ina219_bus_voltage_volts"), 1e-9);
+            Assert.assertEquals(0.2, value(text, "ina219_current_amperes"), 1e-3);
+            Assert.assertEquals(2.4, value(text, "ina219_power_watts"), 0.02);
+            Assert.assertEquals(0, value(text, "ina219_overflow"), 0);
+            Assert.assertEquals(0.2, value(text, "ina219_window{channel=\"current\",window=\"sliding\",stat=\"mean\"}"),
+                    1e-3);
+            Assert.assertEquals(3, value(text, "ina219_window{channel=\"power\",window=\"sliding\",stat=\"count\"}"),
+                    0);
+            Assert.assertEquals(2.4 * 2e-3 / 3600, value(text, "ina219_energy_watt_hours_total"), 1e-8);
+            Assert.assertTrue(text.contains("# TYPE ina219_power_watts gauge\n"));
+
+            device.readSnapshot(sample, 0);
+            buffer.add(sample, 0);
+            Assert.assertEquals(4, value(get(e, "/metrics"), "ina219_samples_total"), 0);
+            Assert.assertEquals(2, e.getRenderCount());
+
+            // the third rendering reuses the byte buffer of the first
+            device.readSnapshot(sample, 0);
+            buffer.add(sample, 0);
+            String third = get(e, "/metrics");
+            Assert.assertEquals(5, value(third, "ina219_samples_total"), 0);
+            Assert.assertTrue(third.endsWith("\nina219_gaps_total 0.0\n"));
+            Assert.assertEquals(3, e.getRenderCount());
+        } finally {
+            e.close();
+        }
+    }
+
+    /**
+     * Tests that a stream delivers each sample added after the request as a CSV line.
+     *
+     * @throws Exception
+     *             If the local HTTP request failed or the test was interrupted.
+     */
+    @Test
+    public void stream() throws Exception {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base device = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        SampleRingBuffer buffer = new SampleRingBuffer(1024);
+        MetricsExporter e = new MetricsExporter(device, buffer, 0);
+        e.setFlushInterval(10000000L);
+        e.start();
+        try {
+            HttpURLConnection c = open(e, "/stream");
+            Assert.assertEquals(200, c.getResponseCode());
+            BufferedReader r = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.US_ASCII));
+            Assert.assertEquals("timestamp,shunt_voltage,bus_voltage,current,power,overflow", r.readLine());
+            long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+            final int n = 600;
+            long transactions = s.getTransactionCount();
+            for (int k = 0; k < n; k++) {
+                device.readSnapshot(sample, 0);
+                buffer.add(sample, 0);
+            }
+            Assert.assertEquals(4 * n, s.getTransactionCount() - transactions);
+            for (int k = 0; k < n; k++) {
+                String[] fields = r.readLine().split(",");
+                Assert.assertEquals(6, fields.length);
+                Assert.assertEquals(20e-3, Double.parseDouble(fields[1]), 1e-9);
+                Assert.assertEquals(12.0, Double.parseDouble(fields[2]), 1e-9);
+                Assert.assertEquals(0.2, Double.parseDouble(fields[3]), 1e-3);
+                Assert.assertEquals("0", fields[5]);
+            }
+            Assert.assertEquals(4 * n, s.getTransactionCount() - transactions);
+            r.close();
+            c.disconnect();
+        } finally {
+            e.close();
+        }
+    }
+}
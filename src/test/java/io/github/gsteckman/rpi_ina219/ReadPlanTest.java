@@ -0,0 +1,101 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ReadPlanTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the ReadPlan.
+ */
+public class ReadPlanTest {
+    private static final Channel[] ALL = Channel.values();
+
+    /**
+     * Tests the registers chosen for several sets of channels.
+     */
+    @Test
+    public void registers() {
+        Assert.assertEquals(EnumSet.of(RegisterAddress.SHUNT_VOLTAGE, RegisterAddress.BUS_VOLTAGE),
+                new ReadPlan(false, ALL).getRegisters());
+        Assert.assertEquals(EnumSet.of(RegisterAddress.SHUNT_VOLTAGE, RegisterAddress.BUS_VOLTAGE,
+                RegisterAddress.POWER), new ReadPlan(true, ALL).getRegisters());
+        Assert.assertEquals(EnumSet.of(RegisterAddress.SHUNT_VOLTAGE),
+                new ReadPlan(false, Channel.CURRENT).getRegisters());
+        Assert.assertEquals(EnumSet.of(RegisterAddress.BUS_VOLTAGE, RegisterAddress.POWER),
+                new ReadPlan(false, Channel.POWER).getRegisters());
+        Assert.assertEquals(EnumSet.of(RegisterAddress.BUS_VOLTAGE),
+                new ReadPlan(false, Channel.BUS_VOLTAGE).getRegisters());
+        Assert.assertEquals(EnumSet.of(RegisterAddress.BUS_VOLTAGE, RegisterAddress.CURRENT),
+                new ReadPlan(false, Channel.CURRENT, Channel.BUS_VOLTAGE).getRegisters());
+        Assert.assertEquals(2, new ReadPlan(false, ALL).getReadCount());
+    }
+
+    /**
+     * Tests that the values derived by each plan are identical to the registers of the simulator, over random signals and calibrations including
+     * overflow, and that each plan makes only its own register reads.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void derivedMatchSimulator() throws IOException {
+        ReadPlan[] plans = { new ReadPlan(false, ALL), new ReadPlan(true, ALL), new ReadPlan(false, Channel.CURRENT),
+                new ReadPlan(false, Channel.POWER), new ReadPlan(false, Channel.CURRENT, Channel.POWER),
+                new ReadPlan(true, Channel.CURRENT), new ReadPlan(false, Channel.SHUNT_VOLTAGE) };
+        double[] shunts = { 0.01, 0.1, 0.5 };
+        double[] currents = { 0.4, 1.0, 3.2 };
+        Random random = new Random(42);
+        long[] full = new long[INA219Base.SNAPSHOT_LENGTH];
+        long[] planned = new long[INA219Base.SNAPSHOT_LENGTH];
+        for (int k = 0; k < 2000; k++) {
+            INA219Simulator s = new INA219Simulator((random.nextDouble() - 0.5) * 0.64, random.nextDouble() * 32);
+            INA219Base i = new INA219Base(s, shunts[random.nextInt(3)], currents[random.nextInt(3)],
+                    INA219.Brng.V32, INA219.Pga.values()[random.nextInt(4)], INA219.Adc.BITS_12, INA219.Adc.BITS_12);
+            i.readSnapshot(full, 0);
+            for (ReadPlan plan : plans) {
+                long before = s.getTransactionCount();
+                i.readSnapshot(plan, planned, 0);
+                Assert.assertEquals(plan.toString(), plan.getReadCount(), s.getTransactionCount() - before);
+                String context = plan + " " + s.readRegister(RegisterAddress.SHUNT_VOLTAGE) + " "
+                        + s.readRegister(RegisterAddress.CALIBRATION);
+                Assert.assertEquals(context, INA219Base.isOverflow(full[INA219Base.SNAPSHOT_BUS_VOLTAGE]),
+                        INA219Base.isOverflow(planned[INA219Base.SNAPSHOT_BUS_VOLTAGE]));
+                for (Channel c : plan.getChannels()) {
+                    int slot;
+                    switch (c) {
+                    case SHUNT_VOLTAGE:
+                        slot = INA219Base.SNAPSHOT_SHUNT_VOLTAGE;
+                        break;
+                    case BUS_VOLTAGE:
+                        slot = INA219Base.SNAPSHOT_BUS_VOLTAGE;
+                        break;
+                    case CURRENT:
+                        slot = INA219Base.SNAPSHOT_CURRENT;
+                        break;
+                    default:
+                        slot = INA219Base.SNAPSHOT_POWER;
+                        break;
+                    }
+                    Assert.assertEquals(context + " " + c, full[slot], planned[slot]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * ResilientRegisterTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the ResilientRegister, through an INA219 backed by a fault-injecting simulator.
+ */
+public class ResilientRegisterTest {
+    /**
+     * Tests that failed accesses are retried up to the limit, and that random errors are masked by retries.
+     *
+     * @throws IOException
+     *             If an access fails unexpectedly.
+     */
+    @Test
+    public void retries() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219 i = new INA219(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        s.failNext(1);
+        try {
+            i.getCurrent();
+            Assert.fail("retries are disabled initially");
+        } catch (IOException expected) {
+        }
+
+        i.setRetries(3, 10000);
+        s.failNext(3);
+        Assert.assertEquals(0.2, i.getCurrent(), 1e-3);
+        Assert.assertEquals(3, i.getRetryCount());
+        s.failNext(4);
+        try {
+            i.getCurrent();
+            Assert.fail("failure beyond the retry limit not thrown");
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(6, i.getRetryCount());
+
+        s.setErrorRate(0.1, 11);
+        i.setRetries(5, 0);
+        for (int k = 0; k < 1000; k++) {
+            Assert.assertEquals(12.0, i.getBusVoltage(), 1e-9);
+        }
+        Assert.assertTrue(i.getRetryCount() > 50);
+    }
+
+    /**
+     * Tests that the deadline bounds the time spent retrying an access to a device that has gone away.
+     *
+     * @throws IOException
+     *             If an access fails unexpectedly.
+     */
+    @Test
+    public void deadline() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219 i = new INA219(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        i.setRetries(20, 1000000L);
+        i.setDeadline(20000000L);
+        s.setConnected(false);
+        long start = System.nanoTime();
+        try {
+            i.getCurrent();
+            Assert.fail("disconnected device read");
+        } catch (IOException expected) {
+        }
+        long elapsed = System.nanoTime() - start;
+        Assert.assertTrue("elapsed " + elapsed, elapsed < 1000000000L);
+        Assert.assertTrue("retries " + i.getRetryCount(), i.getRetryCount() <= 5);
+    }
+
+    /**
+     * Tests that the deadline runs from the start of the call rather than from each access, and that a call begun without in-line retries is not
+     * retried.
+     *
+     * @throws Exception
+     *             If an access fails unexpectedly or the test is interrupted.
+     */
+    @Test
+    public void callDeadline() throws Exception {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        ResilientRegister r = new ResilientRegister(s);
+        r.setRetries(5, 1000000L);
+        r.setDeadline(10000000L);
+        r.begin(true);
+        try {
+            Thread.sleep(15);
+            s.failNext(1);
+            try {
+                r.readRegister(RegisterAddress.BUS_VOLTAGE);
+                Assert.fail("retried past the deadline of the call");
+            } catch (IOException expected) {
+            }
+        } finally {
+            r.end();
+        }
+        Assert.assertEquals(0, r.getRetryCount());
+
+        s.failNext(1);
+        r.readRegister(RegisterAddress.BUS_VOLTAGE);
+        Assert.assertEquals(1, r.getRetryCount());
+
+        r.begin(false);
+        try {
+            s.failNext(1);
+            try {
+                r.readRegister(RegisterAddress.BUS_VOLTAGE);
+                Assert.fail("retried in line");
+            } catch (IOException expected) {
+            }
+        } finally {
+            r.end();
+        }
+        Assert.assertEquals(1, r.getRetryCount());
+        Assert.assertTrue(r.retryDelay(0, System.nanoTime()) > 0);
+        Assert.assertEquals(-1, r.retryDelay(5, System.nanoTime()));
+        Assert.assertEquals(-1, r.retryDelay(0, System.nanoTime() - 20000000L));
+    }
+
+    /**
+     * Tests that the circuit breaker opens after consecutive failures, rejects accesses without bus transactions while open, and reinitializes the
+     * device when it comes back after a power cycle.
+     *
+     * @throws Exception
+     *             If an access fails unexpectedly or the test is interrupted.
+     */
+    @Test
+    public void circuitBreaker() throws Exception {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219 i = new INA219(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        i.setCircuitBreaker(3, 10000000000L);
+        int calibration = s.readRegister(RegisterAddress.CALIBRATION);
+        s.setConnected(false);
+        for (int k = 0; k < 3; k++) {
+            Assert.assertFalse(i.isCircuitOpen());
+            try {
+                i.getCurrent();
+                Assert.fail("disconnected device read");
+            } catch (IOException expected) {
+            }
+        }
+        Assert.assertTrue(i.isCircuitOpen());
+        long transactions = s.getTransactionCount();
+        for (int k = 0; k < 100; k++) {
+            try {
+                i.getCurrent();
+                Assert.fail("access allowed while the breaker is open");
+            } catch (IOException expected) {
+            }
+        }
+        Assert.assertEquals(transactions, s.getTransactionCount());
+        Assert.assertEquals(100, i.getRejectedCount());
+
+        s.setConnected(true);
+        Assert.assertEquals(0, s.readRegister(RegisterAddress.CALIBRATION));
+        i.setCircuitBreaker(3, 1000000L);
+        Thread.sleep(5);
+        Assert.assertEquals(0.2, i.getCurrent(), 1e-3);
+        Assert.assertFalse(i.isCircuitOpen());
+        Assert.assertEquals(1, i.getRecoveryCount());
+        Assert.assertEquals(calibration, s.readRegister(RegisterAddress.CALIBRATION));
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * RollupStoreTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the RollupStore.
+ */
+public class RollupStoreTest {
+    private static final long MS = 1000000L;
+    private static final long SECOND = 1000 * MS;
+
+    /**
+     * Feeds three hours of samples every 100 ms, with the power alternating between 3.0 and 4.2 W.
+     */
+    private static void feed(final RollupStore store) {
+        for (int k = 0; k < 108000; k++) {
+            double power = (k & 1) == 0 ? 3.0 : 4.2;
+            store.sample(k * 100 * MS, 0, 12.0, power / 12.0, power, false);
+        }
+    }
+
+    /**
+     * Tests that queries use the coarsest tier no coarser than the resolution that retains the range, and the values of the buckets.
+     */
+    @Test
+    public void tiers() {
+        RollupStore store = new RollupStore(Channel.POWER, SECOND);
+        feed(store);
+
+        List<RollupStore.Bucket> b = store.query(10770 * SECOND, 10800 * SECOND, SECOND);
+        Assert.assertEquals(30, b.size());
+        for (int i = 0; i < b.size(); i++) {
+            Assert.assertEquals(RollupStore.Resolution.SECOND, b.get(i).getResolution());
+            Assert.assertEquals((10770 + i) * SECOND, b.get(i).getStart());
+            Assert.assertEquals(10, b.get(i).getCount());
+            Assert.assertEquals(3.0, b.get(i).getMin(), 0);
+            Assert.assertEquals(4.2, b.get(i).getMax(), 0);
+            Assert.assertEquals(3.6, b.get(i).getMean(), 1e-9);
+            Assert.assertEquals(0.001, b.get(i).getEnergy(), 1e-12);
+        }
+        Assert.assertEquals(31, store.queryLast(30 * SECOND, SECOND).size());
+
+        b = store.query(10740 * SECOND, 10800 * SECOND, 60 * SECOND);
+        Assert.assertEquals(1, b.size());
+        Assert.assertEquals(RollupStore.Resolution.MINUTE, b.get(0).getResolution());
+
+        b = store.query(3600 * SECOND, 10800 * SECOND, SECOND);
+        Assert.assertEquals("seconds tier no longer retains the start", 120, b.size());
+        Assert.assertEquals(RollupStore.Resolution.MINUTE, b.get(0).getResolution());
+        Assert.assertEquals(600, b.get(0).getCount());
+        Assert.assertEquals(0.06, b.get(0).getEnergy(), 1e-9);
+
+        b = store.query(0, 10800 * SECOND, 3600 * SECOND);
+        Assert.assertEquals(3, b.size());
+        Assert.assertEquals(RollupStore.Resolution.HOUR, b.get(0).getResolution());
+        Assert.assertEquals(36000, b.get(0).getCount());
+        double energy = 0;
+        for (RollupStore.Bucket x : b) {
+            energy += x.getEnergy();
+        }
+        Assert.assertEquals("one interval less than the samples", 10.8 - 0.0001, energy, 1e-9);
+    }
+
+    /**
+     * Tests that the default tiers answer a query for the last hour in seconds and for the last day in minutes, although neither span starts on a
+     * bucket boundary.
+     */
+    @Test
+    public void defaultSpans() {
+        RollupStore store = new RollupStore(Channel.POWER, 20 * SECOND);
+        for (int k = 0; k < 9360; k++) {
+            store.sample(k * 10 * SECOND, 0, 12.0, 0.25, 3.0, false);
+        }
+        List<RollupStore.Bucket> b = store.queryLast(24 * 3600 * SECOND, 60 * SECOND);
+        Assert.assertEquals(1441, b.size());
+        Assert.assertEquals(RollupStore.Resolution.MINUTE, b.get(0).getResolution());
+        Assert.assertEquals(RollupStore.Resolution.MINUTE, b.get(1440).getResolution());
+
+        b = store.queryLast(3600 * SECOND, SECOND);
+        Assert.assertEquals(361, b.size());
+        Assert.assertEquals(RollupStore.Resolution.SECOND, b.get(0).getResolution());
+        Assert.assertEquals(1, b.get(0).getCount());
+    }
+
+    /**
+     * Tests that the rings keep only the newest buckets, and that overflowed samples are excluded.
+     */
+    @Test
+    public void boundedRings() {
+        RollupStore store = new RollupStore(Channel.POWER, SECOND, 10, 5, 2);
+        feed(store);
+        Assert.assertEquals(10, store.query(10790 * SECOND, 10800 * SECOND, SECOND).size());
+        Assert.assertEquals(5, store.query(10500 * SECOND, 10800 * SECOND, SECOND).size());
+        List<RollupStore.Bucket> b = store.query(0, 10800 * SECOND, SECOND);
+        Assert.assertEquals("no tier retains the start", 2, b.size());
+        Assert.assertEquals(RollupStore.Resolution.HOUR, b.get(0).getResolution());
+        Assert.assertEquals(3600 * SECOND, b.get(0).getStart());
+
+        store.sample(10800 * SECOND, 0, 12.0, 10.0, 120.0, true);
+        store.sample(10800 * SECOND + 100 * MS, 0, 12.0, 0.3, 3.6, false);
+        b = store.query(10800 * SECOND, 10801 * SECOND, SECOND);
+        Assert.assertEquals(1, b.size());
+        Assert.assertEquals(1, b.get(0).getCount());
+        Assert.assertEquals(3.6, b.get(0).getMax(), 0);
+        Assert.assertEquals(0, b.get(0).getEnergy(), 0);
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleConsumerTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of several SampleConsumers reading one SampleRingBuffer concurrently with its producer.
+ */
+public class SampleConsumerTest {
+    private static final int SAMPLES = 1000000;
+
+    /**
+     * Reads samples until the last one, checking that each is intact and in order.
+     */
+    private static class Reader extends Thread {
+        private final SampleConsumer consumer;
+        private final long delay;
+        long received;
+        long errors;
+
+        Reader(final SampleConsumer consumer, final long delay) {
+            this.consumer = consumer;
+            this.delay = delay;
+        }
+
+        @Override
+        public void run() {
+            long[] s = new long[INA219Base.SNAPSHOT_LENGTH];
+            long last = -1;
+            try {
+                while (last < SAMPLES - 1) {
+                    consumer.take(s, 0);
+                    long k = s[INA219Base.SNAPSHOT_TIMESTAMP];
+                    for (int i = 1; i < s.length; i++) {
+                        if (s[i] != k * i) {
+                            errors++;
+                        }
+                    }
+                    if (k <= last) {
+                        errors++;
+                    }
+                    last = k;
+                    received++;
+                    if (delay > 0 && received % 1000 == 0) {
+                        Thread.sleep(delay);
+                    }
+                }
+            } catch (InterruptedException e) {
+                errors++;
+            }
+        }
+    }
+
+    /**
+     * Tests that fast consumers see every sample intact, and that a slow consumer detects its overruns without stalling the producer or the others.
+     *
+     * @throws InterruptedException
+     *             If the test is interrupted.
+     */
+    @Test
+    public void consumers() throws InterruptedException {
+        SampleRingBuffer b = new SampleRingBuffer(1 << 17);
+        Reader[] readers = new Reader[] {
+                new Reader(new SampleConsumer(b, SampleConsumer.WaitStrategy.BUSY_SPIN), 0),
+                new Reader(new SampleConsumer(b, SampleConsumer.WaitStrategy.YIELD), 0),
+                new Reader(new SampleConsumer(b, SampleConsumer.WaitStrategy.PARK), 0),
+                new Reader(new SampleConsumer(b, SampleConsumer.WaitStrategy.PARK), 1) };
+        for (Reader r : readers) {
+            r.start();
+        }
+        long[] s = new long[INA219Base.SNAPSHOT_LENGTH];
+        for (long k = 0; k < SAMPLES; k++) {
+            for (int i = 0; i < s.length; i++) {
+                s[i] = k * (i == 0 ? 1 : i);
+            }
+            b.add(s, 0);
+        }
+        for (Reader r : readers) {
+            r.join(60000);
+            Assert.assertFalse(r.isAlive());
+            Assert.assertEquals(0, r.errors);
+            Assert.assertEquals(SAMPLES, r.received + r.consumer.getOverrunCount());
+            Assert.assertEquals(0, r.consumer.getBacklog());
+        }
+        Assert.assertTrue(readers[3].consumer.getOverrunCount() > 0);
+    }
+
+    /**
+     * Tests batch draining and overrun accounting without concurrency.
+     */
+    @Test
+    public void drain() {
+        SampleRingBuffer b = new SampleRingBuffer(4);
+        SampleConsumer c = new SampleConsumer(b, SampleConsumer.WaitStrategy.PARK);
+        long[] s = new long[INA219Base.SNAPSHOT_LENGTH];
+        for (int k = 0; k < 6; k++) {
+            s[INA219Base.SNAPSHOT_TIMESTAMP] = k;
+            b.add(s, 0);
+        }
+        Assert.assertEquals(4, c.getBacklog());
+        long[] dest = new long[10 * INA219Base.SNAPSHOT_LENGTH];
+        Assert.assertEquals(4, c.drain(dest, 0, 10));
+        Assert.assertEquals(2, c.getOverrunCount());
+        Assert.assertEquals(2, dest[INA219Base.SNAPSHOT_TIMESTAMP]);
+        Assert.assertEquals(5, dest[3 * INA219Base.SNAPSHOT_LENGTH + INA219Base.SNAPSHOT_TIMESTAMP]);
+        Assert.assertFalse(c.poll(s, 0));
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleEncoderTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the SampleEncoder and SampleDecoder classes.
+ */
+public class SampleEncoderTest {
+    private static final int N = 5000;
+
+    /**
+     * Creates a trace of slowly varying registers with noise and timestamps with jitter, whose gain range changes every 700 samples.
+     */
+    private static long[] trace() {
+        Random random = new Random(7);
+        long[] samples = new long[N * INA219Base.SNAPSHOT_LENGTH];
+        long t = 1234567890123L;
+        for (int k = 0; k < N; k++) {
+            int o = k * INA219Base.SNAPSHOT_LENGTH;
+            t += 532000 + random.nextInt(4000) - 2000;
+            double signal = Math.sin(k / 500.0);
+            long shunt = Math.round(2000 * signal) + random.nextInt(7) - 3;
+            long bus = 3000 + Math.round(20 * signal) + random.nextInt(3) - 1;
+            long current = shunt * 4194 / 4096;
+            samples[o + INA219Base.SNAPSHOT_TIMESTAMP] = t;
+            samples[o + INA219Base.SNAPSHOT_SHUNT_VOLTAGE] = shunt;
+            samples[o + INA219Base.SNAPSHOT_BUS_VOLTAGE] = bus << 3 | 0x2;
+            samples[o + INA219Base.SNAPSHOT_CURRENT] = current;
+            samples[o + INA219Base.SNAPSHOT_POWER] = (current * bus / 5000) & 0xFFFF;
+            samples[o + INA219Base.SNAPSHOT_RANGE] = (k / 700) % 4;
+            samples[o + INA219Base.SNAPSHOT_CONVERSION_TIME] = INA219.Adc.BITS_12.getConversionTime() * 2;
+        }
+        samples[INA219Base.SNAPSHOT_SHUNT_VOLTAGE] = Short.MIN_VALUE;
+        samples[INA219Base.SNAPSHOT_LENGTH + INA219Base.SNAPSHOT_SHUNT_VOLTAGE] = Short.MAX_VALUE;
+        return samples;
+    }
+
+    /**
+     * Encodes a trace, including a short block ended by a flush, and decodes every block.
+     *
+     * @throws IOException
+     *             Not thrown when encoding to memory.
+     */
+    @Test
+    public void roundTrip() throws IOException {
+        long[] samples = trace();
+        INA219Base device = new INA219Base(new INA219Simulator(20e-3, 12.0), 0.1, 3.0, INA219.Brng.V32,
+                INA219.Pga.GAIN_8, INA219.Adc.BITS_12, INA219.Adc.BITS_12);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SampleEncoder e = new SampleEncoder(out, 256, device);
+        for (int k = 0; k < N; k++) {
+            e.encode(samples, k * INA219Base.SNAPSHOT_LENGTH);
+            if (k == 1000) {
+                e.flush();
+            }
+        }
+        e.close();
+        Assert.assertEquals(N, e.getSampleCount());
+        Assert.assertEquals(out.size(), e.getByteCount());
+        double bytesPerSample = (double) out.size() / N;
+        Assert.assertTrue("bytes per sample " + bytesPerSample, bytesPerSample < 8);
+
+        SampleDecoder d = new SampleDecoder(ByteBuffer.wrap(out.toByteArray()));
+        Assert.assertEquals(device.getCalibration(), d.getCalibration());
+        Assert.assertEquals(device.getConfiguration(), d.getConfiguration());
+        Assert.assertEquals(N, d.getSampleCount());
+        Assert.assertEquals(20, d.getBlockCount()); // 3 full, 1 flushed, 15 full, 1 closed
+        Assert.assertEquals(1001 % 256, d.getSampleCount(3));
+        long[] decoded = new long[N * INA219Base.SNAPSHOT_LENGTH];
+        int offset = 0;
+        for (int b = 0; b < d.getBlockCount(); b++) {
+            offset += d.decodeBlock(b, decoded, offset) * INA219Base.SNAPSHOT_LENGTH;
+        }
+        Assert.assertEquals(decoded.length, offset);
+        Assert.assertArrayEquals(samples, decoded);
+    }
+
+    /**
+     * Tests that snapshots of an automatically ranged device decode with the gain range and conversion time they were taken with, so that they convert
+     * to the same measurements, both through the device and with the calibrations recorded in the stream.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void autoRanging() throws IOException {
+        INA219Simulator s = new INA219Simulator(5e-3, 12.0);
+        INA219Base device = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        device.setAutoRanging(true);
+        double[] levels = { 5e-3, 100e-3, 20e-3, 250e-3, 1e-3 };
+        int n = levels.length * 40;
+        long[] samples = new long[n * INA219Base.SNAPSHOT_LENGTH];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SampleEncoder e = new SampleEncoder(out, 64, device);
+        int ranges = 0;
+        for (int k = 0; k < n; k++) {
+            s.setShuntVoltage(levels[k / 40]);
+            device.readSnapshot(samples, k * INA219Base.SNAPSHOT_LENGTH);
+            e.encode(samples, k * INA219Base.SNAPSHOT_LENGTH);
+            ranges |= 1 << samples[k * INA219Base.SNAPSHOT_LENGTH + INA219Base.SNAPSHOT_RANGE];
+        }
+        e.close();
+        Assert.assertEquals("all four ranges used", 0xF, ranges);
+
+        SampleDecoder d = new SampleDecoder(ByteBuffer.wrap(out.toByteArray()));
+        long[] decoded = new long[samples.length];
+        int offset = 0;
+        for (int b = 0; b < d.getBlockCount(); b++) {
+            offset += d.decodeBlock(b, decoded, offset) * INA219Base.SNAPSHOT_LENGTH;
+        }
+        Assert.assertArrayEquals(samples, decoded);
+        for (int k = 0; k < n; k++) {
+            Measurement expected = device.toMeasurement(samples, k * INA219Base.SNAPSHOT_LENGTH);
+            Measurement actual = device.toMeasurement(decoded, k * INA219Base.SNAPSHOT_LENGTH);
+            Assert.assertEquals(expected.getPga(), actual.getPga());
+            Assert.assertEquals(expected.getCurrent(), actual.getCurrent(), 0);
+            Assert.assertEquals(expected.getPower(), actual.getPower(), 0);
+        }
+
+        // convert with the calibrations in the stream and the shunt resistance alone, without the device
+        for (int k = 0; k < n; k++) {
+            int o = k * INA219Base.SNAPSHOT_LENGTH;
+            int range = (int) decoded[o + INA219Base.SNAPSHOT_RANGE];
+            Assert.assertEquals(device.getCalibration(range), d.getCalibration(range));
+            double lsb = 0.04096 / (d.getCalibration(range) * 0.1);
+            Measurement expected = device.toMeasurement(samples, o);
+            Assert.assertEquals(expected.getCurrent(), decoded[o + INA219Base.SNAPSHOT_CURRENT] * lsb, 1e-12);
+            Assert.assertEquals(expected.getPower(), decoded[o + INA219Base.SNAPSHOT_POWER] * 20 * lsb, 1e-12);
+        }
+    }
+
+    /**
+     * Tests finding blocks by time, and that a block cut short at the end of the stream is ignored.
+     *
+     * @throws IOException
+     *             Not thrown when encoding to memory.
+     */
+    @Test
+    public void randomAccess() throws IOException {
+        long[] samples = trace();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        INA219Base device = new INA219Base(new INA219Simulator(20e-3, 12.0), 0.1, 3.0, INA219.Brng.V32,
+                INA219.Pga.GAIN_8, INA219.Adc.BITS_12, INA219.Adc.BITS_12);
+        SampleEncoder e = new SampleEncoder(out, 100, device);
+        for (int k = 0; k < N; k++) {
+            e.encode(samples, k * INA219Base.SNAPSHOT_LENGTH);
+        }
+        e.close();
+        byte[] bytes = out.toByteArray();
+        SampleDecoder d = new SampleDecoder(ByteBuffer.wrap(bytes));
+        Assert.assertEquals(N / 100, d.getBlockCount());
+
+        long[] block = new long[d.getBlockSize() * INA219Base.SNAPSHOT_LENGTH];
+        int k = 3210;
+        long time = samples[k * INA219Base.SNAPSHOT_LENGTH + INA219Base.SNAPSHOT_TIMESTAMP];
+        int b = d.findBlock(time);
+        Assert.assertEquals(k / 100, b);
+        Assert.assertTrue(d.getFirstTimestamp(b) <= time && time <= d.getLastTimestamp(b));
+        Assert.assertEquals(100, d.decodeBlock(b, block, 0));
+        int i = (k % 100) * INA219Base.SNAPSHOT_LENGTH;
+        Assert.assertArrayEquals(Arrays.copyOfRange(samples, k * INA219Base.SNAPSHOT_LENGTH,
+                (k + 1) * INA219Base.SNAPSHOT_LENGTH), Arrays.copyOfRange(block, i, i + INA219Base.SNAPSHOT_LENGTH));
+        Assert.assertEquals(k / 100 + 1, d.findBlock(d.getLastTimestamp(b) + 1));
+        Assert.assertEquals(0, d.findBlock(Long.MIN_VALUE));
+        Assert.assertEquals(d.getBlockCount(), d.findBlock(Long.MAX_VALUE));
+
+        SampleDecoder truncated = new SampleDecoder(ByteBuffer.wrap(bytes, 0, bytes.length - 5));
+        Assert.assertEquals(N / 100 - 1, truncated.getBlockCount());
+        Assert.assertEquals(N - 100, truncated.getSampleCount());
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SampleRecorderTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the SampleRecorder and SampleReplay classes.
+ */
+public class SampleRecorderTest {
+
+    /**
+     * Records samples across several files and replays them through INA219Base.
+     *
+     * @throws IOException
+     *             If the temporary files could not be written or read.
+     */
+    @Test
+    public void recordAndReplay() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        File dir = File.createTempFile("ina219", "");
+        Assert.assertTrue(dir.delete() && dir.mkdir());
+        File base = new File(dir, "capture");
+        final int n = 250;
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+        SampleRecorder r = new SampleRecorder(base, SampleRecorder.HEADER_SIZE + 100 * SampleRecorder.RECORD_SIZE,
+                i);
+        for (int k = 0; k < n; k++) {
+            sample[INA219Base.SNAPSHOT_TIMESTAMP] = k;
+            sample[INA219Base.SNAPSHOT_SHUNT_VOLTAGE] = -k;
+            sample[INA219Base.SNAPSHOT_BUS_VOLTAGE] = (3000 + k) << 3 | 0x2;
+            sample[INA219Base.SNAPSHOT_POWER] = 40000 + k;
+            sample[INA219Base.SNAPSHOT_CURRENT] = -2 * k;
+            r.record(sample, 0);
+        }
+        r.close();
+        Assert.assertTrue(SampleRecorder.getFile(base, 2).exists());
+        Assert.assertFalse(SampleRecorder.getFile(base, 3).exists());
+        Assert.assertEquals(SampleRecorder.HEADER_SIZE + 50 * SampleRecorder.RECORD_SIZE,
+                SampleRecorder.getFile(base, 2).length());
+
+        SampleReplay replay = new SampleReplay(base);
+        Assert.assertEquals(i.getCalibration(), replay.readRegister(RegisterAddress.CALIBRATION));
+        INA219Base p = new INA219Base(replay, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        for (int k = 0; k < n; k++) {
+            p.readSnapshot(sample, 0);
+            Assert.assertEquals(k, replay.getTimestamp());
+            Assert.assertEquals(-k, sample[INA219Base.SNAPSHOT_SHUNT_VOLTAGE]);
+            Assert.assertEquals((3000 + k) << 3 | 0x2, sample[INA219Base.SNAPSHOT_BUS_VOLTAGE]);
+            Assert.assertEquals(40000 + k, sample[INA219Base.SNAPSHOT_POWER]);
+            Assert.assertEquals(-2 * k, sample[INA219Base.SNAPSHOT_CURRENT]);
+        }
+        try {
+            p.readSnapshot(sample, 0);
+            Assert.fail("read past end of recording");
+        } catch (EOFException e) {
+            // expected
+        }
+        replay.close();
+        for (int k = 0; k < 3; k++) {
+            Assert.assertTrue(SampleRecorder.getFile(base, k).delete());
+        }
+        Assert.assertTrue(dir.delete());
+    }
+
+    /**
+     * Records an auto-ranging device and replays it through a device at a fixed range, checking that current and power are converted with the
+     * calibration of the range each sample was recorded at.
+     *
+     * @throws IOException
+     *             If the temporary files could not be written or read.
+     */
+    @Test
+    public void autoRanging() throws IOException {
+        INA219Simulator s = new INA219Simulator(5e-3, 12.0);
+        INA219Base i = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        i.setAutoRanging(true);
+        File dir = File.createTempFile("ina219", "");
+        Assert.assertTrue(dir.delete() && dir.mkdir());
+        File base = new File(dir, "capture");
+        double[] levels = { 5e-3, 100e-3, 20e-3, 250e-3, 1e-3 };
+        int n = levels.length * 40;
+        long[] samples = new long[n * INA219Base.SNAPSHOT_LENGTH];
+        SampleRecorder r = new SampleRecorder(base, SampleRecorder.HEADER_SIZE + n * SampleRecorder.RECORD_SIZE, i);
+        int ranges = 0;
+        for (int k = 0; k < n; k++) {
+            s.setShuntVoltage(levels[k / 40]);
+            i.readSnapshot(samples, k * INA219Base.SNAPSHOT_LENGTH);
+            r.record(samples, k * INA219Base.SNAPSHOT_LENGTH);
+            ranges |= 1 << samples[k * INA219Base.SNAPSHOT_LENGTH + INA219Base.SNAPSHOT_RANGE];
+        }
+        r.close();
+        Assert.assertEquals("all four ranges used", 0xF, ranges);
+
+        SampleReplay replay = new SampleReplay(base);
+        INA219Base p = new INA219Base(replay, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        long[] sample = new long[INA219Base.SNAPSHOT_LENGTH];
+        for (int k = 0; k < n; k++) {
+            p.readSnapshot(sample, 0);
+            int offset = k * INA219Base.SNAPSHOT_LENGTH;
+            Assert.assertEquals(samples[offset + INA219Base.SNAPSHOT_RANGE], replay.getRange());
+            Measurement expected = i.toMeasurement(samples, offset);
+            Measurement actual = p.toMeasurement(sample, 0);
+            Assert.assertEquals(expected.getShuntVoltage(), actual.getShuntVoltage(), 0);
+            Assert.assertEquals(expected.getCurrent(), actual.getCurrent(),
+                    2 * p.getCurrentLSB(3) + 1e-3 * Math.abs(expected.getCurrent()));
+            Assert.assertEquals(expected.getPower(), actual.getPower(),
+                    40 * p.getCurrentLSB(3) + 1e-3 * expected.getPower());
+        }
+        replay.close();
+        Assert.assertTrue(SampleRecorder.getFile(base, 0).delete());
+        Assert.assertTrue(dir.delete());
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SharedINA219Test.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the SharedINA219.
+ */
+public class SharedINA219Test {
+    private final AtomicReference<Throwable> workerFailure = new AtomicReference<Throwable>();
+
+    /**
+     * Tests that reads within the staleness bound are served from the last sample without bus transactions.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void staleness() throws IOException {
+        INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base device = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        SharedINA219 shared = new SharedINA219(device, 1000000000L);
+        Measurement first = shared.read();
+        Assert.assertEquals(200e-3, first.getCurrent(), 1e-3);
+        long transactions = s.getTransactionCount();
+        for (int k = 0; k < 100; k++) {
+            Assert.assertSame(first, shared.read());
+        }
+        Assert.assertEquals(transactions, s.getTransactionCount());
+        Assert.assertEquals(1, shared.getBusReadCount());
+        Assert.assertEquals(100, shared.getCachedReadCount());
+
+        shared.setAdc(INA219.Adc.SAMPLES_2, INA219.Adc.SAMPLES_2);
+        Assert.assertNotSame(first, shared.read());
+        Assert.assertEquals(2, shared.getBusReadCount());
+
+        shared.setMaxAge(0);
+        s.failNext(1);
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 2 * INA219.Adc.SAMPLES_2.getConversionTime() * 2) {
+            Thread.yield();
+        }
+        try {
+            shared.read();
+            Assert.fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Tests that threads reading at the same time share a single read of the device.
+     *
+     * @throws Exception
+     *             If the test is interrupted.
+     */
+    @Test
+    public void singleFlight() throws Exception {
+        final INA219Simulator s = new INA219Simulator(20e-3, 12.0);
+        INA219Base device = new INA219Base(s, 0.1, 3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12,
+                INA219.Adc.BITS_12);
+        final SharedINA219 shared = new SharedINA219(device, 0);
+        s.setLatency(20000000L);
+        final int n = 8;
+        final Measurement[] results = new Measurement[n];
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(n);
+        long transactions = s.getTransactionCount();
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        go.await();
+                        results[index] = shared.read();
+                    } catch (Throwable t) {
+                        workerFailure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        go.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        if (workerFailure.get() != null) {
+            throw new AssertionError("Reader thread failed", workerFailure.get());
+        }
+        Assert.assertEquals(1, shared.getBusReadCount());
+        Assert.assertEquals(n - 1, shared.getSharedReadCount());
+        Assert.assertEquals(4, s.getTransactionCount() - transactions);
+        for (int i = 0; i < n; i++) {
+            Assert.assertSame(results[0], results[i]);
+        }
+    }
+}
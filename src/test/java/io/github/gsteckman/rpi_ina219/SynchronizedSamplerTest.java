@@ -0,0 +1,104 @@
+package io.github.gsteckman.rpi_ina219;
+
+/*
+ * SynchronizedSamplerTest.java
+ *
+ * Copyright 2017 Greg Steckman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the SynchronizedSampler.
+ */
+public class SynchronizedSamplerTest {
+    private static final double SLOPE = 1.0; // shunt voltage ramp, V/s
+
+    /**
+     * A System.nanoTime() clock whose first value, taken by the simulator as its start, is a common origin.
+     */
+    private static LongSupplier clock(final long origin) {
+        return new LongSupplier() {
+            private boolean started;
+
+            public long getAsLong() {
+                if (!started) {
+                    started = true;
+                    return origin;
+                }
+                return System.nanoTime();
+            }
+        };
+    }
+
+    private static final Waveform RAMP = new Waveform() {
+        public double valueAt(final long time) {
+            return -0.1 + SLOPE * time / 1e9;
+        }
+    };
+
+    /**
+     * Tests the skew of devices with different conversion times, and that interpolation brings both devices to the value at the common time.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test
+    public void alignedFrames() throws IOException {
+        long origin = System.nanoTime();
+        INA219Base fast = new INA219Base(new INA219Simulator(RAMP, Waveform.constant(12.0), clock(origin)), 0.1,
+                3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12, INA219.Adc.BITS_12,
+                INA219.Mode.SHUNT_BUS_TRIGGERED);
+        INA219Base slow = new INA219Base(new INA219Simulator(RAMP, Waveform.constant(5.0), clock(origin)), 0.1,
+                3.0, INA219.Brng.V32, INA219.Pga.GAIN_8, INA219.Adc.BITS_12, INA219.Adc.SAMPLES_16,
+                INA219.Mode.SHUNT_BUS_TRIGGERED);
+        SynchronizedSampler sampler = new SynchronizedSampler(fast, slow);
+
+        SynchronizedSampler.Frame f = sampler.acquire();
+        Assert.assertEquals(2, f.size());
+        Assert.assertFalse(f.isInterpolated());
+        long expectedSkew = (INA219.Adc.SAMPLES_16.getConversionTime() - INA219.Adc.BITS_12.getConversionTime()) / 2;
+        Assert.assertTrue("skew " + f.getSkew(), f.getSkew() >= expectedSkew);
+        Assert.assertEquals(f.getSampleTime(1), f.getTime());
+        Assert.assertTrue(f.getReadTime(1) - f.getSampleTime(1) >= INA219.Adc.SAMPLES_16.getConversionTime() / 2);
+        double difference = f.get(1).getShuntVoltage() - f.get(0).getShuntVoltage();
+        Assert.assertEquals(SLOPE * f.getSkew() / 1e9, difference, 1.5e-3);
+
+        sampler.setInterpolation(true);
+        Assert.assertFalse(sampler.acquire().isInterpolated());
+        for (int k = 0; k < 5; k++) {
+            f = sampler.acquire();
+            Assert.assertTrue(f.isInterpolated());
+            Assert.assertTrue("skew " + f.getSkew(), f.getSkew() >= expectedSkew);
+            Assert.assertEquals(f.getTime(), f.get(0).getTimestamp());
+            Assert.assertEquals(f.getTime(), f.get(1).getTimestamp());
+            Assert.assertEquals(f.get(0).getShuntVoltage(), f.get(1).getShuntVoltage(), 1e-3);
+            Assert.assertEquals(-0.1 + SLOPE * (f.getTime() - origin) / 1e9, f.get(1).getShuntVoltage(), 1e-3);
+            Assert.assertEquals(5.0, f.get(1).getBusVoltage(), 1e-9);
+        }
+    }
+
+    /**
+     * Tests that devices must be in a triggered mode.
+     *
+     * @throws IOException
+     *             Not thrown due to use of the simulator.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresTriggeredMode() throws IOException {
+        new SynchronizedSampler(new INA219Base(new INA219Simulator(20e-3, 12.0), 0.1, 3.0, INA219.Brng.V32,
+                INA219.Pga.GAIN_8, INA219.Adc.BITS_12, INA219.Adc.BITS_12));
+    }
+}